@@ -18,6 +18,7 @@ package com.example.android.apis.app;
 
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.FragmentManager;
 import android.app.ListFragment;
 import android.app.LoaderManager;
@@ -29,16 +30,21 @@ import android.content.IntentFilter;
 import android.content.Loader;
 import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.OperationCanceledException;
 import android.support.annotation.NonNull;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -60,7 +66,18 @@ import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static android.util.Log.i;
 
@@ -109,6 +126,7 @@ public class LoaderCustom extends Activity {
     public static class AppEntry {
         private final AppListLoader mLoader; // AppListLoader which created us using "this"
         private final ApplicationInfo mInfo; // ApplicationInfo for package we are assigned to
+        private final int mVersionCode; // Version code of the package, part of our icon cache key
         private final File mApkFile; // Full path to the base APK for the package
         private String mLabel; // Application label as discovered by the method loadLabel
         private Drawable mIcon; // Icon loaded from application apk by the method getIcon
@@ -118,17 +136,21 @@ public class LoaderCustom extends Activity {
          * Constructor for an instance holding {@code ApplicationInfo info} describing a particular
          * package. We initialize our field {@code AppListLoader mLoader} with the value of our
          * parameter {@code AppListLoader loader}, and our field {@code ApplicationInfo mInfo} with
-         * the value of our parameter {@code ApplicationInfo info}. Finally we initialize our field
+         * the value of our parameter {@code ApplicationInfo info}, and our field {@code int mVersionCode}
+         * with the value of our parameter {@code int versionCode}. Finally we initialize our field
          * {@code File mApkFile} with a new {@code File} instance derived from the pathname given in
          * the field {@code info.sourceDir} (full path to the base APK for the application).
          *
-         * @param loader "this" when called in our {@code AppListLoader} background thread
-         * @param info   one of the {@code ApplicationInfo} instances of the list that is returned
-         *               from the call to {@code PackageManager.getInstalledApplications}
+         * @param loader      "this" when called in our {@code AppListLoader} background thread
+         * @param info        the {@code applicationInfo} field of one of the {@code PackageInfo}
+         *                    instances of the list that is returned from the call to
+         *                    {@code PackageManager.getInstalledPackages}
+         * @param versionCode the {@code versionCode} field of the same {@code PackageInfo}
          */
-        public AppEntry(AppListLoader loader, ApplicationInfo info) {
+        public AppEntry(AppListLoader loader, ApplicationInfo info, int versionCode) {
             mLoader = loader;
             mInfo = info;
+            mVersionCode = versionCode;
             mApkFile = new File(info.sourceDir);
         }
 
@@ -151,9 +173,31 @@ public class LoaderCustom extends Activity {
             return mLabel;
         }
 
+        /**
+         * Returns the key under which the icon of this entry is kept in the cache of
+         * {@code AppIconLoader}: the package name of our field {@code ApplicationInfo mInfo}
+         * followed by our field {@code int mVersionCode}, so that the icon of an updated package
+         * is loaded again.
+         *
+         * @return package name and version code of our package, separated by a ':'
+         */
+        public String getIconKey() {
+            return mInfo.packageName + ":" + mVersionCode;
+        }
+
+        /**
+         * Getter method for our field {@code boolean mMounted}, simply returns {@code mMounted}.
+         *
+         * @return true if the apk of our package was found the last time we looked for it
+         */
+        boolean isMounted() {
+            return mMounted;
+        }
+
         /**
          * Getter method for our field {@code Drawable mIcon} (loading it from the apk or supplying
-         * a default icon if necessary.)
+         * a default icon if necessary.) Loading the icon decodes it from the apk, so our list
+         * calls this on the background threads of {@code AppIconLoader} rather than the UI thread.
          * <p>
          * If the current value of {{@code Drawable mIcon}} is null (our first time being called, or
          * the apk was not found to load an Icon from) we check to see if our {@code File mApkFile}
@@ -416,6 +460,24 @@ public class LoaderCustom extends Activity {
     @SuppressWarnings("WeakerAccess")
     public static class AppListLoader extends AsyncTaskLoader<List<AppEntry>> {
 
+        /**
+         * Number of threads our method {@code loadLabels} loads the labels of the applications on.
+         */
+        static final int LABEL_THREAD_COUNT =
+                Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        /**
+         * Pool of threads used by our method {@code loadLabels}, whose threads exit when they have
+         * been idle for a second since labels are only loaded when the app list is (re)built.
+         */
+        static final ThreadPoolExecutor LABEL_EXECUTOR = new ThreadPoolExecutor(
+                LABEL_THREAD_COUNT, LABEL_THREAD_COUNT, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+
+        static {
+            LABEL_EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+
         /**
          * Helper for determining if the configuration has changed in a way that may require us
          * to redisplay it.
@@ -461,38 +523,44 @@ public class LoaderCustom extends Activity {
         /**
          * This is where the bulk of our work is done.  This function is called in a background
          * thread and should generate a new set of data to be published by the loader. First we
-         * use our {@code PackageManager mPm} to retrieve all known applications to our variable
-         * {@code List<ApplicationInfo> apps}. If no apps are returned (result is null) we allocate
-         * an empty {@code ArrayList<>} for {@code apps}. We initialize {@code Context context} with
-         * an application context retrieved from the Context passed to the constructor. We create
-         * our return list {@code List<AppEntry> entries}, and populate it with an {@code AppEntry}
-         * for each of the {@code ApplicationInfo} instances in {@code List<ApplicationInfo> apps}.
-         * When done we sort {@code entries} using our {@code Comparator<AppEntry> ALPHA_COMPARATOR}.
-         * Finally we return {@code entries} to the caller.
+         * use our {@code PackageManager mPm} to retrieve all known packages to our variable
+         * {@code List<PackageInfo> packages}. If no packages are returned (result is null) we
+         * allocate an empty {@code ArrayList<>} for {@code packages}. We initialize
+         * {@code Context context} with an application context retrieved from the Context passed
+         * to the constructor. We create our return list {@code List<AppEntry> entries}, and populate
+         * it with an {@code AppEntry} for each of the {@code PackageInfo} instances in
+         * {@code List<PackageInfo> packages} that has an {@code ApplicationInfo}, and then call our
+         * method {@code loadLabels} to load their labels in parallel. When done we sort
+         * {@code entries} using our {@code Comparator<AppEntry> ALPHA_COMPARATOR}. Finally we
+         * return {@code entries} to the caller.
          *
          * @return The result of the load operation.
          */
         @Override
         public List<AppEntry> loadInBackground() {
-            // Retrieve all known applications.
+            // Retrieve all known packages, their version codes key the icon cache.
             //noinspection WrongConstant
-            List<ApplicationInfo> apps = mPm.getInstalledApplications(
+            List<PackageInfo> packages = mPm.getInstalledPackages(
                     PackageManager.GET_UNINSTALLED_PACKAGES |
                             PackageManager.GET_DISABLED_COMPONENTS);
-            if (apps == null) {
-                apps = new ArrayList<>();
+            if (packages == null) {
+                packages = new ArrayList<>();
             }
 
             final Context context = getContext();
 
-            // Create corresponding array of entries and load their labels.
-            List<AppEntry> entries = new ArrayList<>(apps.size());
-            for (int i = 0; i < apps.size(); i++) {
-                AppEntry entry = new AppEntry(this, apps.get(i));
-                entry.loadLabel(context);
-                entries.add(entry);
+            // Create corresponding array of entries.
+            List<AppEntry> entries = new ArrayList<>(packages.size());
+            for (int i = 0; i < packages.size(); i++) {
+                PackageInfo info = packages.get(i);
+                if (info.applicationInfo != null) {
+                    entries.add(new AppEntry(this, info.applicationInfo, info.versionCode));
+                }
             }
 
+            // Load their labels.
+            loadLabels(context, entries);
+
             // Sort the list.
             Collections.sort(entries, ALPHA_COMPARATOR);
 
@@ -500,6 +568,57 @@ public class LoaderCustom extends Activity {
             return entries;
         }
 
+        /**
+         * Loads the labels of all the entries in our parameter {@code List<AppEntry> entries} in
+         * parallel on the threads of {@code ThreadPoolExecutor LABEL_EXECUTOR}. We split
+         * {@code entries} into {@code LABEL_THREAD_COUNT} chunks of consecutive entries, create a
+         * {@code Callable} for each chunk which calls the {@code loadLabel} method of each of its
+         * entries, and wait for all of them with the {@code invokeAll} method of
+         * {@code LABEL_EXECUTOR}. If a chunk threw we rethrow its exception. If we are interrupted
+         * while waiting we restore our interrupted status and load the labels which are still
+         * missing on our own thread, since sorting the list needs all of them.
+         *
+         * @param context application context used to load the labels
+         * @param entries the entries whose labels we are to load
+         */
+        static void loadLabels(final Context context, List<AppEntry> entries) {
+            int chunkSize = (entries.size() + LABEL_THREAD_COUNT - 1) / LABEL_THREAD_COUNT;
+            List<Callable<Void>> tasks = new ArrayList<>(LABEL_THREAD_COUNT);
+            for (int start = 0; start < entries.size(); start += chunkSize) {
+                final List<AppEntry> chunk =
+                        entries.subList(start, Math.min(start + chunkSize, entries.size()));
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        for (AppEntry entry : chunk) {
+                            entry.loadLabel(context);
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            try {
+                for (Future<Void> future : LABEL_EXECUTOR.invokeAll(tasks)) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (AppEntry entry : entries) {
+                    if (entry.getLabel() == null) {
+                        entry.loadLabel(context);
+                    }
+                }
+            } catch (ExecutionException e) {
+                // Our tasks throw no checked exceptions.
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw (Error) cause;
+            }
+        }
+
         /**
          * Called when there is new data to deliver to the client.  The super class will take care
          * of delivering it; the implementation here just adds a little more logic. Must be called
@@ -560,7 +679,8 @@ public class LoaderCustom extends Activity {
          * for changes in the installed packages which will (probably) invalidate our results thereby
          * necessitating a forced reload. Then we check whether configuration changes might have
          * occurred which would require our data to be redisplayed and save the result in the flag
-         * {@code boolean configChange}.
+         * {@code boolean configChange}. If it is true we clear the icon cache of
+         * {@code AppIconLoader}, whose icons may be for the wrong density.
          * <p>
          * Finally based on whether the current flag indicating whether the loader's content had
          * changed while it was stopped is set, or {@code mApps} is still null, or {@code configChange}
@@ -584,6 +704,9 @@ public class LoaderCustom extends Activity {
             // Has something interesting in the configuration changed since we
             // last built the app list?
             boolean configChange = mLastConfig.applyNewConfig(getContext().getResources());
+            if (configChange) {
+                AppIconLoader.clearCache();
+            }
 
             if (takeContentChanged() || mApps == null || configChange) {
                 // If the data has changed since the last time it was loaded
@@ -670,6 +793,211 @@ public class LoaderCustom extends Activity {
         }
     }
 
+    /**
+     * Loads the icons of our {@code AppEntry} objects on a pool of background threads and binds them
+     * to the {@code ImageView}'s of our list items, so that binding a list item never waits for an
+     * icon to be decoded from its apk. Loaded icons are kept in an LRU memory cache shared by all
+     * instances, keyed by the {@code getIconKey} method of their {@code AppEntry}. An
+     * {@code ImageView} whose icon is not in the cache shows a placeholder icon until its icon has
+     * been loaded. Except for the {@code run} method of {@code LoadIconTask}, all of our methods
+     * are called on the UI thread.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static class AppIconLoader {
+
+        /**
+         * Number of threads the icons are loaded on.
+         */
+        static final int ICON_THREAD_COUNT = 2;
+
+        /**
+         * Pool of threads the icons are loaded on. Its queue is last in first out, so that after a
+         * fling the icons of the list items now on screen, which were bound last, are loaded first.
+         * Its threads exit when they have been idle for a second.
+         */
+        static final ThreadPoolExecutor ICON_EXECUTOR = new ThreadPoolExecutor(
+                ICON_THREAD_COUNT, ICON_THREAD_COUNT, 1, TimeUnit.SECONDS,
+                new LinkedBlockingDeque<Runnable>() {
+                    @Override
+                    public boolean offer(@NonNull Runnable runnable) {
+                        return offerFirst(runnable);
+                    }
+                });
+
+        static {
+            ICON_EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+
+        /**
+         * Memory cache of the loaded icons, sized in bytes to an eighth of the memory class of the
+         * device. It is created by our constructor the first time it is called.
+         */
+        static LruCache<String, Drawable> sIconCache;
+
+        /**
+         * {@code Handler} used to pass the loaded icons back to the UI thread.
+         */
+        final Handler mHandler = new Handler(Looper.getMainLooper());
+
+        /**
+         * Icon shown by an {@code ImageView} until its icon has been loaded, the system drawable
+         * android.R.drawable.sym_def_app_icon.
+         */
+        final Drawable mPlaceholder;
+
+        /**
+         * The {@code ImageView}'s waiting for their icon, with the key of that icon. The keys are
+         * weak so that the views of a list which is gone are not kept.
+         */
+        final WeakHashMap<ImageView, String> mWaitingViews = new WeakHashMap<>();
+
+        /**
+         * The keys of the icons being loaded, so that an icon is only loaded once at a time.
+         */
+        final HashSet<String> mLoadingKeys = new HashSet<>();
+
+        /**
+         * Constructor for a new instance of {@code AppIconLoader}. If our icon cache
+         * {@code LruCache<String, Drawable> sIconCache} has not been created yet, we create it with
+         * a maximum size of an eighth of the memory class of the device, measuring icons with our
+         * method {@code getByteCount}. Then we initialize our field {@code Drawable mPlaceholder}
+         * with the system drawable android.R.drawable.sym_def_app_icon.
+         *
+         * @param context {@code Context} used to retrieve the memory class and the placeholder icon
+         */
+        public AppIconLoader(Context context) {
+            if (sIconCache == null) {
+                ActivityManager am =
+                        (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+                sIconCache = new LruCache<String, Drawable>(am.getMemoryClass() * 1024 * 1024 / 8) {
+                    @Override
+                    protected int sizeOf(String key, Drawable icon) {
+                        return getByteCount(icon);
+                    }
+                };
+            }
+
+            //noinspection deprecation
+            mPlaceholder = context.getResources().getDrawable(android.R.drawable.sym_def_app_icon);
+        }
+
+        /**
+         * Estimates the memory used by an icon: the byte count of its {@code Bitmap} if it is a
+         * {@code BitmapDrawable}, otherwise 4 bytes for each pixel of its intrinsic size.
+         *
+         * @param icon the icon to measure
+         * @return the number of bytes used by {@code icon}, at least 1
+         */
+        static int getByteCount(Drawable icon) {
+            if ((icon instanceof BitmapDrawable) && (((BitmapDrawable) icon).getBitmap() != null)) {
+                return ((BitmapDrawable) icon).getBitmap().getByteCount();
+            }
+            return Math.max(1, icon.getIntrinsicWidth() * icon.getIntrinsicHeight() * 4);
+        }
+
+        /**
+         * Removes all icons from our icon cache, called when the configuration changes in a way
+         * (such as the screen density) that requires the icons to be loaded again.
+         */
+        static void clearCache() {
+            if (sIconCache != null) {
+                sIconCache.evictAll();
+            }
+        }
+
+        /**
+         * Sets the icon of {@code AppEntry entry} as the image of {@code ImageView view}. If the
+         * icon is in our cache we set it right away (and forget any icon {@code view} was waiting
+         * for). Otherwise we set our placeholder icon, record in {@code mWaitingViews} that
+         * {@code view} is waiting for the icon of {@code entry}, and unless that icon is already
+         * being loaded we add its key to {@code mLoadingKeys} and execute a {@code LoadIconTask}
+         * for it on {@code ICON_EXECUTOR}.
+         *
+         * @param entry the {@code AppEntry} whose icon we are to show
+         * @param view  the {@code ImageView} to show it in
+         */
+        public void bind(AppEntry entry, ImageView view) {
+            String key = entry.getIconKey();
+            Drawable icon = sIconCache.get(key);
+            if (icon != null) {
+                mWaitingViews.remove(view);
+                view.setImageDrawable(icon);
+                return;
+            }
+
+            view.setImageDrawable(mPlaceholder);
+            mWaitingViews.put(view, key);
+            if (mLoadingKeys.add(key)) {
+                ICON_EXECUTOR.execute(new LoadIconTask(entry, key));
+            }
+        }
+
+        /**
+         * Called on the UI thread when an icon has been loaded. We remove {@code key} from
+         * {@code mLoadingKeys}, add the icon to our cache unless it is the default icon of an apk
+         * which was not mounted, then set it as the image of all the {@code ImageView}'s which are
+         * still waiting for it, and remove them from {@code mWaitingViews}.
+         *
+         * @param key       the key of the icon
+         * @param icon      the icon loaded
+         * @param cacheable false if {@code icon} is only a stand in for an apk which was not mounted
+         */
+        void onIconLoaded(String key, Drawable icon, boolean cacheable) {
+            mLoadingKeys.remove(key);
+            if (cacheable) {
+                sIconCache.put(key, icon);
+            }
+
+            Iterator<Map.Entry<ImageView, String>> it = mWaitingViews.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<ImageView, String> waiting = it.next();
+                if (key.equals(waiting.getValue())) {
+                    ImageView view = waiting.getKey();
+                    if (view != null) {
+                        view.setImageDrawable(icon);
+                    }
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * Task which loads the icon of an {@code AppEntry} on a thread of {@code ICON_EXECUTOR}.
+         */
+        class LoadIconTask implements Runnable {
+            final AppEntry mEntry; // Entry whose icon we load
+            final String mKey; // Key of the icon
+
+            /**
+             * Constructor which simply saves its parameters in our fields.
+             *
+             * @param entry the {@code AppEntry} whose icon we are to load
+             * @param key   the value returned by the {@code getIconKey} method of {@code entry}
+             */
+            LoadIconTask(AppEntry entry, String key) {
+                mEntry = entry;
+                mKey = key;
+            }
+
+            /**
+             * Loads the icon by calling the {@code getIcon} method of {@code AppEntry mEntry}, then
+             * posts a {@code Runnable} to the UI thread which calls our method {@code onIconLoaded}
+             * with it.
+             */
+            @Override
+            public void run() {
+                final Drawable icon = mEntry.getIcon();
+                final boolean cacheable = mEntry.isMounted();
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onIconLoaded(mKey, icon, cacheable);
+                    }
+                });
+            }
+        }
+    }
+
     /**
      * {@code ListAdapter} used as cursor to populate the {@code ListFragment}'s list of our Fragment
      * {@code AppListFragment}
@@ -686,12 +1014,19 @@ public class LoaderCustom extends Activity {
          */
         private final LayoutInflater mInflater;
 
+        /**
+         * {@code AppIconLoader} we use in our {@code getView} override to load the icons of our
+         * items off the UI thread.
+         */
+        private final AppIconLoader mIconLoader;
+
         /**
          * Constructor for a new instance of {@code AppListAdapter}. First we call through to our super's
          * constructor supplying a stock system layout for a {@code TwoLineListItem} (for no apparent
          * reason since we use our own layout file for our list item Views), and then we initialize our
          * field {@code LayoutInflater mInflater} with the {@code LayoutInflater} returned from the
-         * system-level service LAYOUT_INFLATER_SERVICE.
+         * system-level service LAYOUT_INFLATER_SERVICE, and our field
+         * {@code AppIconLoader mIconLoader} with a new instance.
          *
          * @param context This is the {@code Context} to use, in our case it is the {@code Activity}
          *                returned by {@code getActivity()}
@@ -699,6 +1034,7 @@ public class LoaderCustom extends Activity {
         public AppListAdapter(Context context) {
             super(context, android.R.layout.simple_list_item_2);
             mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+            mIconLoader = new AppIconLoader(context);
         }
 
         /**
@@ -721,9 +1057,10 @@ public class LoaderCustom extends Activity {
          * a {@code View view}, and if the {@code View convertView} passed us is null we use our field
          * {@code LayoutInflater mInflater} to inflate list item layout file R.layout.list_item_icon_text
          * into {@code view}. If {@code convertView} is not null we recycle it by setting {@code view} to
-         * it. Next we fetch the item at {@code int position} to {@code AppEntry item}, set the
-         * {@code ImageView} at R.id.icon in {@code view} to the icon associated with the data in
-         * {@code item} and set the text of the {@code TextView} R.id.text in {@code view} to the
+         * it. Next we fetch the item at {@code int position} to {@code AppEntry item}, have our
+         * {@code AppIconLoader mIconLoader} bind the icon associated with the data in {@code item}
+         * to the {@code ImageView} at R.id.icon in {@code view} (a placeholder is shown until the
+         * icon has been loaded in the background) and set the text of the {@code TextView} R.id.text in {@code view} to the
          * label associated with {@code item}. Finally we return {@code view} to the caller.
          *
          * @param position    The position of the item within the adapter's data set of the item
@@ -745,7 +1082,7 @@ public class LoaderCustom extends Activity {
 
             AppEntry item = getItem(position);
             //noinspection ConstantConditions
-            ((ImageView) view.findViewById(R.id.icon)).setImageDrawable(item.getIcon());
+            mIconLoader.bind(item, (ImageView) view.findViewById(R.id.icon));
             ((TextView) view.findViewById(R.id.text)).setText(item.getLabel());
 
             return view;
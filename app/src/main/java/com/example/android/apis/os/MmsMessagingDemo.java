@@ -31,6 +31,7 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
+import android.provider.Telephony;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.SmsManager;
 import android.telephony.TelephonyManager;
@@ -46,6 +47,7 @@ import android.widget.TextView;
 import com.example.android.apis.R;
 import com.google.android.mms.ContentType;
 import com.google.android.mms.InvalidHeaderValueException;
+import com.google.android.mms.MmsException;
 import com.google.android.mms.pdu.CharacterSets;
 import com.google.android.mms.pdu.EncodedStringValue;
 import com.google.android.mms.pdu.GenericPdu;
@@ -63,7 +65,14 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
 public class MmsMessagingDemo extends Activity {
@@ -75,6 +84,25 @@ public class MmsMessagingDemo extends Activity {
     private static final String ACTION_MMS_RECEIVED =
             "com.example.android.apis.os.MMS_RECEIVED_ACTION";
 
+    /**
+     * Downloaded messages waiting to be processed, beyond the one being
+     * processed. More downloads are failed rather than queued.
+     */
+    private static final int MAX_QUEUED_DOWNLOADS = 4;
+
+    /**
+     * Part data above this size is decoded to a temporary file rather
+     * than onto the heap.
+     */
+    private static final int SPILL_THRESHOLD = 64 * 1024;
+
+    /**
+     * Processes the downloaded messages one at a time, so that only one
+     * of them is parsed into memory at once.
+     */
+    private static final ThreadPoolExecutor DOWNLOAD_EXECUTOR = new ThreadPoolExecutor(1, 1,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_QUEUED_DOWNLOADS));
+
     private EditText mRecipientsInput;
     private EditText mSubjectInput;
     private EditText mTextInput;
@@ -166,7 +194,14 @@ public class MmsMessagingDemo extends Activity {
         AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
             @Override
             public void run() {
-                final byte[] pdu = buildPdu(MmsMessagingDemo.this, recipients, subject, text);
+                final SendReq req = buildSendReq(MmsMessagingDemo.this, recipients, subject, text);
+                if (getPackageName().equals(
+                        Telephony.Sms.getDefaultSmsPackage(MmsMessagingDemo.this))) {
+                    // The default SMS app keeps its own messages, so the
+                    // message goes through the outbox and the send queue.
+                    queueMessage(req);
+                    return;
+                }
                 Uri writerUri = (new Uri.Builder())
                        .authority("com.example.android.apis.os.MmsFileProvider")
                        .path(fileName)
@@ -177,9 +212,14 @@ public class MmsMessagingDemo extends Activity {
                 FileOutputStream writer = null;
                 Uri contentUri = null;
                 try {
+                    // Compose straight into the file MmsFileProvider serves,
+                    // without the whole pdu in an intermediate array.
                     writer = new FileOutputStream(mSendFile);
-                    writer.write(pdu);
-                    contentUri = writerUri;
+                    if (new PduComposer(req).make(writer.getChannel())) {
+                        contentUri = writerUri;
+                    } else {
+                        Log.e(TAG, "Invalid send pdu");
+                    }
                 } catch (final IOException e) {
                     Log.e(TAG, "Error writing send file", e);
                 } finally {
@@ -208,6 +248,29 @@ public class MmsMessagingDemo extends Activity {
         });
     }
 
+    /**
+     * Queue a message with MmsSendQueueService, which sends it from the
+     * outbox and retries it if needed. Called off the UI thread.
+     */
+    private void queueMessage(SendReq req) {
+        int status = R.string.mms_status_failed;
+        try {
+            MmsSendQueueService.enqueue(this, req);
+            status = R.string.mms_status_queued;
+        } catch (MmsException e) {
+            Log.e(TAG, "Error queuing Mms", e);
+        }
+        final int queueStatus = status;
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                mSendFile = null;
+                mSendStatusView.setText(queueStatus);
+                mSendButton.setEnabled(true);
+            }
+        });
+    }
+
     private void downloadMessage(final String locationUrl) {
         Log.d(TAG, "Downloading " + locationUrl);
         mSendStatusView.setText(getResources().getString(R.string.mms_status_downloading));
@@ -278,44 +341,172 @@ public class MmsMessagingDemo extends Activity {
 
     @SuppressWarnings("UnusedParameters")
     private void handleReceivedResult(Context context, int code, Intent intent) {
-        int status = R.string.mms_status_failed;
-        if (code == Activity.RESULT_OK) {
+        final File downloadFile = mDownloadFile;
+        mDownloadFile = null;
+        if (code != Activity.RESULT_OK) {
+            Log.e(TAG, "MMS not received, error=" + code);
+            showReceivedMessage(null);
+            return;
+        }
+
+        // Parsing off the UI thread, only the rendered message comes back.
+        try {
+            DOWNLOAD_EXECUTOR.execute(new ReadTask(this, downloadFile));
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "MMS received, too many downloads to process");
+            //noinspection ResultOfMethodCallIgnored
+            downloadFile.delete();
+            showReceivedMessage(null);
+        }
+    }
+
+    /**
+     * Reads a downloaded message on DOWNLOAD_EXECUTOR, and shows it if the
+     * activity is still there. The activity is only weakly referenced, so
+     * that a queued download does not keep it from being collected.
+     */
+    private static class ReadTask implements Runnable {
+        private final WeakReference<MmsMessagingDemo> mActivity;
+        private final Context mContext;
+        private final File mDownloadFile;
+
+        ReadTask(MmsMessagingDemo activity, File downloadFile) {
+            mActivity = new WeakReference<MmsMessagingDemo>(activity);
+            mContext = activity.getApplicationContext();
+            mDownloadFile = downloadFile;
+        }
+
+        @Override
+        public void run() {
+            final File spillDirectory = new File(mContext.getCacheDir(),
+                    mDownloadFile.getName() + ".parts");
+            ReceivedMessage message = null;
             try {
-                final int nBytes = (int) mDownloadFile.length();
-                FileInputStream reader = new FileInputStream(mDownloadFile);
-                final byte[] response = new byte[nBytes];
-                final int read = reader.read(response, 0, nBytes);
-                if (read == nBytes) {
-                    final GenericPdu pdu = new PduParser(
-                            response, PduParserUtil.shouldParseContentDisposition()).parse();
-                    if (pdu instanceof RetrieveConf) {
-                        final RetrieveConf retrieveConf = (RetrieveConf) pdu;
-                        mRecipientsInput.setText(getRecipients(context, retrieveConf));
-                        mSubjectInput.setText(getSubject(retrieveConf));
-                        mTextInput.setText(getMessageText(retrieveConf));
-                        status = R.string.mms_status_downloaded;
-                    } else {
-                        Log.e(TAG, "MMS received, invalid response");
+                message = readReceivedMessage(mContext, mDownloadFile, spillDirectory);
+            } finally {
+                // The message is rendered, the part data is not needed any more.
+                deleteSpillFiles(spillDirectory);
+                show(message);
+            }
+        }
+
+        /**
+         * Show the message on the UI thread, or the failure if null.
+         */
+        private void show(final ReceivedMessage message) {
+            final MmsMessagingDemo activity = mActivity.get();
+            if (activity == null) {
+                return;
+            }
+            activity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (!activity.isFinishing() && !activity.isDestroyed()) {
+                        activity.showReceivedMessage(message);
                     }
+                }
+            });
+        }
+    }
+
+    /**
+     * Parse a downloaded message. The file is mapped rather than read onto
+     * the heap, and deleted afterwards. Called on DOWNLOAD_EXECUTOR.
+     *
+     * @param spillDirectory the directory for the part data too large for
+     *        the heap, created if needed
+     * @return the message rendered for display, null if the download is
+     *         not a valid M-Retrieve.conf
+     */
+    private static ReceivedMessage readReceivedMessage(Context context, File downloadFile,
+            File spillDirectory) {
+        FileInputStream reader = null;
+        try {
+            reader = new FileInputStream(downloadFile);
+            final FileChannel channel = reader.getChannel();
+            final long nBytes = channel.size();
+            if (nBytes > 0) {
+                final MappedByteBuffer response =
+                        channel.map(FileChannel.MapMode.READ_ONLY, 0, nBytes);
+                final PduParser parser = new PduParser(
+                        response, PduParserUtil.shouldParseContentDisposition());
+                if (spillDirectory.isDirectory() || spillDirectory.mkdirs()) {
+                    parser.setSpillThreshold(SPILL_THRESHOLD, spillDirectory);
+                }
+                final GenericPdu pdu = parser.parse();
+                if (pdu instanceof RetrieveConf) {
+                    final RetrieveConf retrieveConf = (RetrieveConf) pdu;
+                    return new ReceivedMessage(getRecipients(context, retrieveConf),
+                            getSubject(retrieveConf), getMessageText(retrieveConf));
                 } else {
-                    Log.e(TAG, "MMS received, empty response");
+                    Log.e(TAG, "MMS received, invalid response");
                 }
-            } catch (FileNotFoundException e) {
-                Log.e(TAG, "MMS received, file not found exception", e);
-            } catch (IOException e) {
-                Log.e(TAG, "MMS received, io exception", e);
-            } finally {
+            } else {
+                Log.e(TAG, "MMS received, empty response");
+            }
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, "MMS received, file not found exception", e);
+        } catch (IOException e) {
+            Log.e(TAG, "MMS received, io exception", e);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "MMS received, invalid response", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    Log.i(TAG, e.getLocalizedMessage());
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            downloadFile.delete();
+        }
+        return null;
+    }
+
+    /**
+     * Delete the part data a parser spilled to the directory, and the
+     * directory.
+     */
+    private static void deleteSpillFiles(File spillDirectory) {
+        final File[] files = spillDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
                 //noinspection ResultOfMethodCallIgnored
-                mDownloadFile.delete();
+                file.delete();
             }
-        } else {
-            Log.e(TAG, "MMS not received, error=" + code);
         }
-        mDownloadFile = null;
+        //noinspection ResultOfMethodCallIgnored
+        spillDirectory.delete();
+    }
+
+    private void showReceivedMessage(ReceivedMessage message) {
+        int status = R.string.mms_status_failed;
+        if (message != null) {
+            mRecipientsInput.setText(message.recipients);
+            mSubjectInput.setText(message.subject);
+            mTextInput.setText(message.text);
+            status = R.string.mms_status_downloaded;
+        }
         mSendStatusView.setText(status);
         mSendButton.setEnabled(true);
     }
 
+    /**
+     * A downloaded message, rendered for display.
+     */
+    private static class ReceivedMessage {
+        final String recipients;
+        final String subject;
+        final String text;
+
+        ReceivedMessage(String recipients, String subject, String text) {
+            this.recipients = recipients;
+            this.subject = subject;
+            this.text = text;
+        }
+    }
+
     public static final long DEFAULT_EXPIRY_TIME = 7 * 24 * 60 * 60;
     public static final int DEFAULT_PRIORITY = PduHeaders.PRIORITY_NORMAL;
 
@@ -335,7 +526,7 @@ public class MmsMessagingDemo extends Activity {
                 "</body>" +
             "</smil>";
 
-    private static byte[] buildPdu(Context context, String recipients, String subject,
+    private static SendReq buildSendReq(Context context, String recipients, String subject,
             String text) {
         final SendReq req = new SendReq();
         // From, per spec
@@ -378,7 +569,7 @@ public class MmsMessagingDemo extends Activity {
             Log.i(TAG, e.getLocalizedMessage());
         }
 
-        return new PduComposer(context, req).make();
+        return req;
     }
 
     private static int addTextPart(PduBody pb, String message, boolean addTextSmil) {
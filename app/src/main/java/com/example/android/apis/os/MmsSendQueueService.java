@@ -0,0 +1,628 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.apis.os;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.SystemClock;
+import android.provider.Telephony.Mms;
+import android.provider.Telephony.MmsSms;
+import android.provider.Telephony.MmsSms.PendingMessages;
+import android.telephony.SmsManager;
+import android.util.Log;
+
+import com.google.android.mms.MmsException;
+import com.google.android.mms.pdu.GenericPdu;
+import com.google.android.mms.pdu.PduComposer;
+import com.google.android.mms.pdu.PduHeaders;
+import com.google.android.mms.pdu.PduParser;
+import com.google.android.mms.pdu.PduPersister;
+import com.google.android.mms.pdu.SendConf;
+import com.google.android.mms.pdu.SendReq;
+import com.google.android.mms.util.SqliteWrapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends the MMS waiting in the outbox, as listed by
+ * {@link PduPersister#getPendingMessages}. Like writing to the outbox, this
+ * needs the app to be the default SMS app.
+ *
+ * Due messages are sent highest priority first, then earliest due, with at
+ * most MAX_SENDS_IN_FLIGHT sends at once. A transient failure is retried
+ * with exponential backoff, up to MAX_RETRIES times.
+ *
+ * The schedule lives in the pending messages table, so it outlives the
+ * process. A message is leased for SEND_TIMEOUT when it is sent, by moving
+ * its due time, and a message that is queued or being sent is not picked
+ * up again when the table is read again. A result that does not come back
+ * within the lease is given up on, and counts as a transient failure:
+ * the message is retried like after any other.
+ *
+ * Each send is a broadcast PendingIntent of its own, told apart by its
+ * data Uri, so that the result of a send given up on can not be taken for
+ * the result of the send after it.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class MmsSendQueueService extends Service {
+    private static final String TAG = "MmsMessagingDemo";
+
+    private static final String ACTION_MMS_SENT =
+            "com.example.android.apis.os.MMS_QUEUE_SENT_ACTION";
+    private static final String EXTRA_MESSAGE_ID = "message_id";
+    private static final String EXTRA_SEND_TIME = "send_time";
+    private static final String SENT_SCHEME = "mmsqueue";
+
+    private static final int MAX_SENDS_IN_FLIGHT = 2;
+    private static final int MAX_RETRIES = 5;
+    private static final long BASE_RETRY_DELAY = 60 * 1000L;
+    private static final long MAX_RETRY_DELAY = 30 * 60 * 1000L;
+    private static final long SEND_TIMEOUT = 10 * 60 * 1000L;
+
+    private static final String[] PRIORITY_PROJECTION = new String[] {
+            Mms._ID, Mms.PRIORITY
+    };
+
+    private static final QueueStats QUEUE_STATS = new QueueStats();
+
+    /**
+     * Runs the queue. The fields below are only used on it.
+     */
+    private ExecutorService mExecutor;
+
+    private final PriorityQueue<PendingSend> mQueue =
+            new PriorityQueue<PendingSend>(11, PendingSend.ORDER);
+
+    /**
+     * The messages queued or being sent, by message id.
+     */
+    private final HashMap<Long, PendingSend> mPendingSends = new HashMap<Long, PendingSend>();
+    private int mInFlightCount = 0;
+
+    private volatile int mLastStartId;
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private final BroadcastReceiver mSentReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final int resultCode = getResultCode();
+            final long msgId = intent.getLongExtra(EXTRA_MESSAGE_ID, -1);
+            final long sendTime = intent.getLongExtra(EXTRA_SEND_TIME, -1);
+            final byte[] response = intent.getByteArrayExtra(SmsManager.EXTRA_MMS_DATA);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onSent(msgId, sendTime, resultCode, response);
+                }
+            });
+        }
+    };
+
+    /**
+     * Queue a message to be sent: it is persisted to the outbox, which adds
+     * it to the pending messages, and the queue is drained. Does database
+     * work, not to be called on the main thread.
+     *
+     * @return the Uri of the queued message
+     * @throws MmsException if the message can not be persisted
+     */
+    public static Uri enqueue(Context context, SendReq sendReq) throws MmsException {
+        final PduPersister persister = PduPersister.getPduPersister(context);
+        final Uri draft = persister.persist(sendReq, Mms.Draft.CONTENT_URI,
+                true/*createThreadId*/, false/*groupMmsEnabled*/, null/*preOpenedFiles*/);
+        final Uri uri = persister.move(draft, Mms.Outbox.CONTENT_URI);
+        context.startService(new Intent(context, MmsSendQueueService.class));
+        return uri;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mExecutor = Executors.newSingleThreadExecutor();
+        final IntentFilter sentFilter = new IntentFilter(ACTION_MMS_SENT);
+        sentFilter.addDataScheme(SENT_SCHEME);
+        registerReceiver(mSentReceiver, sentFilter);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        mLastStartId = startId;
+        mExecutor.execute(mDrain);
+        // Restarted by the alarm of the next due message rather than sticky.
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        unregisterReceiver(mSentReceiver);
+        mExecutor.shutdown();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * Pick up the due messages, send as many as allowed and schedule the
+     * next drain. Stops the service once nothing is left to do.
+     */
+    private void drain() {
+        final long now = System.currentTimeMillis();
+        expireSends(now);
+        readDueMessages(now);
+        while ((mInFlightCount < MAX_SENDS_IN_FLIGHT) && !mQueue.isEmpty()) {
+            send(mQueue.poll(), now);
+        }
+        QUEUE_STATS.setDepth(mQueue.size(), mInFlightCount);
+        scheduleNextDrain(now);
+        if (mPendingSends.isEmpty()) {
+            stopSelf(mLastStartId);
+        }
+    }
+
+    /**
+     * Give up on the sends whose result is overdue, and count them as
+     * transient failures, so that a message whose result never comes back
+     * is not sent forever.
+     */
+    private void expireSends(long now) {
+        final long elapsed = SystemClock.elapsedRealtime();
+        final Iterator<PendingSend> it = mPendingSends.values().iterator();
+        while (it.hasNext()) {
+            final PendingSend send = it.next();
+            if ((send.sendTime >= 0) && (elapsed - send.sendTime >= SEND_TIMEOUT)) {
+                Log.w(TAG, "No send result for message " + send.msgId);
+                it.remove();
+                mInFlightCount--;
+                deleteSendFile(send.msgId);
+                QUEUE_STATS.recordTimeout();
+                onSendResult(send, PduPersister.PROC_STATUS_TRANSIENT_FAILURE, 0, now);
+            }
+        }
+    }
+
+    private void readDueMessages(long now) {
+        final Cursor cursor = PduPersister.getPduPersister(this).getPendingMessages(now);
+        if (cursor == null) {
+            return;
+        }
+
+        final ArrayList<PendingSend> sends = new ArrayList<PendingSend>();
+        try {
+            final int idColumn = cursor.getColumnIndexOrThrow(PendingMessages._ID);
+            final int msgIdColumn = cursor.getColumnIndexOrThrow(PendingMessages.MSG_ID);
+            final int typeColumn = cursor.getColumnIndexOrThrow(PendingMessages.MSG_TYPE);
+            final int retryColumn = cursor.getColumnIndexOrThrow(PendingMessages.RETRY_INDEX);
+            final int dueColumn = cursor.getColumnIndexOrThrow(PendingMessages.DUE_TIME);
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(typeColumn) != PduHeaders.MESSAGE_TYPE_SEND_REQ) {
+                    // A download, not ours.
+                    continue;
+                }
+                final long msgId = cursor.getLong(msgIdColumn);
+                if (mPendingSends.containsKey(msgId)) {
+                    continue;
+                }
+                sends.add(new PendingSend(cursor.getLong(idColumn), msgId,
+                        cursor.getInt(retryColumn), cursor.getLong(dueColumn)));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (!sends.isEmpty()) {
+            readPriorities(sends);
+            for (PendingSend send : sends) {
+                mPendingSends.put(send.msgId, send);
+                mQueue.add(send);
+            }
+        }
+    }
+
+    /**
+     * Read the X-Mms-Priority of the messages, in one query.
+     */
+    private void readPriorities(ArrayList<PendingSend> sends) {
+        final HashMap<Long, PendingSend> byId = new HashMap<Long, PendingSend>();
+        final StringBuilder selection = new StringBuilder(Mms._ID).append(" IN (");
+        for (PendingSend send : sends) {
+            if (!byId.isEmpty()) {
+                selection.append(',');
+            }
+            selection.append(send.msgId);
+            byId.put(send.msgId, send);
+        }
+        selection.append(')');
+
+        final Cursor cursor = SqliteWrapper.query(this, getContentResolver(), Mms.CONTENT_URI,
+                PRIORITY_PROJECTION, selection.toString(), null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                final PendingSend send = byId.get(cursor.getLong(0));
+                if ((send != null) && !cursor.isNull(1)) {
+                    send.priority = cursor.getInt(1);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void send(PendingSend send, long now) {
+        final Uri uri = ContentUris.withAppendedId(Mms.CONTENT_URI, send.msgId);
+        final ContentValues values = new ContentValues(2);
+        values.put(PendingMessages.DUE_TIME, now + SEND_TIMEOUT);
+        values.put(PendingMessages.LAST_TRY, now);
+        updatePendingMessage(send.pendingId, values);
+
+        final File file = getSendFile(send.msgId);
+        final int status = writeSendFile(uri, file);
+        if (status != PduPersister.PROC_STATUS_COMPLETED) {
+            mPendingSends.remove(send.msgId);
+            deleteSendFile(send.msgId);
+            onSendResult(send, status, 0, now);
+            return;
+        }
+
+        send.sendTime = SystemClock.elapsedRealtime();
+        final Uri contentUri = (new Uri.Builder())
+                .authority("com.example.android.apis.os.MmsFileProvider")
+                .path(file.getName())
+                .scheme(ContentResolver.SCHEME_CONTENT)
+                .build();
+        final Intent sentIntent = new Intent(ACTION_MMS_SENT);
+        sentIntent.setPackage(getPackageName());
+        // A PendingIntent of its own for each send.
+        sentIntent.setData((new Uri.Builder())
+                .scheme(SENT_SCHEME)
+                .appendPath(String.valueOf(send.msgId))
+                .appendPath(String.valueOf(send.sendTime))
+                .build());
+        sentIntent.putExtra(EXTRA_MESSAGE_ID, send.msgId);
+        sentIntent.putExtra(EXTRA_SEND_TIME, send.sendTime);
+        final PendingIntent pendingIntent = PendingIntent.getBroadcast(this, 0, sentIntent,
+                PendingIntent.FLAG_ONE_SHOT);
+        mInFlightCount++;
+        SmsManager.getDefault().sendMultimediaMessage(getApplicationContext(), contentUri,
+                null/*locationUrl*/, null/*configOverrides*/, pendingIntent);
+    }
+
+    /**
+     * Compose a queued message into the file MmsFileProvider serves.
+     *
+     * @return PROC_STATUS_COMPLETED if the file is written, otherwise the
+     *         failure that the send gets
+     */
+    private int writeSendFile(Uri uri, File file) {
+        final GenericPdu pdu;
+        try {
+            pdu = PduPersister.getPduPersister(this).load(uri);
+        } catch (MmsException e) {
+            Log.e(TAG, "Queued message can not be loaded: " + uri, e);
+            return PduPersister.PROC_STATUS_PERMANENTLY_FAILURE;
+        }
+        if (!(pdu instanceof SendReq)) {
+            Log.e(TAG, "Queued message is not a send request: " + uri);
+            return PduPersister.PROC_STATUS_PERMANENTLY_FAILURE;
+        }
+
+        FileOutputStream writer = null;
+        try {
+            writer = new FileOutputStream(file);
+            if (!new PduComposer((SendReq) pdu).make(writer.getChannel())) {
+                Log.e(TAG, "Invalid send pdu: " + uri);
+                return PduPersister.PROC_STATUS_PERMANENTLY_FAILURE;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing send file", e);
+            return PduPersister.PROC_STATUS_TRANSIENT_FAILURE;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.i(TAG, e.getLocalizedMessage());
+                }
+            }
+        }
+        return PduPersister.PROC_STATUS_COMPLETED;
+    }
+
+    private void onSent(long msgId, long sendTime, int resultCode, byte[] response) {
+        final PendingSend send = mPendingSends.get(msgId);
+        if ((send == null) || (send.sendTime != sendTime)) {
+            // Given up on already, the message is sent again.
+            Log.w(TAG, "Late send result for message " + msgId);
+            return;
+        }
+        mPendingSends.remove(msgId);
+        mInFlightCount--;
+        deleteSendFile(msgId);
+
+        onSendResult(send, getProcStatus(resultCode, response),
+                SystemClock.elapsedRealtime() - sendTime, System.currentTimeMillis());
+        Log.v(TAG, "Send queue: " + QUEUE_STATS);
+        drain();
+    }
+
+    /**
+     * Move a sent message to the sent box, which drops it from the pending
+     * messages, or schedule its retry, or fail it for good.
+     *
+     * @param latency the time from the send to its result in ms, 0 if the
+     *        message was not sent
+     */
+    private void onSendResult(PendingSend send, int status, long latency, long now) {
+        if ((status == PduPersister.PROC_STATUS_TRANSIENT_FAILURE)
+                && (send.retryIndex >= MAX_RETRIES)) {
+            status = PduPersister.PROC_STATUS_PERMANENTLY_FAILURE;
+        }
+        QUEUE_STATS.recordResult(status, latency);
+
+        final Uri uri = ContentUris.withAppendedId(Mms.CONTENT_URI, send.msgId);
+        if (status == PduPersister.PROC_STATUS_COMPLETED) {
+            try {
+                PduPersister.getPduPersister(this).move(uri, Mms.Sent.CONTENT_URI);
+            } catch (MmsException e) {
+                Log.e(TAG, "Sent message can not be moved: " + uri, e);
+            }
+            return;
+        }
+
+        final ContentValues values = new ContentValues(3);
+        if (status == PduPersister.PROC_STATUS_TRANSIENT_FAILURE) {
+            values.put(PendingMessages.RETRY_INDEX, send.retryIndex + 1);
+            values.put(PendingMessages.DUE_TIME, now + getRetryDelay(send.retryIndex));
+            values.put(PendingMessages.ERROR_TYPE, MmsSms.ERR_TYPE_GENERIC);
+        } else {
+            Log.e(TAG, "Message failed: " + uri);
+            // Left in the outbox, but no longer pending.
+            values.put(PendingMessages.ERROR_TYPE, MmsSms.ERR_TYPE_GENERIC_PERMANENT);
+        }
+        updatePendingMessage(send.pendingId, values);
+    }
+
+    /**
+     * @return the delay before the retry after the given number of retries
+     */
+    private static long getRetryDelay(int retryIndex) {
+        return Math.min(BASE_RETRY_DELAY << retryIndex, MAX_RETRY_DELAY);
+    }
+
+    /**
+     * @return the PROC_STATUS_* of a send, from the result code of
+     *         SmsManager and the M-Send.conf
+     */
+    private static int getProcStatus(int resultCode, byte[] response) {
+        if (resultCode != Activity.RESULT_OK) {
+            switch (resultCode) {
+                case SmsManager.MMS_ERROR_UNABLE_CONNECT_MMS:
+                case SmsManager.MMS_ERROR_HTTP_FAILURE:
+                case SmsManager.MMS_ERROR_IO_ERROR:
+                case SmsManager.MMS_ERROR_RETRY:
+                    return PduPersister.PROC_STATUS_TRANSIENT_FAILURE;
+                default:
+                    return PduPersister.PROC_STATUS_PERMANENTLY_FAILURE;
+            }
+        }
+
+        final GenericPdu pdu = (response != null) ? new PduParser(
+                response, PduParserUtil.shouldParseContentDisposition()).parse() : null;
+        if (!(pdu instanceof SendConf)) {
+            Log.e(TAG, "MMS sent, invalid response");
+            return PduPersister.PROC_STATUS_TRANSIENT_FAILURE;
+        }
+        final int responseStatus = ((SendConf) pdu).getResponseStatus();
+        if (responseStatus == PduHeaders.RESPONSE_STATUS_OK) {
+            return PduPersister.PROC_STATUS_COMPLETED;
+        }
+        Log.e(TAG, "MMS sent, error=" + responseStatus);
+        if ((responseStatus >= PduHeaders.RESPONSE_STATUS_ERROR_TRANSIENT_FAILURE)
+                && (responseStatus < PduHeaders.RESPONSE_STATUS_ERROR_PERMANENT_FAILURE)) {
+            return PduPersister.PROC_STATUS_TRANSIENT_FAILURE;
+        }
+        return PduPersister.PROC_STATUS_PERMANENTLY_FAILURE;
+    }
+
+    /**
+     * Set an alarm for the next due message. The messages queued or being
+     * sent are due again once their lease would expire, should the process
+     * die before they are done.
+     */
+    private void scheduleNextDrain(long now) {
+        long next = Long.MAX_VALUE;
+        final Cursor cursor =
+                PduPersister.getPduPersister(this).getPendingMessages(Long.MAX_VALUE);
+        if (cursor != null) {
+            try {
+                final int msgIdColumn = cursor.getColumnIndexOrThrow(PendingMessages.MSG_ID);
+                final int typeColumn = cursor.getColumnIndexOrThrow(PendingMessages.MSG_TYPE);
+                final int dueColumn = cursor.getColumnIndexOrThrow(PendingMessages.DUE_TIME);
+                while (cursor.moveToNext()) {
+                    if (cursor.getInt(typeColumn) != PduHeaders.MESSAGE_TYPE_SEND_REQ) {
+                        continue;
+                    }
+                    long due = cursor.getLong(dueColumn);
+                    if (mPendingSends.containsKey(cursor.getLong(msgIdColumn))) {
+                        due = Math.max(due, now + SEND_TIMEOUT);
+                    }
+                    next = Math.min(next, due);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        final AlarmManager alarmManager = (AlarmManager) getSystemService(ALARM_SERVICE);
+        final PendingIntent drainIntent = PendingIntent.getService(this, 0,
+                new Intent(this, MmsSendQueueService.class), 0);
+        if (next == Long.MAX_VALUE) {
+            alarmManager.cancel(drainIntent);
+        } else {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, next, drainIntent);
+        }
+    }
+
+    private void updatePendingMessage(long pendingId, ContentValues values) {
+        SqliteWrapper.update(this, getContentResolver(), PendingMessages.CONTENT_URI, values,
+                PendingMessages._ID + "=" + pendingId, null);
+    }
+
+    private File getSendFile(long msgId) {
+        return new File(getCacheDir(), "queue." + msgId + ".dat");
+    }
+
+    private void deleteSendFile(long msgId) {
+        //noinspection ResultOfMethodCallIgnored
+        getSendFile(msgId).delete();
+    }
+
+    /**
+     * A due message, queued or being sent.
+     */
+    private static class PendingSend {
+        /**
+         * Highest priority first, then earliest due.
+         */
+        static final Comparator<PendingSend> ORDER = new Comparator<PendingSend>() {
+            @Override
+            public int compare(PendingSend lhs, PendingSend rhs) {
+                if (lhs.priority != rhs.priority) {
+                    return (lhs.priority > rhs.priority) ? -1 : 1;
+                }
+                return (lhs.dueTime < rhs.dueTime) ? -1 : ((lhs.dueTime == rhs.dueTime) ? 0 : 1);
+            }
+        };
+
+        final long pendingId;
+        final long msgId;
+        final int retryIndex;
+        final long dueTime;
+        int priority = PduHeaders.PRIORITY_NORMAL;
+
+        /**
+         * The SystemClock.elapsedRealtime() of the send, -1 while queued.
+         */
+        long sendTime = -1;
+
+        PendingSend(long pendingId, long msgId, int retryIndex, long dueTime) {
+            this.pendingId = pendingId;
+            this.msgId = msgId;
+            this.retryIndex = retryIndex;
+            this.dueTime = dueTime;
+        }
+    }
+
+    /**
+     * Queue depth and send results, with the latency from the send to its
+     * result. The sends timed out are counted in the retried or failed
+     * ones as well.
+     */
+    private static class QueueStats {
+        private int mQueued;
+        private int mInFlight;
+        private long mSent;
+        private long mRetried;
+        private long mFailed;
+        private long mTimedOut;
+        private long mResultCount;
+        private long mTotalLatency;
+        private long mMaxLatency;
+
+        synchronized void setDepth(int queued, int inFlight) {
+            mQueued = queued;
+            mInFlight = inFlight;
+        }
+
+        /**
+         * @param latency the time to the result in ms, 0 if not sent
+         */
+        synchronized void recordResult(int status, long latency) {
+            switch (status) {
+                case PduPersister.PROC_STATUS_COMPLETED:
+                    mSent++;
+                    break;
+                case PduPersister.PROC_STATUS_TRANSIENT_FAILURE:
+                    mRetried++;
+                    break;
+                default:
+                    mFailed++;
+                    break;
+            }
+            if (latency > 0) {
+                mResultCount++;
+                mTotalLatency += latency;
+                mMaxLatency = Math.max(mMaxLatency, latency);
+            }
+        }
+
+        synchronized void recordTimeout() {
+            mTimedOut++;
+        }
+
+        @Override
+        public synchronized String toString() {
+            final long attempts = mSent + mRetried + mFailed;
+            final StringBuilder sb = new StringBuilder();
+            sb.append("queued ").append(mQueued).append(", in flight ").append(mInFlight)
+                    .append(", sent ").append(mSent).append(", retried ").append(mRetried)
+                    .append(", failed ").append(mFailed).append(", timed out ").append(mTimedOut);
+            if (attempts > 0) {
+                sb.append(", success ").append(mSent * 100 / attempts).append('%');
+            }
+            if (mResultCount > 0) {
+                sb.append(", latency avg ").append(mTotalLatency / mResultCount)
+                        .append(" ms max ").append(mMaxLatency).append(" ms");
+            }
+            return sb.toString();
+        }
+    }
+}
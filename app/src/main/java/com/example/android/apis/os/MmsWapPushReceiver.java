@@ -25,54 +25,169 @@ import android.util.Log;
 import com.google.android.mms.ContentType;
 import com.google.android.mms.pdu.GenericPdu;
 import com.google.android.mms.pdu.NotificationInd;
+import com.google.android.mms.pdu.PduClassifier;
 import com.google.android.mms.pdu.PduHeaders;
 import com.google.android.mms.pdu.PduParser;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * Receiver for MMS WAP push
+ *
+ * A notification is handled on the receiver thread from its content
+ * location, read with {@link PduClassifier} once it has checked the
+ * notification has the headers PduParser requires. Any other push is
+ * parsed on a background thread, so that a burst of pushes does not hold
+ * up the receiver.
  */
 public class MmsWapPushReceiver extends BroadcastReceiver {
     private static final String TAG = "MmsMessagingDemo";
 
+    /**
+     * Parses the pushes that need more than their headers, one at a time.
+     */
+    private static final ExecutorService PARSE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private static final ParseStats PARSE_STATS = new ParseStats();
+
     @Override
-    public void onReceive(Context context, Intent intent) {
+    public void onReceive(final Context context, Intent intent) {
         if (Telephony.Sms.Intents.WAP_PUSH_RECEIVED_ACTION.equals(intent.getAction())
                 && ContentType.MMS_MESSAGE.equals(intent.getType())) {
             final byte[] data = intent.getByteArrayExtra("data");
-            final PduParser parser = new PduParser(
-                    data, PduParserUtil.shouldParseContentDisposition());
-            GenericPdu pdu = null;
-            try {
-                pdu = parser.parse();
-            } catch (final RuntimeException e) {
-                Log.e(TAG, "Invalid MMS WAP push", e);
-            }
-            if (pdu == null) {
-                Log.e(TAG, "Invalid WAP push data");
-                return;
-            }
-            switch (pdu.getMessageType()) {
-                case PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND: {
-                    final NotificationInd nInd = (NotificationInd) pdu;
-                    final String location = new String(nInd.getContentLocation());
-                    Log.v(TAG, "Received MMS notification: " + location);
-                    final Intent di = new Intent();
-                    di.setClass(context, MmsMessagingDemo.class);
-                    di.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
-                    di.putExtra(MmsMessagingDemo.EXTRA_NOTIFICATION_URL, location);
-                    context.startActivity(di);
-                    break;
+            final long start = System.nanoTime();
+            final int messageType = PduClassifier.getMessageType(data);
+            if (messageType == PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND) {
+                final byte[] location = PduClassifier.getNotificationLocation(data);
+                if (location != null) {
+                    PARSE_STATS.record(messageType, System.nanoTime() - start);
+                    onNotification(context, new String(location));
+                    return;
                 }
-                // FLAG (ywen): impl. handling of the following push
-                case PduHeaders.MESSAGE_TYPE_DELIVERY_IND: {
-                    Log.v(TAG, "Received delivery report");
-                    break;
+                // Malformed or unusual, let the parser decide.
+            }
+
+            final PendingResult result = goAsync();
+            PARSE_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        parse(context, data, messageType, start);
+                    } finally {
+                        result.finish();
+                    }
                 }
-                case PduHeaders.MESSAGE_TYPE_READ_ORIG_IND: {
-                    Log.v(TAG, "Received read report");
-                    break;
+            });
+        }
+    }
+
+    /**
+     * Parse a push fully and handle it.
+     *
+     * @param messageType the message type read by PduClassifier, -1 if none
+     * @param start the System.nanoTime() the push was received at
+     */
+    private static void parse(Context context, byte[] data, int messageType, long start) {
+        final PduParser parser = PduParser.getThreadParser(
+                PduParserUtil.shouldParseContentDisposition()).reset(data);
+        GenericPdu pdu = null;
+        try {
+            pdu = parser.parse();
+        } catch (final RuntimeException e) {
+            Log.e(TAG, "Invalid MMS WAP push", e);
+        }
+        PARSE_STATS.record((pdu != null) ? pdu.getMessageType() : messageType,
+                System.nanoTime() - start);
+        if (pdu == null) {
+            Log.e(TAG, "Invalid WAP push data");
+            return;
+        }
+        switch (pdu.getMessageType()) {
+            case PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND: {
+                final NotificationInd nInd = (NotificationInd) pdu;
+                onNotification(context, new String(nInd.getContentLocation()));
+                break;
+            }
+            // FLAG (ywen): impl. handling of the following push
+            case PduHeaders.MESSAGE_TYPE_DELIVERY_IND: {
+                Log.v(TAG, "Received delivery report");
+                break;
+            }
+            case PduHeaders.MESSAGE_TYPE_READ_ORIG_IND: {
+                Log.v(TAG, "Received read report");
+                break;
+            }
+        }
+    }
+
+    private static void onNotification(Context context, String location) {
+        Log.v(TAG, "Received MMS notification: " + location);
+        final Intent di = new Intent();
+        di.setClass(context, MmsMessagingDemo.class);
+        di.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        di.putExtra(MmsMessagingDemo.EXTRA_NOTIFICATION_URL, location);
+        context.startActivity(di);
+    }
+
+    /**
+     * @return the parse latency of the pushes received so far, by message type
+     */
+    public static String getParseStats() {
+        return PARSE_STATS.toString();
+    }
+
+    /**
+     * Parse latency of the pushes by message type, from their receipt to
+     * their handling, waiting for the background thread included.
+     */
+    private static class ParseStats {
+        /**
+         * Message types from MESSAGE_TYPE_SEND_REQ, then the invalid pushes.
+         */
+        private static final int TYPE_COUNT =
+                PduHeaders.MESSAGE_TYPE_CANCEL_CONF - PduHeaders.MESSAGE_TYPE_SEND_REQ + 1;
+
+        private final long[] mCount = new long[TYPE_COUNT + 1];
+        private final long[] mTotalNanos = new long[TYPE_COUNT + 1];
+        private final long[] mMaxNanos = new long[TYPE_COUNT + 1];
+
+        private static int indexOf(int messageType) {
+            int index = messageType - PduHeaders.MESSAGE_TYPE_SEND_REQ;
+            return ((index >= 0) && (index < TYPE_COUNT)) ? index : TYPE_COUNT;
+        }
+
+        void record(int messageType, long nanos) {
+            int index = indexOf(messageType);
+            synchronized (this) {
+                mCount[index]++;
+                mTotalNanos[index] += nanos;
+                mMaxNanos[index] = Math.max(mMaxNanos[index], nanos);
+            }
+            // Logged outside the lock, not to hold up the other pushes.
+            Log.v(TAG, "Push " + typeName(index) + " handled in " + (nanos / 1000) + " us");
+        }
+
+        private static String typeName(int index) {
+            return (index < TYPE_COUNT)
+                    ? "0x" + Integer.toHexString(PduHeaders.MESSAGE_TYPE_SEND_REQ + index)
+                    : "invalid";
+        }
+
+        @Override
+        public synchronized String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i <= TYPE_COUNT; i++) {
+                if (mCount[i] > 0) {
+                    if (sb.length() > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(typeName(i)).append(": ").append(mCount[i])
+                            .append(" avg ").append(mTotalNanos[i] / mCount[i] / 1000)
+                            .append(" us max ").append(mMaxNanos[i] / 1000).append(" us");
                 }
             }
+            return sb.toString();
         }
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts EncodedStringValues of several charsets to and from Strings,
+ * and the addresses of a group message as PduPersister does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class EncodedStringValueBenchmark {
+    @Param({
+        CharacterSets.MIMENAME_US_ASCII,
+        CharacterSets.MIMENAME_ISO_8859_1,
+        CharacterSets.MIMENAME_UTF_8,
+        CharacterSets.MIMENAME_SHIFT_JIS,
+        CharacterSets.MIMENAME_UTF_16
+    })
+    public String charset;
+
+    /**
+     * Number of recipients of the group message.
+     */
+    private static final int GROUP_SIZE = 50;
+
+    private EncodedStringValue mValue;
+    private String mText;
+    private byte[][] mAddressData;
+    private EncodedStringValue[] mAddresses;
+
+    @Setup
+    public void setUp() throws Exception {
+        if (CharacterSets.MIMENAME_US_ASCII.equals(charset)) {
+            mText = PduCorpus.LATIN_TEXT;
+        } else if (CharacterSets.MIMENAME_ISO_8859_1.equals(charset)) {
+            mText = PduCorpus.ACCENTED_TEXT;
+        } else {
+            mText = PduCorpus.JAPANESE_TEXT;
+        }
+        mValue = new EncodedStringValue(CharacterSets.getMibEnumValue(charset),
+                PduCorpus.encode(mText, charset));
+
+        mAddressData = new byte[GROUP_SIZE][];
+        mAddresses = new EncodedStringValue[GROUP_SIZE];
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            mAddressData[i] = ("+1555" + (1000000 + i)).getBytes();
+            mAddresses[i] = new EncodedStringValue(CharacterSets.UTF_8, mAddressData[i]);
+        }
+    }
+
+    @Benchmark
+    public String getString() {
+        return mValue.getString();
+    }
+
+    /**
+     * Decodes the addresses of a newly parsed group message.
+     */
+    @Benchmark
+    public String decodeGroupAddresses() {
+        EncodedStringValue[] addresses = new EncodedStringValue[GROUP_SIZE];
+        for (int i = 0; i < GROUP_SIZE; i++) {
+            addresses[i] = new EncodedStringValue(CharacterSets.UTF_8, mAddressData[i]);
+        }
+        return EncodedStringValue.concat(addresses);
+    }
+
+    /**
+     * Gets the addresses of a group message again, as when it is persisted.
+     */
+    @Benchmark
+    public String concatGroupAddresses() {
+        return EncodedStringValue.concat(mAddresses);
+    }
+
+    @Benchmark
+    public EncodedStringValue fromString() {
+        return new EncodedStringValue(mText);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Composes the send-reqs of {@link PduCorpus}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class PduComposerBenchmark {
+    @Param({
+        PduCorpus.SEND_REQ_1,
+        PduCorpus.SEND_REQ_10,
+        PduCorpus.SEND_REQ_50,
+        PduCorpus.SEND_REQ_1MB,
+        PduCorpus.SEND_REQ_10MB
+    })
+    public String pdu;
+
+    private SendReq mSendReq;
+
+    /**
+     * Discards the composed pdu.
+     */
+    private final OutputStream mNullStream = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        mSendReq = PduCorpus.getSendReq(pdu);
+    }
+
+    @Benchmark
+    public byte[] make() {
+        return PduCorpus.newComposer(mSendReq).make();
+    }
+
+    @Benchmark
+    public boolean makeToStream() throws IOException {
+        return PduCorpus.newComposer(mSendReq).make(mNullStream);
+    }
+
+    @Benchmark
+    public boolean makeToStreamReused() throws IOException {
+        return PduComposer.getThreadComposer().reset(mSendReq).make(mNullStream);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the pdus of {@link PduCorpus}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class PduParserBenchmark {
+    @Param({
+        PduCorpus.NOTIFICATION_IND,
+        PduCorpus.SEND_REQ_1,
+        PduCorpus.SEND_REQ_10,
+        PduCorpus.SEND_REQ_50,
+        PduCorpus.SEND_REQ_1MB,
+        PduCorpus.SEND_REQ_10MB,
+        PduCorpus.RETRIEVE_CONF_ALTERNATIVE,
+        PduCorpus.RETRIEVE_CONF_BASE64_10,
+        PduCorpus.RETRIEVE_CONF_BASE64_1MB,
+        PduCorpus.RETRIEVE_CONF_BASE64_10MB
+    })
+    public String pdu;
+
+    private byte[] mData;
+    private ByteBuffer mDirectData;
+    private ExecutorService mDecodeExecutor;
+
+    @Setup
+    public void setUp() {
+        mData = PduCorpus.get(pdu);
+        if (null == new PduParser(mData, true).parse()) {
+            throw new IllegalStateException("The corpus pdu " + pdu + " doesn't parse");
+        }
+        mDirectData = ByteBuffer.allocateDirect(mData.length);
+        mDirectData.put(mData).flip();
+        mDecodeExecutor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        mDecodeExecutor.shutdown();
+    }
+
+    @Benchmark
+    public GenericPdu parse() {
+        return new PduParser(mData, true).parse();
+    }
+
+    @Benchmark
+    public GenericPdu parseReused() {
+        return PduParser.getThreadParser(true).reset(mData).parse();
+    }
+
+    @Benchmark
+    public GenericPdu parseConcurrently() {
+        PduParser parser = new PduParser(mData, true);
+        parser.setDecodeExecutor(mDecodeExecutor);
+        return parser.parse();
+    }
+
+    @Benchmark
+    public GenericPdu parseDirectBuffer() {
+        return new PduParser(mDirectData.duplicate(), true).parse();
+    }
+
+    @Benchmark
+    public boolean parseStream(final Blackhole blackhole) throws IOException {
+        final byte[] buffer = new byte[4096];
+        return new PduStreamParser(new ByteArrayInputStream(mData), true).parse(
+                new PduStreamParser.PduHandler() {
+                    public boolean onHeaders(GenericPdu pdu) {
+                        blackhole.consume(pdu);
+                        return true;
+                    }
+
+                    public boolean onPart(PduPart part, boolean isFirst, InputStream data)
+                            throws IOException {
+                        for (int len = 0; (len = data.read(buffer)) != -1; ) {
+                            blackhole.consume(len);
+                        }
+                        return true;
+                    }
+
+                    public void onEnd() {
+                    }
+                });
+    }
+}
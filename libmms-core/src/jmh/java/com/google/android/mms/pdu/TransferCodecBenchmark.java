@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes transfer-encoded part data, comparing Base64 and QuotedPrintable
+ * with the decoders they replaced, kept in {@link LegacyTransferCodecs}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class TransferCodecBenchmark {
+    @Param({PduPart.P_BASE64, PduPart.P_QUOTED_PRINTABLE})
+    public String encoding;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private byte[] mEncoded;
+    private final byte[] mBuffer = new byte[4096];
+
+    @Setup
+    public void setUp() {
+        byte[] data;
+        if (PduPart.P_BASE64.equals(encoding)) {
+            data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = (byte) (i * 31);
+            }
+            // MIME line breaks every 76 characters.
+            byte[] base64 = Base64.encodeBase64(data);
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < base64.length; i += 76) {
+                lines.append(new String(base64, i, Math.min(76, base64.length - i)))
+                        .append("\r\n");
+            }
+            mEncoded = lines.toString().getBytes();
+        } else {
+            StringBuilder text = new StringBuilder();
+            while (text.length() < size) {
+                text.append(PduCorpus.ACCENTED_TEXT).append("\r\n");
+            }
+            data = Arrays.copyOf(PduCorpus.utf8(text.toString()), size);
+            mEncoded = QuotedPrintable.encodeQuotedPrintable(data);
+        }
+        if (!Arrays.equals(data, decode()) || !Arrays.equals(data, decodeLegacy())) {
+            throw new IllegalStateException("Decoding " + encoding + " fails");
+        }
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return PduPart.P_BASE64.equals(encoding)
+                ? Base64.decodeBase64(mEncoded)
+                : QuotedPrintable.decodeQuotedPrintable(mEncoded);
+    }
+
+    @Benchmark
+    public byte[] decodeLegacy() {
+        return PduPart.P_BASE64.equals(encoding)
+                ? LegacyTransferCodecs.decodeBase64(mEncoded)
+                : LegacyTransferCodecs.decodeQuotedPrintable(mEncoded);
+    }
+
+    @Benchmark
+    public int decodeInPlace() {
+        byte[] data = mEncoded.clone();
+        return PduPart.P_BASE64.equals(encoding)
+                ? Base64.decode(data, 0, data.length, data, 0)
+                : QuotedPrintable.decode(data, 0, data.length, data, 0);
+    }
+
+    @Benchmark
+    public int decodeStream() throws IOException {
+        InputStream in = new ByteArrayInputStream(mEncoded);
+        in = PduPart.P_BASE64.equals(encoding)
+                ? Base64.newDecodingStream(in)
+                : QuotedPrintable.newDecodingStream(in);
+        int total = 0;
+        for (int len = 0; (len = in.read(mBuffer)) != -1; ) {
+            total += len;
+        }
+        return total;
+    }
+}
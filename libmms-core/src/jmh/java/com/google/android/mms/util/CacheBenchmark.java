@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.util;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up a skewed stream of keys in an {@link AbstractCache}, putting the
+ * missing ones, with each eviction policy. Besides the throughput, the
+ * hits and misses counters give the hit ratio of the policy.
+ *
+ * PduCache itself is keyed by Uris and stays in the Android module, so
+ * this runs the cache and policies it is built on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class CacheBenchmark {
+    private static final int CAPACITY = 500;
+    private static final int DISTINCT_KEYS = 20000;
+    private static final int STREAM_LENGTH = 1 << 16;
+
+    @Param({"lru", "lfu", "tinylfu"})
+    public String policy;
+
+    private LongCache mCache;
+    private final long[] mKeys = new long[STREAM_LENGTH];
+    private int mNext = 0;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long hits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        EvictionPolicy<Long> evictionPolicy;
+        if ("lru".equals(policy)) {
+            evictionPolicy = new LruPolicy<Long>();
+        } else if ("lfu".equals(policy)) {
+            evictionPolicy = new LfuPolicy<Long>();
+        } else {
+            evictionPolicy = new TinyLfuPolicy<Long>(CAPACITY);
+        }
+        mCache = new LongCache(evictionPolicy);
+
+        // Few keys are hot, most are rare.
+        Random random = new Random(42);
+        for (int i = 0; i < STREAM_LENGTH; i++) {
+            mKeys[i] = (long) (DISTINCT_KEYS * Math.pow(random.nextDouble(), 4));
+        }
+    }
+
+    @Benchmark
+    public Object getOrPut(Counters counters) {
+        Long key = mKeys[mNext++ & (STREAM_LENGTH - 1)];
+        Object value = mCache.get(key);
+        if (value != null) {
+            counters.hits++;
+        } else {
+            counters.misses++;
+            value = key;
+            mCache.put(key, value);
+        }
+        return value;
+    }
+
+    private static class LongCache extends AbstractCache<Long, Object> {
+        LongCache(EvictionPolicy<Long> policy) {
+            super(policy, CAPACITY);
+        }
+    }
+}
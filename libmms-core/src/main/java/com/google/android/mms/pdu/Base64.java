@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2007 Esmertec AG.
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+public class Base64 {
+    /**
+     * Used to get the number of Quadruples.
+     */
+    static final int FOURBYTE = 4;
+
+    /**
+     * Byte used to pad output.
+     */
+    static final byte PAD = (byte) '=';
+
+    /**
+     * The base length.
+     */
+    static final int BASELENGTH = 256;
+
+    /**
+     * Values of base64Alphabet for the bytes that are not base64 digits.
+     */
+    private static final byte INVALID = -1;
+    private static final byte PADDING = -2;
+
+    // Create arrays to hold the base64 characters
+    private static final byte[] base64Alphabet = new byte[BASELENGTH];
+    private static final byte[] lookUpBase64Alphabet = new byte[64];
+
+    // Populating the character arrays
+    static {
+        Arrays.fill(base64Alphabet, INVALID);
+        for (int i = 'Z'; i >= 'A'; i--) {
+            base64Alphabet[i] = (byte) (i - 'A');
+        }
+        for (int i = 'z'; i >= 'a'; i--) {
+            base64Alphabet[i] = (byte) (i - 'a' + 26);
+        }
+        for (int i = '9'; i >= '0'; i--) {
+            base64Alphabet[i] = (byte) (i - '0' + 52);
+        }
+
+        base64Alphabet['+'] = 62;
+        base64Alphabet['/'] = 63;
+        base64Alphabet[PAD] = PADDING;
+
+        for (int i = 0; i < BASELENGTH; i++) {
+            if (base64Alphabet[i] >= 0) {
+                lookUpBase64Alphabet[base64Alphabet[i]] = (byte) i;
+            }
+        }
+    }
+
+    /**
+     * Decodes Base64 data into octects
+     *
+     * @param base64Data Byte array containing Base64 data
+     * @return Array containing decoded data.
+     */
+    public static byte[] decodeBase64(byte[] base64Data) {
+        byte[] decodedData = new byte[base64Data.length * 3 / FOURBYTE];
+        int len = decode(base64Data, 0, base64Data.length, decodedData, 0);
+        if (len == decodedData.length) {
+            return decodedData;
+        }
+        byte[] result = new byte[len];
+        System.arraycopy(decodedData, 0, result, 0, len);
+        return result;
+    }
+
+    /**
+     * Decodes Base64 data into a caller supplied buffer, in one pass.
+     *
+     * RFC 2045 requires that we discard ALL non-Base64 characters. Padding
+     * ends a quadruple, and a quadruple left incomplete at the end of the
+     * data is decoded as if it were padded.
+     *
+     * @param src Byte array containing Base64 data
+     * @param off the offset of the data in src
+     * @param len the length of the data
+     * @param dst the buffer for the decoded data, which needs room for
+     *        len * 3 / 4 bytes. It may be src with dstOff <= off, to
+     *        decode in place.
+     * @param dstOff the offset of the decoded data in dst
+     * @return the length of the decoded data
+     */
+    public static int decode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        Decoder decoder = new Decoder();
+        int decoded = decoder.process(src, off, len, dst, dstOff);
+        return decoded + decoder.finish(dst, dstOff + decoded);
+    }
+
+    /**
+     * Encodes octects into Base64 data, without line breaks.
+     *
+     * @param binaryData Array containing binary data
+     * @return Array containing Base64 data.
+     */
+    public static byte[] encodeBase64(byte[] binaryData) {
+        byte[] encodedData = new byte[encodedLength(binaryData.length)];
+        encode(binaryData, 0, binaryData.length, encodedData, 0);
+        return encodedData;
+    }
+
+    /**
+     * Encodes octects into Base64 data in a caller supplied buffer,
+     * without line breaks.
+     *
+     * @param src Array containing binary data
+     * @param off the offset of the data in src
+     * @param len the length of the data
+     * @param dst the buffer for the Base64 data, which needs room for
+     *        encodedLength(len) bytes
+     * @param dstOff the offset of the Base64 data in dst
+     * @return the length of the Base64 data
+     */
+    public static int encode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        Encoder encoder = new Encoder();
+        int encoded = encoder.process(src, off, len, dst, dstOff);
+        return encoded + encoder.finish(dst, dstOff + encoded);
+    }
+
+    /**
+     * @return the length of the Base64 data for len octects
+     */
+    public static int encodedLength(int len) {
+        return (len + 2) / 3 * FOURBYTE;
+    }
+
+    /**
+     * Wrap a stream of Base64 data.
+     *
+     * @param in the Base64 data
+     * @return a stream of the decoded data
+     */
+    public static InputStream newDecodingStream(InputStream in) {
+        return new TransferCodecInputStream(in, new Decoder());
+    }
+
+    /**
+     * Wrap a stream to write Base64 data to, without line breaks. The
+     * returned stream must be closed to write the final quadruple.
+     *
+     * @param out the stream for the Base64 data
+     * @return a stream to write binary data to
+     */
+    public static OutputStream newEncodingStream(OutputStream out) {
+        return new TransferCodecOutputStream(out, new Encoder());
+    }
+
+    /**
+     * Single pass, table driven decoder. The sextets of an incomplete
+     * quadruple are kept for the next chunk.
+     */
+    static final class Decoder implements TransferCodec {
+        private int mBits = 0;
+        private int mCount = 0;
+
+        public int process(byte[] src, int off, int len, byte[] dst, int dstOff) {
+            int bits = mBits;
+            int count = mCount;
+            int dstPos = dstOff;
+            for (int end = off + len; off < end; off++) {
+                int value = base64Alphabet[src[off] & 0xff];
+                if (value >= 0) {
+                    bits = (bits << 6) | value;
+                    if (++count == FOURBYTE) {
+                        dst[dstPos++] = (byte) (bits >> 16);
+                        dst[dstPos++] = (byte) (bits >> 8);
+                        dst[dstPos++] = (byte) bits;
+                        bits = 0;
+                        count = 0;
+                    }
+                } else if (value == PADDING) {
+                    dstPos += flush(bits, count, dst, dstPos);
+                    bits = 0;
+                    count = 0;
+                }
+            }
+            mBits = bits;
+            mCount = count;
+            return dstPos - dstOff;
+        }
+
+        public int finish(byte[] dst, int dstOff) {
+            int len = flush(mBits, mCount, dst, dstOff);
+            mBits = 0;
+            mCount = 0;
+            return len;
+        }
+
+        /**
+         * Decode an incomplete quadruple.
+         */
+        private static int flush(int bits, int count, byte[] dst, int dstOff) {
+            switch (count) {
+                case 2:
+                    //Two PAD e.g. 3c[Pad][Pad]
+                    dst[dstOff] = (byte) (bits >> 4);
+                    return 1;
+                case 3:
+                    //One PAD e.g. 3cQ[Pad]
+                    dst[dstOff] = (byte) (bits >> 10);
+                    dst[dstOff + 1] = (byte) (bits >> 2);
+                    return 2;
+                default:
+                    // A single sextet holds no complete octect.
+                    return 0;
+            }
+        }
+
+        public int maxOutputLength(int len) {
+            // Three sextets may be pending from the previous chunk.
+            return (len + 3) * 3 / FOURBYTE;
+        }
+    }
+
+    /**
+     * Table driven encoder. The octects of an incomplete triple are kept
+     * for the next chunk.
+     */
+    static final class Encoder implements TransferCodec {
+        private int mBits = 0;
+        private int mCount = 0;
+
+        public int process(byte[] src, int off, int len, byte[] dst, int dstOff) {
+            int bits = mBits;
+            int count = mCount;
+            int dstPos = dstOff;
+            for (int end = off + len; off < end; off++) {
+                bits = (bits << 8) | (src[off] & 0xff);
+                if (++count == 3) {
+                    dst[dstPos++] = lookUpBase64Alphabet[(bits >> 18) & 0x3f];
+                    dst[dstPos++] = lookUpBase64Alphabet[(bits >> 12) & 0x3f];
+                    dst[dstPos++] = lookUpBase64Alphabet[(bits >> 6) & 0x3f];
+                    dst[dstPos++] = lookUpBase64Alphabet[bits & 0x3f];
+                    bits = 0;
+                    count = 0;
+                }
+            }
+            mBits = bits;
+            mCount = count;
+            return dstPos - dstOff;
+        }
+
+        public int finish(byte[] dst, int dstOff) {
+            int bits = mBits;
+            int count = mCount;
+            mBits = 0;
+            mCount = 0;
+            switch (count) {
+                case 1:
+                    dst[dstOff] = lookUpBase64Alphabet[(bits >> 2) & 0x3f];
+                    dst[dstOff + 1] = lookUpBase64Alphabet[(bits << 4) & 0x3f];
+                    dst[dstOff + 2] = PAD;
+                    dst[dstOff + 3] = PAD;
+                    return FOURBYTE;
+                case 2:
+                    dst[dstOff] = lookUpBase64Alphabet[(bits >> 10) & 0x3f];
+                    dst[dstOff + 1] = lookUpBase64Alphabet[(bits >> 4) & 0x3f];
+                    dst[dstOff + 2] = lookUpBase64Alphabet[(bits << 2) & 0x3f];
+                    dst[dstOff + 3] = PAD;
+                    return FOURBYTE;
+                default:
+                    return 0;
+            }
+        }
+
+        public int maxOutputLength(int len) {
+            // Two octects may be pending from the previous chunk.
+            return encodedLength(len + 2);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A ByteArrayInputStream that reads from a ByteBuffer instead of a byte
+ * array, so that the PduParser helpers can walk a direct or memory-mapped
+ * buffer without first copying it onto the heap.
+ */
+class ByteBufferInputStream extends ByteArrayInputStream {
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * The buffer being read. Its position is the read position.
+     */
+    private final ByteBuffer mBuffer;
+
+    /**
+     * Position saved by mark().
+     */
+    private int mMarkPos;
+
+    /**
+     * Constructor. The stream reads from the position to the limit of
+     * the given buffer; the buffer itself is not modified.
+     *
+     * @param buffer the buffer to read from
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        super(EMPTY);
+        mBuffer = buffer.slice();
+        mMarkPos = 0;
+    }
+
+    @Override
+    public int read() {
+        if (!mBuffer.hasRemaining()) {
+            return -1;
+        }
+        return mBuffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int remaining = mBuffer.remaining();
+        if (remaining <= 0) {
+            return -1;
+        }
+        if (len > remaining) {
+            len = remaining;
+        }
+        mBuffer.get(b, off, len);
+        return len;
+    }
+
+    @Override
+    public long skip(long n) {
+        int remaining = mBuffer.remaining();
+        if (n > remaining) {
+            n = remaining;
+        }
+        if (n < 0) {
+            return 0;
+        }
+        mBuffer.position(mBuffer.position() + (int) n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return mBuffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) {
+        mMarkPos = mBuffer.position();
+    }
+
+    @Override
+    public void reset() {
+        mBuffer.position(mMarkPos);
+    }
+
+    /**
+     * Return a view of the next <code>length</code> bytes and advance past
+     * them. The returned buffer shares content with the underlying buffer.
+     * Like read(), it takes only the remaining bytes if fewer are left.
+     *
+     * @param length number of bytes to take
+     * @return the view
+     */
+    public ByteBuffer slice(int length) {
+        if (length < 0) {
+            length = 0;
+        } else if (length > mBuffer.remaining()) {
+            length = mBuffer.remaining();
+        }
+        ByteBuffer view = mBuffer.slice();
+        view.limit(length);
+        mBuffer.position(mBuffer.position() + length);
+        return view;
+    }
+}
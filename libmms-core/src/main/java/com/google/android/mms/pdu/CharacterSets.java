@@ -18,6 +18,9 @@
 package com.google.android.mms.pdu;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.HashMap;
 
 public class CharacterSets {
@@ -119,6 +122,11 @@ public class CharacterSets {
     private static final HashMap<Integer, String> MIBENUM_TO_NAME_MAP;
     private static final HashMap<String, Integer> NAME_TO_MIBENUM_MAP;
 
+    /**
+     * The charsets of the MIBEnum numbers which the platform supports.
+     */
+    private static final HashMap<Integer, Charset> MIBENUM_TO_CHARSET_MAP;
+
     static {
         // Create the HashMaps.
         MIBENUM_TO_NAME_MAP = new HashMap<Integer, String>();
@@ -129,6 +137,20 @@ public class CharacterSets {
             MIBENUM_TO_NAME_MAP.put(MIBENUM_NUMBERS[i], MIME_NAMES[i]);
             NAME_TO_MIBENUM_MAP.put(MIME_NAMES[i], MIBENUM_NUMBERS[i]);
         }
+
+        MIBENUM_TO_CHARSET_MAP = new HashMap<Integer, Charset>();
+        for(int i = 0; i <= count; i++) {
+            if (ANY_CHARSET == MIBENUM_NUMBERS[i]) {
+                continue;
+            }
+            try {
+                MIBENUM_TO_CHARSET_MAP.put(MIBENUM_NUMBERS[i], Charset.forName(MIME_NAMES[i]));
+            } catch (IllegalCharsetNameException e) {
+                // Not supported here.
+            } catch (UnsupportedCharsetException e) {
+                // Not supported here.
+            }
+        }
     }
 
     private CharacterSets() {} // Non-instantiatable
@@ -150,6 +172,29 @@ public class CharacterSets {
         return name;
     }
 
+    /**
+     * Map an MIBEnum number to its charset, looked up once for all.
+     *
+     * @param mibEnumValue An IANA assigned MIBEnum number.
+     * @return The charset, null if the number is not known or the charset
+     *         is not supported.
+     */
+    public static Charset getCharset(int mibEnumValue) {
+        return MIBENUM_TO_CHARSET_MAP.get(mibEnumValue);
+    }
+
+    /**
+     * Check whether the bytes 0x00 to 0x7F are US-ASCII in a charset, so
+     * that text made of these bytes only can be decoded without it.
+     *
+     * @param mibEnumValue An IANA assigned MIBEnum number.
+     * @return true for US-ASCII, the ISO-8859 charsets and UTF-8
+     */
+    public static boolean isAsciiCompatible(int mibEnumValue) {
+        return ((mibEnumValue >= US_ASCII) && (mibEnumValue <= ISO_8859_9))
+                || (UTF_8 == mibEnumValue);
+    }
+
     /**
      * Map a well-known charset name to its assigned MIBEnum number.
      *
@@ -17,11 +17,13 @@
 
 package com.google.android.mms.pdu;
 
-import android.util.Log;
+import com.google.android.mms.util.MmsLog;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 
 /**
@@ -42,6 +44,17 @@ public class EncodedStringValue implements Cloneable {
      */
     private byte[] mData;
 
+    /**
+     * The String of the value, once decoded by getString().
+     */
+    private String mString;
+
+    /**
+     * The charset used when the Char-set is not supported.
+     */
+    private static final Charset FALLBACK_CHARSET =
+            CharacterSets.getCharset(CharacterSets.ISO_8859_1);
+
     /**
      * Constructor.
      *
@@ -75,7 +88,7 @@ public class EncodedStringValue implements Cloneable {
             mData = data.getBytes(CharacterSets.DEFAULT_CHARSET_NAME);
             mCharacterSet = CharacterSets.DEFAULT_CHARSET;
         } catch (UnsupportedEncodingException e) {
-            Log.e(TAG, "Default encoding must be supported.", e);
+            MmsLog.e(TAG, "Default encoding must be supported.", e);
         }
     }
 
@@ -96,6 +109,7 @@ public class EncodedStringValue implements Cloneable {
     public void setCharacterSet(int charset) {
         // TODO: CharSet needs to be validated against MIBEnum.
         mCharacterSet = charset;
+        mString = null;
     }
 
     /**
@@ -123,33 +137,76 @@ public class EncodedStringValue implements Cloneable {
 
         mData = new byte[textString.length];
         System.arraycopy(textString, 0, mData, 0, textString.length);
+        mString = null;
     }
 
     /**
      * Convert this object to a {@link java.lang.String}. If the encoding of
      * the EncodedStringValue is null or unsupported, it will be
-     * treated as iso-8859-1 encoding.
+     * treated as iso-8859-1 encoding. The String is decoded once and kept
+     * until the value changes.
      *
      * @return The decoded String.
      */
     public String getString()  {
-        if (CharacterSets.ANY_CHARSET == mCharacterSet) {
-            return new String(mData); // system default encoding.
-        } else {
-            try {
-                String name = CharacterSets.getMimeName(mCharacterSet);
-                return new String(mData, name);
-            } catch (UnsupportedEncodingException e) {
-            	if (LOCAL_LOGV) {
-            		Log.v(TAG, e.getMessage(), e);
-            	}
-            	try {
-                    return new String(mData, CharacterSets.MIMENAME_ISO_8859_1);
-                } catch (UnsupportedEncodingException e2) {
-                    return new String(mData); // system default encoding.
-                }
+        String string = mString;
+        if (null == string) {
+            string = decode(mCharacterSet, mData);
+            mString = string;
+        }
+        return string;
+    }
+
+    /**
+     * @return an estimate of the heap used by this value, in bytes
+     */
+    int estimateSize() {
+        // The object, its text string and the decoded String, if any.
+        int size = 32 + mData.length;
+        String string = mString;
+        if (null != string) {
+            size += 40 + 2 * string.length();
+        }
+        return size;
+    }
+
+    private static String decode(int characterSet, byte[] data) {
+        if (CharacterSets.ANY_CHARSET == characterSet) {
+            return new String(data); // system default encoding.
+        }
+
+        if (CharacterSets.isAsciiCompatible(characterSet)) {
+            String ascii = decodeAscii(data);
+            if (null != ascii) {
+                return ascii;
+            }
+        }
+
+        Charset charset = CharacterSets.getCharset(characterSet);
+        if (null == charset) {
+            if (LOCAL_LOGV) {
+                MmsLog.v(TAG, "Unsupported charset " + characterSet);
+            }
+            charset = FALLBACK_CHARSET;
+        }
+        // String(byte[], Charset) needs API level 9.
+        return charset.decode(ByteBuffer.wrap(data)).toString();
+    }
+
+    /**
+     * @return the String of US-ASCII data, null if data is not US-ASCII
+     */
+    private static String decodeAscii(byte[] data) {
+        int length = data.length;
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            byte b = data[i];
+            if (b < 0) {
+                return null;
             }
+            chars[i] = (char) b;
         }
+        return new String(chars);
     }
 
     /**
@@ -180,6 +237,7 @@ public class EncodedStringValue implements Cloneable {
 
             mData = newTextString.toByteArray();
         }
+        mString = null;
     }
 
     /*
@@ -194,9 +252,11 @@ public class EncodedStringValue implements Cloneable {
         System.arraycopy(mData, 0, dstBytes, 0, len);
 
         try {
-            return new EncodedStringValue(mCharacterSet, dstBytes);
+            EncodedStringValue value = new EncodedStringValue(mCharacterSet, dstBytes);
+            value.mString = mString;
+            return value;
         } catch (Exception e) {
-            Log.e(TAG, "failed to clone an EncodedStringValue: " + this);
+            MmsLog.e(TAG, "failed to clone an EncodedStringValue: " + this);
             e.printStackTrace();
             throw new CloneNotSupportedException(e.getMessage());
         }
@@ -266,7 +326,9 @@ public class EncodedStringValue implements Cloneable {
             return null;
         }
 
-        return new EncodedStringValue(value.mCharacterSet, value.mData);
+        EncodedStringValue copy = new EncodedStringValue(value.mCharacterSet, value.mData);
+        copy.mString = value.mString;
+        return copy;
     }
     
     public static EncodedStringValue[] encodeStrings(String[] array) {
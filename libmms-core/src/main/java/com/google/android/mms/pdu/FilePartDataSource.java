@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Part data stored in a file.
+ */
+public class FilePartDataSource implements PartDataSource {
+    private final File mFile;
+
+    /**
+     * Constructor.
+     *
+     * @param file the file holding the data
+     */
+    public FilePartDataSource(File file) {
+        if (file == null) {
+            throw new NullPointerException();
+        }
+        mFile = file;
+    }
+
+    /**
+     * @return the file holding the data
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    public long getLength() {
+        return mFile.isFile() ? mFile.length() : -1;
+    }
+
+    public InputStream openStream() throws IOException {
+        return new FileInputStream(mFile);
+    }
+
+    public void transferTo(WritableByteChannel out, long length) throws IOException {
+        FileInputStream in = new FileInputStream(mFile);
+        try {
+            transferTo(in.getChannel(), 0, length, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Transfer length bytes from position of the file channel to out.
+     *
+     * @throws IOException if the file ends before, or the transfer fails
+     */
+    public static void transferTo(FileChannel in, long position, long length,
+            WritableByteChannel out) throws IOException {
+        while (length > 0) {
+            long len = in.transferTo(position, length, out);
+            if (len <= 0) {
+                throw new IOException("Part data shorter than its length");
+            }
+            position += len;
+            length -= len;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mFile.toString();
+    }
+}
@@ -50,6 +50,16 @@ public class GenericPdu {
         return mPduHeaders;
     }
 
+    /**
+     * Estimate the heap used by this PDU, e.g. to budget a cache of PDUs
+     * by bytes rather than by count.
+     *
+     * @return the estimated size in bytes
+     */
+    public long estimateSize() {
+        return 16 + mPduHeaders.estimateSize();
+    }
+
     /**
      * Get X-Mms-Message-Type field value.
      *
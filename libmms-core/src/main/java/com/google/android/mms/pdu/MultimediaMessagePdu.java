@@ -28,6 +28,22 @@ public class MultimediaMessagePdu extends GenericPdu{
      */
     private PduBody mMessageBody;
 
+    /**
+     * Decodes the body on first access, when the PDU was parsed with a
+     * lazy body. Null once the body is decoded or set.
+     */
+    private volatile BodyLoader mBodyLoader;
+
+    /**
+     * Decodes the body of a PDU whose headers were parsed without it.
+     */
+    interface BodyLoader {
+        /**
+         * @return the decoded body, null if decoding failed
+         */
+        PduBody loadBody();
+    }
+
     /**
      * Constructor.
      */
@@ -61,6 +77,15 @@ public class MultimediaMessagePdu extends GenericPdu{
      * @return the body
      */
     public PduBody getBody() {
+        if (mBodyLoader != null) {
+            synchronized (this) {
+                BodyLoader loader = mBodyLoader;
+                if (loader != null) {
+                    mMessageBody = loader.loadBody();
+                    mBodyLoader = null;
+                }
+            }
+        }
         return mMessageBody;
     }
 
@@ -70,7 +95,35 @@ public class MultimediaMessagePdu extends GenericPdu{
      * @param body the body
      */
     public void setBody(PduBody body) {
-        mMessageBody = body;
+        synchronized (this) {
+            mBodyLoader = null;
+            mMessageBody = body;
+        }
+    }
+
+    /**
+     * Set the loader to decode the body on the first call of getBody().
+     *
+     * @param loader the loader
+     */
+    void setBodyLoader(BodyLoader loader) {
+        synchronized (this) {
+            mMessageBody = null;
+            mBodyLoader = loader;
+        }
+    }
+
+    /**
+     * {@inheritDoc} A body not decoded yet is not counted.
+     */
+    @Override
+    public long estimateSize() {
+        long size = super.estimateSize();
+        PduBody body = mMessageBody;
+        if (body != null) {
+            size += body.estimateSize();
+        }
+        return size;
     }
 
     /**
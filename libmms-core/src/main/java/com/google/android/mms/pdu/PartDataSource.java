@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Part data stored outside of the part, such as in a file or a content
+ * provider, which {@link PduComposer} reads when it makes the message.
+ *
+ * @see PduPart#setDataSource
+ * @see FilePartDataSource
+ */
+public interface PartDataSource {
+    /**
+     * @return the length of the data, -1 if it is not known without
+     *         reading the data
+     */
+    long getLength();
+
+    /**
+     * Open the data for reading.
+     *
+     * @return the data, from its start
+     * @throws IOException if the data can not be opened
+     */
+    InputStream openStream() throws IOException;
+
+    /**
+     * Write the first length bytes of the data to the channel. Sources
+     * backed by files should use FileChannel.transferTo, so the data is
+     * not copied through the Java heap.
+     *
+     * @param out the blocking channel to write to. It is not closed.
+     * @param length the number of bytes to write
+     * @throws IOException if the data is shorter than length, or reading
+     *         or writing fails
+     */
+    void transferTo(WritableByteChannel out, long length) throws IOException;
+}
@@ -148,6 +148,20 @@ public class PduBody {
         return mParts.size();
     }
 
+    /**
+     * @return an estimate of the heap used by this body and its parts,
+     *         in bytes, see {@link PduPart#estimateSize}
+     */
+    public long estimateSize() {
+        // The body, its part Vector and the four indexes.
+        long size = 256;
+        for (PduPart part : mParts) {
+            // The part, its slot in the Vector and its index entries.
+            size += part.estimateSize() + 4 + 4 * 48;
+        }
+        return size;
+    }
+
     /**
      * Get pdu part by content id.
      *
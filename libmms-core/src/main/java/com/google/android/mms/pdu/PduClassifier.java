@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+/**
+ * Reads single headers of a pdu without parsing it, e.g. to classify WAP
+ * pushes before deciding whether they are worth a {@link PduParser}.
+ *
+ * The headers are walked by the general encoding of their values: a
+ * Short-integer is one octet of 128 or more, a Text-string runs up to its
+ * terminating NUL and a Value-length gives the length of what follows.
+ * Nothing is checked beyond what is needed to get there, so a pdu that
+ * classifies well may still fail to parse, except by
+ * {@link #getNotificationLocation}, which checks a notification as
+ * PduParser would.
+ */
+public final class PduClassifier {
+    /**
+     *  The next are WAP values defined in WSP specification.
+     */
+    private static final int LENGTH_QUOTE = 31;
+    private static final int TEXT_MIN = 32;
+    private static final int QUOTE = 127;
+    private static final int SHORT_INTEGER_MIN = 0x80;
+    private static final int END_STRING_FLAG = 0x00;
+    private static final int LONG_INTEGER_LENGTH_MAX = 8;
+
+    private PduClassifier() {
+    }
+
+    /**
+     * Get the X-Mms-Message-Type of a pdu, which is its first header.
+     *
+     * @param pduData the pdu
+     * @return the message type, -1 if the pdu does not start with a known
+     *         message type
+     */
+    public static int getMessageType(byte[] pduData) {
+        if ((pduData == null) || (pduData.length < 2)
+                || ((pduData[0] & 0xFF) != PduHeaders.MESSAGE_TYPE)) {
+            return -1;
+        }
+        int messageType = pduData[1] & 0xFF;
+        if ((messageType < PduHeaders.MESSAGE_TYPE_SEND_REQ)
+                || (messageType > PduHeaders.MESSAGE_TYPE_CANCEL_CONF)) {
+            return -1;
+        }
+        return messageType;
+    }
+
+    /**
+     * Get the value of a Text-string or Uri header, such as the
+     * X-Mms-Content-Location of a M-Notification.ind. The headers after
+     * it are not read.
+     *
+     * @param pduData the pdu
+     * @param field the header field
+     * @return the value without its terminating NUL, null if the pdu has
+     *         no such header or is malformed before it
+     */
+    public static byte[] getTextHeader(byte[] pduData, int field) {
+        if (pduData == null) {
+            return null;
+        }
+        int pos = 0;
+        while (pos < pduData.length) {
+            int headerField = pduData[pos++] & 0xFF;
+            if (headerField == field) {
+                if ((pos < pduData.length) && ((pduData[pos] & 0xFF) == QUOTE)) {
+                    pos++;
+                }
+                return getText(pduData, pos, findEndOfString(pduData, pos));
+            } else if (headerField == PduHeaders.CONTENT_TYPE) {
+                // The Content-Type is the last header, the body follows.
+                return null;
+            } else if (headerField >= SHORT_INTEGER_MIN) {
+                pos = skipValue(pduData, pos);
+                if (pos < 0) {
+                    return null;
+                }
+            } else if (headerField >= TEXT_MIN) {
+                // A textual header, skipped as one string like PduParser does.
+                pos = findEndOfString(pduData, pos - 1) + 1;
+            } else {
+                // Not a header, PduParser skips it too.
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the X-Mms-Content-Location of a M-Notification.ind, if PduParser
+     * would parse it. Its headers are read as PduParser reads them, and it
+     * must have the mandatory headers PduParser checks: X-Mms-MMS-Version,
+     * X-Mms-Transaction-ID, X-Mms-Message-Class, X-Mms-Message-Size,
+     * X-Mms-Expiry and X-Mms-Content-Location.
+     *
+     * Only the headers of a notification the network sends are read: From,
+     * Subject, X-Mms-Delivery-Report and X-Mms-Priority besides the above,
+     * and the textual headers, which PduParser skips. A notification with
+     * any other header, or which ends within a header, is left to
+     * PduParser.
+     *
+     * @param pduData the pdu
+     * @return the content location, null if the pdu is not a notification
+     *         PduParser would parse, or has headers not read here
+     */
+    public static byte[] getNotificationLocation(byte[] pduData) {
+        if (getMessageType(pduData) != PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND) {
+            return null;
+        }
+
+        // As in PduHeaders, a later header replaces an earlier one.
+        byte[] location = null;
+        boolean hasVersion = false;
+        boolean hasTransactionId = false;
+        boolean hasMessageClass = false;
+        long messageSize = -1;
+        long expiry = -1;
+        int pos = 0;
+        while (pos < pduData.length) {
+            int headerField = pduData[pos++] & 0xFF;
+            if ((headerField >= TEXT_MIN) && (headerField <= QUOTE)) {
+                // A textual header, skipped as one string.
+                pos = findEndOfString(pduData, pos - 1) + 1;
+                continue;
+            } else if (headerField < TEXT_MIN) {
+                // Not a header, PduParser skips it too.
+                continue;
+            } else if (pos >= pduData.length) {
+                return null;
+            }
+            int first = pduData[pos] & 0xFF;
+            switch (headerField) {
+                case PduHeaders.MESSAGE_TYPE:
+                    if (first != PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND) {
+                        return null;
+                    }
+                    pos++;
+                    break;
+                case PduHeaders.MMS_VERSION:
+                    // Any version is taken, unknown ones as the current one.
+                    hasVersion = true;
+                    pos++;
+                    break;
+                case PduHeaders.DELIVERY_REPORT:
+                    if ((first != PduHeaders.VALUE_YES) && (first != PduHeaders.VALUE_NO)) {
+                        return null;
+                    }
+                    pos++;
+                    break;
+                case PduHeaders.PRIORITY:
+                    if ((first < PduHeaders.PRIORITY_LOW) || (first > PduHeaders.PRIORITY_HIGH)) {
+                        return null;
+                    }
+                    pos++;
+                    break;
+                case PduHeaders.TRANSACTION_ID:
+                case PduHeaders.CONTENT_LOCATION: {
+                    int start = (first == QUOTE) ? pos + 1 : pos;
+                    int end = findEndOfString(pduData, start);
+                    byte[] value = getText(pduData, start, end);
+                    if (value != null) {
+                        if (headerField == PduHeaders.CONTENT_LOCATION) {
+                            location = value;
+                        } else {
+                            hasTransactionId = true;
+                        }
+                    }
+                    pos = end + 1;
+                    break;
+                }
+                case PduHeaders.MESSAGE_CLASS:
+                    if (first >= PduHeaders.MESSAGE_CLASS_PERSONAL) {
+                        // PduParser drops the unknown class identifiers.
+                        hasMessageClass |= (first <= PduHeaders.MESSAGE_CLASS_AUTO);
+                        pos++;
+                    } else {
+                        int start = (first == QUOTE) ? pos + 1 : pos;
+                        int end = findEndOfString(pduData, start);
+                        hasMessageClass |= (getText(pduData, start, end) != null);
+                        pos = end + 1;
+                    }
+                    break;
+                case PduHeaders.MESSAGE_SIZE:
+                    if (skipLongInteger(pduData, pos) < 0) {
+                        return null;
+                    }
+                    messageSize = getLongInteger(pduData, pos);
+                    pos = skipLongInteger(pduData, pos);
+                    break;
+                case PduHeaders.EXPIRY: {
+                    // PduParser reads past the Value-length rather than
+                    // skipping the length it gives.
+                    pos = skipValueLength(pduData, pos);
+                    if ((pos < 0) || (pos >= pduData.length)) {
+                        return null;
+                    }
+                    int token = pduData[pos++] & 0xFF;
+                    if (skipLongInteger(pduData, pos) < 0) {
+                        return null;
+                    }
+                    expiry = getLongInteger(pduData, pos);
+                    if (token == PduHeaders.VALUE_RELATIVE_TOKEN) {
+                        expiry += System.currentTimeMillis() / 1000;
+                    }
+                    pos = skipLongInteger(pduData, pos);
+                    break;
+                }
+                case PduHeaders.FROM: {
+                    pos = skipValueLength(pduData, pos);
+                    if ((pos < 0) || (pos >= pduData.length)) {
+                        return null;
+                    }
+                    int token = pduData[pos++] & 0xFF;
+                    if (token == PduHeaders.FROM_ADDRESS_PRESENT_TOKEN) {
+                        pos = skipEncodedString(pduData, pos);
+                    }
+                    break;
+                }
+                case PduHeaders.SUBJECT:
+                    pos = skipEncodedString(pduData, pos);
+                    break;
+                default:
+                    return null;
+            }
+            if (pos < 0) {
+                return null;
+            }
+        }
+
+        if (!hasVersion || !hasTransactionId || !hasMessageClass
+                || (messageSize == -1) || (expiry == -1)) {
+            return null;
+        }
+        return location;
+    }
+
+    /**
+     * @return the position after the Value-length at pos, -1 if it is not
+     *         one or the pdu ends before
+     */
+    private static int skipValueLength(byte[] pduData, int pos) {
+        int first = pduData[pos++] & 0xFF;
+        if (first < LENGTH_QUOTE) {
+            return pos;
+        } else if (first > LENGTH_QUOTE) {
+            return -1;
+        }
+        // A Uintvar, ended by its first octet below 0x80.
+        while (pos < pduData.length) {
+            if ((pduData[pos++] & 0x80) == 0) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position after the Long-integer at pos, -1 if it is too
+     *         long for PduParser or the pdu ends before
+     */
+    private static int skipLongInteger(byte[] pduData, int pos) {
+        if (pos >= pduData.length) {
+            return -1;
+        }
+        int count = pduData[pos] & 0xFF;
+        if ((count > LONG_INTEGER_LENGTH_MAX) || (count >= pduData.length - pos)) {
+            return -1;
+        }
+        return pos + 1 + count;
+    }
+
+    /**
+     * @return the value of the Long-integer at pos, which must be whole
+     */
+    private static long getLongInteger(byte[] pduData, int pos) {
+        int count = pduData[pos++] & 0xFF;
+        long result = 0;
+        for (int i = 0; i < count; i++) {
+            result = (result << 8) | (pduData[pos++] & 0xFF);
+        }
+        return result;
+    }
+
+    /**
+     * @return the position after the Encoded-string-value at pos, read as
+     *         PduParser does, -1 if the pdu ends before
+     */
+    private static int skipEncodedString(byte[] pduData, int pos) {
+        if (pos >= pduData.length) {
+            return -1;
+        }
+        int first = pduData[pos] & 0xFF;
+        if (first == END_STRING_FLAG) {
+            return pos + 1;
+        }
+        if (first < TEXT_MIN) {
+            // Value-length and Char-set; PduParser does not skip the length.
+            pos = skipValueLength(pduData, pos);
+            if ((pos < 0) || (pos + 1 >= pduData.length)) {
+                return -1;
+            }
+            pos++;
+        }
+        if ((pduData[pos] & 0xFF) == QUOTE) {
+            pos++;
+        }
+        return findEndOfString(pduData, pos) + 1;
+    }
+
+    /**
+     * @return the text characters between start and end, leaving out the
+     *         control characters as PduParser does, null if there are none
+     */
+    private static byte[] getText(byte[] pduData, int start, int end) {
+        int size = 0;
+        for (int i = start; i < end; i++) {
+            if (PduParser.isText(pduData[i] & 0xFF)) {
+                size++;
+            }
+        }
+        if (size == 0) {
+            return null;
+        }
+
+        byte[] value = new byte[size];
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (PduParser.isText(pduData[i] & 0xFF)) {
+                value[count++] = pduData[i];
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return the position after the header value at pos, -1 if the
+     *         pdu ends before
+     */
+    private static int skipValue(byte[] pduData, int pos) {
+        if (pos >= pduData.length) {
+            return -1;
+        }
+        int first = pduData[pos] & 0xFF;
+        if (first >= SHORT_INTEGER_MIN) {
+            return pos + 1;
+        } else if (first >= TEXT_MIN) {
+            return findEndOfString(pduData, pos) + 1;
+        }
+
+        // Value-length or Long-integer: a Short-length or a quoted
+        // Uintvar length, then the data.
+        pos++;
+        long length = first;
+        if (first == LENGTH_QUOTE) {
+            length = 0;
+            int count = 0;
+            int octet;
+            do {
+                if ((pos >= pduData.length) || (++count > 5)) {
+                    return -1;
+                }
+                octet = pduData[pos++] & 0xFF;
+                length = (length << 7) | (octet & 0x7F);
+            } while ((octet & 0x80) != 0);
+        }
+        return (length <= pduData.length - pos) ? pos + (int) length : -1;
+    }
+
+    /**
+     * @return the position of the NUL ending the string at pos, the end
+     *         of the pdu if there is none
+     */
+    private static int findEndOfString(byte[] pduData, int pos) {
+        for (int i = pos; i < pduData.length; i++) {
+            if (pduData[i] == END_STRING_FLAG) {
+                return i;
+            }
+        }
+        return pduData.length;
+    }
+}
@@ -0,0 +1,1719 @@
+/*
+ * Copyright (C) 2007-2008 Esmertec AG.
+ * Copyright (C) 2007-2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class PduComposer {
+    /**
+     * Address type.
+     */
+    static final int PDU_PHONE_NUMBER_ADDRESS_TYPE = 1;
+    static final int PDU_EMAIL_ADDRESS_TYPE = 2;
+    static final int PDU_IPV4_ADDRESS_TYPE = 3;
+    static final int PDU_IPV6_ADDRESS_TYPE = 4;
+    static final int PDU_UNKNOWN_ADDRESS_TYPE = 5;
+
+    /**
+     * Address regular expression string. checkAddressType matches the
+     * addresses by hand, with the same results as these expressions.
+     */
+    static final String REGEXP_PHONE_NUMBER_ADDRESS_TYPE = "\\+?[0-9|\\.|\\-]+";
+    static final String REGEXP_EMAIL_ADDRESS_TYPE = "[a-zA-Z| ]*\\<{0,1}[a-zA-Z| ]+@{1}" +
+            "[a-zA-Z| ]+\\.{1}[a-zA-Z| ]+\\>{0,1}";
+    static final String REGEXP_IPV6_ADDRESS_TYPE =
+        "[a-fA-F]{4}\\:{1}[a-fA-F0-9]{4}\\:{1}[a-fA-F0-9]{4}\\:{1}" +
+        "[a-fA-F0-9]{4}\\:{1}[a-fA-F0-9]{4}\\:{1}[a-fA-F0-9]{4}\\:{1}" +
+        "[a-fA-F0-9]{4}\\:{1}[a-fA-F0-9]{4}";
+    static final String REGEXP_IPV4_ADDRESS_TYPE = "[0-9]{1,3}\\.{1}[0-9]{1,3}\\.{1}" +
+            "[0-9]{1,3}\\.{1}[0-9]{1,3}";
+
+    /**
+     * Addresses recently checked by checkAddressType, and their types.
+     * The size is a power of two.
+     */
+    static private final int ADDRESS_TYPE_CACHE_SIZE = 64;
+    static private final AddressType[] sAddressTypeCache =
+            new AddressType[ADDRESS_TYPE_CACHE_SIZE];
+
+    /**
+     * The postfix strings of address.
+     */
+    static final String STRING_PHONE_NUMBER_ADDRESS_TYPE = "/TYPE=PLMN";
+    static final String STRING_IPV4_ADDRESS_TYPE = "/TYPE=IPV4";
+    static final String STRING_IPV6_ADDRESS_TYPE = "/TYPE=IPV6";
+
+    /**
+     * Error values.
+     */
+    static private final int PDU_COMPOSE_SUCCESS = 0;
+    static private final int PDU_COMPOSE_CONTENT_ERROR = 1;
+    static private final int PDU_COMPOSE_FIELD_NOT_SET = 2;
+    static private final int PDU_COMPOSE_FIELD_NOT_SUPPORTED = 3;
+
+    /**
+     * WAP values defined in WSP spec.
+     */
+    static private final int QUOTED_STRING_FLAG = 34;
+    static private final int END_STRING_FLAG = 0;
+    static private final int LENGTH_QUOTE = 31;
+    static private final int TEXT_MAX = 127;
+    static private final int SHORT_INTEGER_MAX = 127;
+    static private final int LONG_INTEGER_LENGTH_MAX = 8;
+
+    /**
+     * Block size when read data from InputStream.
+     */
+    static private final int PDU_COMPOSER_BLOCK_SIZE = 1024;
+
+    /**
+     * The output message.
+     */
+    protected ByteArrayOutputStream mMessage = null;
+
+    /**
+     * The PDU.
+     */
+    private GenericPdu mPdu = null;
+
+    /**
+     * Current visiting position of the mMessage.
+     */
+    protected int mPosition = 0;
+
+    /**
+     * Message compose buffer stack.
+     */
+    private BufferStack mStack = null;
+
+    /**
+     * Part data that goes into mMessage, in message order. The data is
+     * not copied into mMessage but only into the final message.
+     */
+    private ArrayList<DataSegment> mDataSegments = null;
+
+    /**
+     * Data segments of the messages composed before, kept for reuse.
+     */
+    private ArrayList<DataSegment> mSpareSegments = null;
+
+    /**
+     * Block buffer to write the part data out, allocated when first needed.
+     */
+    private byte[] mBlockBuffer = null;
+
+    /**
+     * Header of this pdu.
+     */
+    private PduHeaders mPduHeader = null;
+
+    /**
+     * Map of all content type
+     */
+    private static HashMap<String, Integer> mContentTypeMap = null;
+
+    static {
+        mContentTypeMap = new HashMap<String, Integer>();
+
+        int i;
+        for (i = 0; i < PduContentTypes.contentTypes.length; i++) {
+            mContentTypeMap.put(PduContentTypes.contentTypes[i], i);
+        }
+    }
+
+    /**
+     * Composers kept for reuse by each thread, see {@link #getThreadComposer}.
+     */
+    private static final ThreadLocal<PduComposer> sThreadComposer =
+            new ThreadLocal<PduComposer>() {
+                @Override
+                protected PduComposer initialValue() {
+                    return new PduComposer();
+                }
+            };
+
+    /**
+     * Constructor.
+     *
+     * @param pdu the pdu to be composed
+     */
+    public PduComposer(GenericPdu pdu) {
+        this();
+        mPdu = pdu;
+        mPduHeader = pdu.getPduHeaders();
+    }
+
+    /**
+     * Constructor for a composer without pdu yet, to be given to
+     * {@link #reset} before each make. A composer reused this way keeps
+     * its buffers from one message to the next.
+     */
+    public PduComposer() {
+        mStack = new BufferStack();
+        mMessage = new MessageBuffer();
+        mPosition = 0;
+        mDataSegments = new ArrayList<DataSegment>();
+        mSpareSegments = new ArrayList<DataSegment>();
+    }
+
+    /**
+     * Get the composer kept for reuse by the current thread. It must be
+     * reset with the pdu before each make, and not be used after anything
+     * else on the thread may have called this method again.
+     *
+     * @return the composer of the current thread
+     */
+    public static PduComposer getThreadComposer() {
+        return sThreadComposer.get();
+    }
+
+    /**
+     * Start over with another pdu. The messages made before are not
+     * affected.
+     *
+     * @param pdu the pdu to be composed
+     * @return this composer
+     */
+    public PduComposer reset(GenericPdu pdu) {
+        mPdu = pdu;
+        mPduHeader = pdu.getPduHeaders();
+        if (mStack.stackSize != 0) {
+            // The previous pdu failed in a length-prefixed value.
+            mStack = new BufferStack();
+            mMessage = new MessageBuffer();
+        } else {
+            mStack.toCopy = null;
+            mMessage.reset();
+        }
+        mPosition = 0;
+        for (DataSegment segment : mDataSegments) {
+            segment.data = null;
+            segment.source = null;
+            mSpareSegments.add(segment);
+        }
+        mDataSegments.clear();
+        return this;
+    }
+
+    /**
+     * Make the message. No need to check whether mandatory fields are set,
+     * because the constructors of outgoing pdus are taking care of this.
+     *
+     * @return OutputStream of maked message. Return null if
+     *         the PDU is invalid, or the data of a part can not be read.
+     */
+    public byte[] make() {
+        if (!compose()) {
+            return null;
+        }
+
+        return toByteArray();
+    }
+
+    /**
+     * Make the message and write it to the given stream. Part data stored
+     * in a data source is copied to the stream in blocks,
+     * so the data of the parts is never held in memory as a whole.
+     *
+     * @param out the stream to write the message to. It is not closed.
+     * @return false if the PDU is invalid, in which case nothing is written
+     * @throws IOException if writing the message or reading part data fails
+     */
+    public boolean make(OutputStream out) throws IOException {
+        if (!compose()) {
+            return false;
+        }
+
+        byte[] headers = messageArray();
+        if (mBlockBuffer == null) {
+            mBlockBuffer = new byte[PDU_COMPOSER_BLOCK_SIZE];
+        }
+        byte[] buffer = mBlockBuffer;
+        int src = 0;
+        for (DataSegment segment : mDataSegments) {
+            out.write(headers, src, segment.offset - src);
+            src = segment.offset;
+
+            if ((segment.data != null) && segment.data.hasArray()) {
+                ByteBuffer data = segment.data;
+                out.write(data.array(), data.arrayOffset() + data.position(), segment.length);
+            } else if (segment.data != null) {
+                ByteBuffer data = segment.data.duplicate();
+                while (data.hasRemaining()) {
+                    int len = Math.min(buffer.length, data.remaining());
+                    data.get(buffer, 0, len);
+                    out.write(buffer, 0, len);
+                }
+            } else {
+                InputStream in = segment.source.openStream();
+                try {
+                    int remaining = segment.length;
+                    while (remaining > 0) {
+                        int len = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                        if (len == -1) {
+                            throw new IOException("Part data shorter than its length: "
+                                    + segment.source);
+                        }
+                        out.write(buffer, 0, len);
+                        remaining -= len;
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        }
+        out.write(headers, src, mMessage.size() - src);
+
+        return true;
+    }
+
+    /**
+     * Make the message and write it to the given channel. Part data stored
+     * in a data source is written with PartDataSource.transferTo, which for
+     * files lets the system copy it without passing it through this process.
+     *
+     * @param out the blocking channel to write the message to. It is not
+     *        closed.
+     * @return false if the PDU is invalid, in which case nothing is written
+     * @throws IOException if writing the message or reading part data fails
+     */
+    public boolean make(WritableByteChannel out) throws IOException {
+        if (!compose()) {
+            return false;
+        }
+
+        byte[] headers = messageArray();
+        int src = 0;
+        for (DataSegment segment : mDataSegments) {
+            writeFully(out, ByteBuffer.wrap(headers, src, segment.offset - src));
+            src = segment.offset;
+
+            if (segment.data != null) {
+                writeFully(out, segment.data.duplicate());
+            } else {
+                segment.source.transferTo(out, segment.length);
+            }
+        }
+        writeFully(out, ByteBuffer.wrap(headers, src, mMessage.size() - src));
+
+        return true;
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer data)
+            throws IOException {
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
+    }
+
+    /**
+     * Compose the message into mMessage and mDataSegments.
+     *
+     * @return false if the PDU is invalid
+     */
+    private boolean compose() {
+        // Get Message-type.
+        int type = mPdu.getMessageType();
+
+        /* make the message */
+        switch (type) {
+            case PduHeaders.MESSAGE_TYPE_SEND_REQ:
+                if (makeSendReqPdu() != PDU_COMPOSE_SUCCESS) {
+                    return false;
+                }
+                break;
+            case PduHeaders.MESSAGE_TYPE_NOTIFYRESP_IND:
+                if (makeNotifyResp() != PDU_COMPOSE_SUCCESS) {
+                    return false;
+                }
+                break;
+            case PduHeaders.MESSAGE_TYPE_ACKNOWLEDGE_IND:
+                if (makeAckInd() != PDU_COMPOSE_SUCCESS) {
+                    return false;
+                }
+                break;
+            case PduHeaders.MESSAGE_TYPE_READ_REC_IND:
+                if (makeReadRecInd() != PDU_COMPOSE_SUCCESS) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Assemble the message from mMessage and the part data, copying the
+     * part data only this once. Data sources are read straight into the
+     * message.
+     *
+     * @return the message, null if the data of a part can not be read
+     */
+    private byte[] toByteArray() {
+        if (mDataSegments.isEmpty()) {
+            return mMessage.toByteArray();
+        }
+
+        byte[] headers = messageArray();
+        int headersLength = mMessage.size();
+        int size = headersLength;
+        for (DataSegment segment : mDataSegments) {
+            size += segment.length;
+        }
+
+        byte[] message = new byte[size];
+        int src = 0;
+        int dst = 0;
+        for (DataSegment segment : mDataSegments) {
+            int length = segment.offset - src;
+            System.arraycopy(headers, src, message, dst, length);
+            src += length;
+            dst += length;
+
+            length = segment.length;
+            if (segment.data != null) {
+                segment.data.duplicate().get(message, dst, length);
+            } else if (!readFully(segment.source, message, dst, length)) {
+                return null;
+            }
+            dst += length;
+        }
+        System.arraycopy(headers, src, message, dst, headersLength - src);
+
+        return message;
+    }
+
+    /**
+     * Read the first length bytes of a data source into buffer.
+     *
+     * @return false if the data can not be read or is shorter than length
+     */
+    private static boolean readFully(PartDataSource source, byte[] buffer,
+            int offset, int length) {
+        InputStream in = null;
+        try {
+            in = source.openStream();
+            while (length > 0) {
+                int len = in.read(buffer, offset, length);
+                if (len == -1) {
+                    return false;
+                }
+                offset += len;
+                length -= len;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (RuntimeException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the content of mMessage, without copying it if possible.
+     *         Only the first mMessage.size() bytes are valid.
+     */
+    private byte[] messageArray() {
+        if (mMessage instanceof MessageBuffer) {
+            return ((MessageBuffer) mMessage).array();
+        }
+        return mMessage.toByteArray();
+    }
+
+    /**
+     *  Copy buf to mMessage.
+     */
+    protected void arraycopy(byte[] buf, int pos, int length) {
+        mMessage.write(buf, pos, length);
+        mPosition = mPosition + length;
+    }
+
+    /**
+     * Append part data to mMessage. The data is referenced, not copied,
+     * so it can only be appended to the message itself, not to a buffer
+     * of the BufferStack.
+     */
+    private void appendData(ByteBuffer data) {
+        if (mStack.stackSize != 0) {
+            throw new RuntimeException("BUG: Invalid appendData() into a stacked buffer");
+        }
+
+        DataSegment segment = newDataSegment();
+        segment.offset = mMessage.size();
+        segment.data = data;
+        segment.length = data.remaining();
+        mDataSegments.add(segment);
+        mPosition += segment.length;
+    }
+
+    /**
+     * Append part data stored in a data source to mMessage. The data is
+     * read when the message is written out. Like appendData(ByteBuffer),
+     * only valid for the message itself.
+     */
+    private void appendData(PartDataSource source, int length) {
+        if (mStack.stackSize != 0) {
+            throw new RuntimeException("BUG: Invalid appendData() into a stacked buffer");
+        }
+
+        DataSegment segment = newDataSegment();
+        segment.offset = mMessage.size();
+        segment.source = source;
+        segment.length = length;
+        mDataSegments.add(segment);
+        mPosition += length;
+    }
+
+    private DataSegment newDataSegment() {
+        int spareCount = mSpareSegments.size();
+        return (spareCount > 0) ? mSpareSegments.remove(spareCount - 1) : new DataSegment();
+    }
+
+    /**
+     * Append a byte to mMessage.
+     */
+    protected void append(int value) {
+        mMessage.write(value);
+        mPosition ++;
+    }
+
+    /**
+     * Append short integer value to mMessage.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendShortInteger(int value) {
+        /*
+         * From WAP-230-WSP-20010705-a:
+         * Short-integer = OCTET
+         * ; Integers in range 0-127 shall be encoded as a one octet value
+         * ; with the most significant bit set to one (1xxx xxxx) and with
+         * ; the value in the remaining least significant bits.
+         * In our implementation, only low 7 bits are stored and otherwise
+         * bits are ignored.
+         */
+        append((value | 0x80) & 0xff);
+    }
+
+    /**
+     * Append an octet number between 128 and 255 into mMessage.
+     * NOTE:
+     * A value between 0 and 127 should be appended by using appendShortInteger.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendOctet(int number) {
+        append(number);
+    }
+
+    /**
+     * Append a short length into mMessage.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendShortLength(int value) {
+        /*
+         * From WAP-230-WSP-20010705-a:
+         * Short-length = <Any octet 0-30>
+         */
+        append(value);
+    }
+
+    /**
+     * Append long integer into mMessage. it's used for really long integers.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendLongInteger(long longInt) {
+        /*
+         * From WAP-230-WSP-20010705-a:
+         * Long-integer = Short-length Multi-octet-integer
+         * ; The Short-length indicates the length of the Multi-octet-integer
+         * Multi-octet-integer = 1*30 OCTET
+         * ; The content octets shall be an unsigned integer value with the
+         * ; most significant octet encoded first (big-endian representation).
+         * ; The minimum number of octets must be used to encode the value.
+         */
+        int size;
+        long temp = longInt;
+
+        // Count the length of the long integer.
+        for(size = 0; (temp != 0) && (size < LONG_INTEGER_LENGTH_MAX); size++) {
+            temp = (temp >>> 8);
+        }
+
+        // Set Length.
+        appendShortLength(size);
+
+        // Count and set the long integer.
+        int i;
+        int shift = (size -1) * 8;
+
+        for (i = 0; i < size; i++) {
+            append((int)((longInt >>> shift) & 0xff));
+            shift = shift - 8;
+        }
+    }
+
+    /**
+     * Append text string into mMessage.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendTextString(byte[] text) {
+        /*
+         * From WAP-230-WSP-20010705-a:
+         * Text-string = [Quote] *TEXT End-of-string
+         * ; If the first character in the TEXT is in the range of 128-255,
+         * ; a Quote character must precede it. Otherwise the Quote character
+         * ;must be omitted. The Quote is not part of the contents.
+         */
+        if (((text[0])&0xff) > TEXT_MAX) { // No need to check for <= 255
+            append(TEXT_MAX);
+        }
+
+        arraycopy(text, 0, text.length);
+        append(0);
+    }
+
+    /**
+     * Append text string into mMessage.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendTextString(String str) {
+        /*
+         * From WAP-230-WSP-20010705-a:
+         * Text-string = [Quote] *TEXT End-of-string
+         * ; If the first character in the TEXT is in the range of 128-255,
+         * ; a Quote character must precede it. Otherwise the Quote character
+         * ;must be omitted. The Quote is not part of the contents.
+         */
+        appendTextString(str.getBytes());
+    }
+
+    /**
+     * Append encoded string value to mMessage.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendEncodedString(EncodedStringValue enStr) {
+        /*
+         * From OMA-TS-MMS-ENC-V1_3-20050927-C:
+         * Encoded-string-value = Text-string | Value-length Char-set Text-string
+         */
+        assert(enStr != null);
+
+        int charset = enStr.getCharacterSet();
+        byte[] textString = enStr.getTextString();
+        if (null == textString) {
+            return;
+        }
+
+        /*
+         * In the implementation of EncodedStringValue, the charset field will
+         * never be 0. It will always be composed as
+         * Encoded-string-value = Value-length Char-set Text-string
+         */
+        mStack.newbuf();
+        PositionMarker start = mStack.mark();
+
+        appendShortInteger(charset);
+        appendTextString(textString);
+
+        int len = start.getLength();
+        mStack.pop();
+        appendValueLength(len);
+        mStack.copy();
+    }
+
+    /**
+     * Append uintvar integer into mMessage.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendUintvarInteger(long value) {
+        /*
+         * From WAP-230-WSP-20010705-a:
+         * To encode a large unsigned integer, split it into 7-bit fragments
+         * and place them in the payloads of multiple octets. The most significant
+         * bits are placed in the first octets with the least significant bits
+         * ending up in the last octet. All octets MUST set the Continue bit to 1
+         * except the last octet, which MUST set the Continue bit to 0.
+         */
+        int i;
+        long max = SHORT_INTEGER_MAX;
+
+        for (i = 0; i < 5; i++) {
+            if (value < max) {
+                break;
+            }
+
+            max = (max << 7) | 0x7fl;
+        }
+
+        while(i > 0) {
+            long temp = value >>> (i * 7);
+            temp = temp & 0x7f;
+
+            append((int)((temp | 0x80) & 0xff));
+
+            i--;
+        }
+
+        append((int)(value & 0x7f));
+    }
+
+    /**
+     * Append date value into mMessage.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendDateValue(long date) {
+        /*
+         * From OMA-TS-MMS-ENC-V1_3-20050927-C:
+         * Date-value = Long-integer
+         */
+        appendLongInteger(date);
+    }
+
+    /**
+     * Append value length to mMessage.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendValueLength(long value) {
+        /*
+         * From WAP-230-WSP-20010705-a:
+         * Value-length = Short-length | (Length-quote Length)
+         * ; Value length is used to indicate the length of the value to follow
+         * Short-length = <Any octet 0-30>
+         * Length-quote = <Octet 31>
+         * Length = Uintvar-integer
+         */
+        if (value < LENGTH_QUOTE) {
+            appendShortLength((int) value);
+            return;
+        }
+
+        append(LENGTH_QUOTE);
+        appendUintvarInteger(value);
+    }
+
+    /**
+     * Append quoted string to mMessage.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendQuotedString(byte[] text) {
+        /*
+         * From WAP-230-WSP-20010705-a:
+         * Quoted-string = <Octet 34> *TEXT End-of-string
+         * ;The TEXT encodes an RFC2616 Quoted-string with the enclosing
+         * ;quotation-marks <"> removed.
+         */
+        append(QUOTED_STRING_FLAG);
+        arraycopy(text, 0, text.length);
+        append(END_STRING_FLAG);
+    }
+
+    /**
+     * Append quoted string to mMessage.
+     * This implementation doesn't check the validity of parameter, since it
+     * assumes that the values are validated in the GenericPdu setter methods.
+     */
+    protected void appendQuotedString(String str) {
+        /*
+         * From WAP-230-WSP-20010705-a:
+         * Quoted-string = <Octet 34> *TEXT End-of-string
+         * ;The TEXT encodes an RFC2616 Quoted-string with the enclosing
+         * ;quotation-marks <"> removed.
+         */
+        appendQuotedString(str.getBytes());
+    }
+
+    private EncodedStringValue appendAddressType(EncodedStringValue address) {
+        EncodedStringValue temp = null;
+
+        try {
+            int addressType = checkAddressType(address.getString());
+            temp = EncodedStringValue.copy(address);
+            if (PDU_PHONE_NUMBER_ADDRESS_TYPE == addressType) {
+                // Phone number.
+                temp.appendTextString(STRING_PHONE_NUMBER_ADDRESS_TYPE.getBytes());
+            } else if (PDU_IPV4_ADDRESS_TYPE == addressType) {
+                // Ipv4 address.
+                temp.appendTextString(STRING_IPV4_ADDRESS_TYPE.getBytes());
+            } else if (PDU_IPV6_ADDRESS_TYPE == addressType) {
+                // Ipv6 address.
+                temp.appendTextString(STRING_IPV6_ADDRESS_TYPE.getBytes());
+            }
+        } catch (NullPointerException e) {
+            return null;
+        }
+
+        return temp;
+    }
+
+    /**
+     * Append header to mMessage.
+     */
+    private int appendHeader(int field) {
+        switch (field) {
+            case PduHeaders.MMS_VERSION:
+                appendOctet(field);
+
+                int version = mPduHeader.getOctet(field);
+                if (0 == version) {
+                    appendShortInteger(PduHeaders.CURRENT_MMS_VERSION);
+                } else {
+                    appendShortInteger(version);
+                }
+
+                break;
+
+            case PduHeaders.MESSAGE_ID:
+            case PduHeaders.TRANSACTION_ID:
+                byte[] textString = mPduHeader.getTextString(field);
+                if (null == textString) {
+                    return PDU_COMPOSE_FIELD_NOT_SET;
+                }
+
+                appendOctet(field);
+                appendTextString(textString);
+                break;
+
+            case PduHeaders.TO:
+            case PduHeaders.BCC:
+            case PduHeaders.CC:
+                EncodedStringValue[] addr = mPduHeader.getEncodedStringValues(field);
+
+                if (null == addr) {
+                    return PDU_COMPOSE_FIELD_NOT_SET;
+                }
+
+                EncodedStringValue temp;
+                for (int i = 0; i < addr.length; i++) {
+                    temp = appendAddressType(addr[i]);
+                    if (temp == null) {
+                        return PDU_COMPOSE_CONTENT_ERROR;
+                    }
+
+                    appendOctet(field);
+                    appendEncodedString(temp);
+                }
+                break;
+
+            case PduHeaders.FROM:
+                // Value-length (Address-present-token Encoded-string-value | Insert-address-token)
+                appendOctet(field);
+
+                EncodedStringValue from = mPduHeader.getEncodedStringValue(field);
+                if ((from == null)
+                        || (from.getString() == null)
+                        || (from.getString().length() == 0)
+                        || new String(from.getTextString()).equals(
+                                PduHeaders.FROM_INSERT_ADDRESS_TOKEN_STR)) {
+                    // Length of from = 1
+                    append(1);
+                    // Insert-address-token = <Octet 129>
+                    append(PduHeaders.FROM_INSERT_ADDRESS_TOKEN);
+                } else {
+                    mStack.newbuf();
+                    PositionMarker fstart = mStack.mark();
+
+                    // Address-present-token = <Octet 128>
+                    append(PduHeaders.FROM_ADDRESS_PRESENT_TOKEN);
+
+                    temp = appendAddressType(from);
+                    if (temp == null) {
+                        return PDU_COMPOSE_CONTENT_ERROR;
+                    }
+
+                    appendEncodedString(temp);
+
+                    int flen = fstart.getLength();
+                    mStack.pop();
+                    appendValueLength(flen);
+                    mStack.copy();
+                }
+                break;
+
+            case PduHeaders.READ_STATUS:
+            case PduHeaders.STATUS:
+            case PduHeaders.REPORT_ALLOWED:
+            case PduHeaders.PRIORITY:
+            case PduHeaders.DELIVERY_REPORT:
+            case PduHeaders.READ_REPORT:
+                int octet = mPduHeader.getOctet(field);
+                if (0 == octet) {
+                    return PDU_COMPOSE_FIELD_NOT_SET;
+                }
+
+                appendOctet(field);
+                appendOctet(octet);
+                break;
+
+            case PduHeaders.DATE:
+                long date = mPduHeader.getLongInteger(field);
+                if (-1 == date) {
+                    return PDU_COMPOSE_FIELD_NOT_SET;
+                }
+
+                appendOctet(field);
+                appendDateValue(date);
+                break;
+
+            case PduHeaders.SUBJECT:
+                EncodedStringValue enString =
+                    mPduHeader.getEncodedStringValue(field);
+                if (null == enString) {
+                    return PDU_COMPOSE_FIELD_NOT_SET;
+                }
+
+                appendOctet(field);
+                appendEncodedString(enString);
+                break;
+
+            case PduHeaders.MESSAGE_CLASS:
+                byte[] messageClass = mPduHeader.getTextString(field);
+                if (null == messageClass) {
+                    return PDU_COMPOSE_FIELD_NOT_SET;
+                }
+
+                appendOctet(field);
+                if (Arrays.equals(messageClass,
+                        PduHeaders.MESSAGE_CLASS_ADVERTISEMENT_STR.getBytes())) {
+                    appendOctet(PduHeaders.MESSAGE_CLASS_ADVERTISEMENT);
+                } else if (Arrays.equals(messageClass,
+                        PduHeaders.MESSAGE_CLASS_AUTO_STR.getBytes())) {
+                    appendOctet(PduHeaders.MESSAGE_CLASS_AUTO);
+                } else if (Arrays.equals(messageClass,
+                        PduHeaders.MESSAGE_CLASS_PERSONAL_STR.getBytes())) {
+                    appendOctet(PduHeaders.MESSAGE_CLASS_PERSONAL);
+                } else if (Arrays.equals(messageClass,
+                        PduHeaders.MESSAGE_CLASS_INFORMATIONAL_STR.getBytes())) {
+                    appendOctet(PduHeaders.MESSAGE_CLASS_INFORMATIONAL);
+                } else {
+                    appendTextString(messageClass);
+                }
+                break;
+
+            case PduHeaders.EXPIRY:
+                long expiry = mPduHeader.getLongInteger(field);
+                if (-1 == expiry) {
+                    return PDU_COMPOSE_FIELD_NOT_SET;
+                }
+
+                appendOctet(field);
+
+                mStack.newbuf();
+                PositionMarker expiryStart = mStack.mark();
+
+                append(PduHeaders.VALUE_RELATIVE_TOKEN);
+                appendLongInteger(expiry);
+
+                int expiryLength = expiryStart.getLength();
+                mStack.pop();
+                appendValueLength(expiryLength);
+                mStack.copy();
+                break;
+
+            default:
+                return PDU_COMPOSE_FIELD_NOT_SUPPORTED;
+        }
+
+        return PDU_COMPOSE_SUCCESS;
+    }
+
+    /**
+     * Make ReadRec.Ind.
+     */
+    private int makeReadRecInd() {
+        if (mMessage == null) {
+            mMessage = new MessageBuffer();
+            mPosition = 0;
+        }
+
+        // X-Mms-Message-Type
+        appendOctet(PduHeaders.MESSAGE_TYPE);
+        appendOctet(PduHeaders.MESSAGE_TYPE_READ_REC_IND);
+
+        // X-Mms-MMS-Version
+        if (appendHeader(PduHeaders.MMS_VERSION) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        // Message-ID
+        if (appendHeader(PduHeaders.MESSAGE_ID) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        // To
+        if (appendHeader(PduHeaders.TO) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        // From
+        if (appendHeader(PduHeaders.FROM) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        // Date Optional
+        appendHeader(PduHeaders.DATE);
+
+        // X-Mms-Read-Status
+        if (appendHeader(PduHeaders.READ_STATUS) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        // X-Mms-Applic-ID Optional(not support)
+        // X-Mms-Reply-Applic-ID Optional(not support)
+        // X-Mms-Aux-Applic-Info Optional(not support)
+
+        return PDU_COMPOSE_SUCCESS;
+    }
+
+    /**
+     * Make NotifyResp.Ind.
+     */
+    private int makeNotifyResp() {
+        if (mMessage == null) {
+            mMessage = new MessageBuffer();
+            mPosition = 0;
+        }
+
+        //    X-Mms-Message-Type
+        appendOctet(PduHeaders.MESSAGE_TYPE);
+        appendOctet(PduHeaders.MESSAGE_TYPE_NOTIFYRESP_IND);
+
+        // X-Mms-Transaction-ID
+        if (appendHeader(PduHeaders.TRANSACTION_ID) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        // X-Mms-MMS-Version
+        if (appendHeader(PduHeaders.MMS_VERSION) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        //  X-Mms-Status
+        if (appendHeader(PduHeaders.STATUS) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        // X-Mms-Report-Allowed Optional (not support)
+        return PDU_COMPOSE_SUCCESS;
+    }
+
+    /**
+     * Make Acknowledge.Ind.
+     */
+    private int makeAckInd() {
+        if (mMessage == null) {
+            mMessage = new MessageBuffer();
+            mPosition = 0;
+        }
+
+        //    X-Mms-Message-Type
+        appendOctet(PduHeaders.MESSAGE_TYPE);
+        appendOctet(PduHeaders.MESSAGE_TYPE_ACKNOWLEDGE_IND);
+
+        // X-Mms-Transaction-ID
+        if (appendHeader(PduHeaders.TRANSACTION_ID) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        //     X-Mms-MMS-Version
+        if (appendHeader(PduHeaders.MMS_VERSION) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        // X-Mms-Report-Allowed Optional
+        appendHeader(PduHeaders.REPORT_ALLOWED);
+
+        return PDU_COMPOSE_SUCCESS;
+    }
+
+    /**
+     * Make Send.req.
+     */
+    private int makeSendReqPdu() {
+        if (mMessage == null) {
+            mMessage = new MessageBuffer();
+            mPosition = 0;
+        }
+
+        // X-Mms-Message-Type
+        appendOctet(PduHeaders.MESSAGE_TYPE);
+        appendOctet(PduHeaders.MESSAGE_TYPE_SEND_REQ);
+
+        // X-Mms-Transaction-ID
+        appendOctet(PduHeaders.TRANSACTION_ID);
+
+        byte[] trid = mPduHeader.getTextString(PduHeaders.TRANSACTION_ID);
+        if (trid == null) {
+            // Transaction-ID should be set(by Transaction) before make().
+            throw new IllegalArgumentException("Transaction-ID is null.");
+        }
+        appendTextString(trid);
+
+        //  X-Mms-MMS-Version
+        if (appendHeader(PduHeaders.MMS_VERSION) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        // Date Date-value Optional.
+        appendHeader(PduHeaders.DATE);
+
+        // From
+        if (appendHeader(PduHeaders.FROM) != PDU_COMPOSE_SUCCESS) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        boolean recipient = false;
+
+        // To
+        if (appendHeader(PduHeaders.TO) != PDU_COMPOSE_CONTENT_ERROR) {
+            recipient = true;
+        }
+
+        // Cc
+        if (appendHeader(PduHeaders.CC) != PDU_COMPOSE_CONTENT_ERROR) {
+            recipient = true;
+        }
+
+        // Bcc
+        if (appendHeader(PduHeaders.BCC) != PDU_COMPOSE_CONTENT_ERROR) {
+            recipient = true;
+        }
+
+        // Need at least one of "cc", "bcc" and "to".
+        if (false == recipient) {
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        // Subject Optional
+        appendHeader(PduHeaders.SUBJECT);
+
+        // X-Mms-Message-Class Optional
+        // Message-class-value = Class-identifier | Token-text
+        appendHeader(PduHeaders.MESSAGE_CLASS);
+
+        // X-Mms-Expiry Optional
+        appendHeader(PduHeaders.EXPIRY);
+
+        // X-Mms-Priority Optional
+        appendHeader(PduHeaders.PRIORITY);
+
+        // X-Mms-Delivery-Report Optional
+        appendHeader(PduHeaders.DELIVERY_REPORT);
+
+        // X-Mms-Read-Report Optional
+        appendHeader(PduHeaders.READ_REPORT);
+
+        //    Content-Type
+        appendOctet(PduHeaders.CONTENT_TYPE);
+
+        //  Message body
+        return makeMessageBody();
+    }
+
+    /**
+     * Make message body.
+     */
+    private int makeMessageBody() {
+        // 1. add body informations
+        mStack.newbuf();  // Switching buffer because we need to
+
+        PositionMarker ctStart = mStack.mark();
+
+        // This contentTypeIdentifier should be used for type of attachment...
+        String contentType = new String(mPduHeader.getTextString(PduHeaders.CONTENT_TYPE));
+        Integer contentTypeIdentifier = mContentTypeMap.get(contentType);
+        if (contentTypeIdentifier == null) {
+            // content type is mandatory
+            return PDU_COMPOSE_CONTENT_ERROR;
+        }
+
+        appendShortInteger(contentTypeIdentifier.intValue());
+
+        // content-type parameter: start
+        PduBody body = ((SendReq) mPdu).getBody();
+        if (null == body || body.getPartsNum() == 0) {
+            // empty message
+            appendUintvarInteger(0);
+            mStack.pop();
+            mStack.copy();
+            return PDU_COMPOSE_SUCCESS;
+        }
+
+        PduPart part;
+        try {
+            part = body.getPart(0);
+
+            byte[] start = part.getContentId();
+            if (start != null) {
+                appendOctet(PduPart.P_DEP_START);
+                if (('<' == start[0]) && ('>' == start[start.length - 1])) {
+                    appendTextString(start);
+                } else {
+                    appendTextString("<" + new String(start) + ">");
+                }
+            }
+
+            // content-type parameter: type
+            appendOctet(PduPart.P_CT_MR_TYPE);
+            appendTextString(part.getContentType());
+        }
+        catch (ArrayIndexOutOfBoundsException e){
+            e.printStackTrace();
+        }
+
+        int ctLength = ctStart.getLength();
+        mStack.pop();
+        appendValueLength(ctLength);
+        mStack.copy();
+
+        // 3. add content
+        int partNum = body.getPartsNum();
+        appendUintvarInteger(partNum);
+        for (int i = 0; i < partNum; i++) {
+            part = body.getPart(i);
+            mStack.newbuf();  // Leaving space for header lengh and data length
+            PositionMarker attachment = mStack.mark();
+
+            mStack.newbuf();  // Leaving space for Content-Type length
+            PositionMarker contentTypeBegin = mStack.mark();
+
+            byte[] partContentType = part.getContentType();
+
+            if (partContentType == null) {
+                // content type is mandatory
+                return PDU_COMPOSE_CONTENT_ERROR;
+            }
+
+            // content-type value
+            Integer partContentTypeIdentifier =
+                mContentTypeMap.get(new String(partContentType));
+            if (partContentTypeIdentifier == null) {
+                appendTextString(partContentType);
+            } else {
+                appendShortInteger(partContentTypeIdentifier.intValue());
+            }
+
+            /* Content-type parameter : name.
+             * The value of name, filename, content-location is the same.
+             * Just one of them is enough for this PDU.
+             */
+            byte[] name = part.getName();
+
+            if (null == name) {
+                name = part.getFilename();
+
+                if (null == name) {
+                    name = part.getContentLocation();
+
+                    if (null == name) {
+                        /* at lease one of name, filename, Content-location
+                         * should be available.
+                         */
+                        return PDU_COMPOSE_CONTENT_ERROR;
+                    }
+                }
+            }
+            appendOctet(PduPart.P_DEP_NAME);
+            appendTextString(name);
+
+            // content-type parameter : charset
+            int charset = part.getCharset();
+            if (charset != 0) {
+                appendOctet(PduPart.P_CHARSET);
+                appendShortInteger(charset);
+            }
+
+            int contentTypeLength = contentTypeBegin.getLength();
+            mStack.pop();
+            appendValueLength(contentTypeLength);
+            mStack.copy();
+
+            // content id
+            byte[] contentId = part.getContentId();
+
+            if (null != contentId) {
+                appendOctet(PduPart.P_CONTENT_ID);
+                if (('<' == contentId[0]) && ('>' == contentId[contentId.length - 1])) {
+                    appendQuotedString(contentId);
+                } else {
+                    appendQuotedString("<" + new String(contentId) + ">");
+                }
+            }
+
+            // content-location
+            byte[] contentLocation = part.getContentLocation();
+            if (null != contentLocation) {
+            	appendOctet(PduPart.P_CONTENT_LOCATION);
+            	appendTextString(contentLocation);
+            }
+
+            // content
+            int headerLength = attachment.getLength();
+
+            ByteBuffer partData = part.getDataBuffer();
+            int dataLength = -1;
+            if (partData != null) {
+                dataLength = partData.remaining();
+            } else if (part.getDataSource() != null) {
+                // Read the data only when writing out, if its length is known.
+                long length = part.getDataSource().getLength();
+                if (length <= Integer.MAX_VALUE) {
+                    dataLength = (int) length;
+                }
+            }
+            if (dataLength < 0) {
+                partData = readDataSource(part);
+                if (partData == null) {
+                    return PDU_COMPOSE_CONTENT_ERROR;
+                }
+                dataLength = partData.remaining();
+            }
+
+            mStack.pop();
+            appendUintvarInteger(headerLength);
+            appendUintvarInteger(dataLength);
+            mStack.copy();
+
+            if (partData != null) {
+                appendData(partData);
+            } else {
+                appendData(part.getDataSource(), dataLength);
+            }
+        }
+
+        return PDU_COMPOSE_SUCCESS;
+    }
+
+    /**
+     * Read the data of a part which is stored in a data source.
+     *
+     * @return the data, null if it can not be read
+     */
+    private ByteBuffer readDataSource(PduPart part) {
+        PartDataSource source = part.getDataSource();
+        if (source == null) {
+            return null;
+        }
+
+        InputStream cr = null;
+        try {
+            byte[] buffer = new byte[PDU_COMPOSER_BLOCK_SIZE];
+            cr = source.openStream();
+            MessageBuffer data = new MessageBuffer(
+                    Math.max(cr.available(), PDU_COMPOSER_BLOCK_SIZE));
+            int len = 0;
+            while ((len = cr.read(buffer)) != -1) {
+                data.write(buffer, 0, len);
+            }
+            // The data is referenced, not copied out of the buffer.
+            return ByteBuffer.wrap(data.array(), 0, data.size());
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            if (cr != null) {
+                try {
+                    cr.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     *  Part data and its position in mMessage. The data is either held
+     *  in data or stored in source.
+     */
+    static private class DataSegment {
+        int offset;
+        int length;
+        ByteBuffer data;
+        PartDataSource source;
+    }
+
+    /**
+     *  A ByteArrayOutputStream whose content can be read without copying.
+     */
+    static private class MessageBuffer extends ByteArrayOutputStream {
+        MessageBuffer() {
+        }
+
+        MessageBuffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     *  Record current message informations.
+     */
+    static private class LengthRecordNode {
+        ByteArrayOutputStream currentMessage = null;
+        public int currentPosition = 0;
+
+        public LengthRecordNode next = null;
+    }
+
+    /**
+     * Mark current message position and stact size.
+     */
+    private class PositionMarker {
+        private int c_pos;   // Current position
+        private int currentStackSize;  // Current stack size
+
+        int getLength() {
+            // If these assert fails, likely that you are finding the
+            // size of buffer that is deep in BufferStack you can only
+            // find the length of the buffer that is on top
+            if (currentStackSize != mStack.stackSize) {
+                throw new RuntimeException("BUG: Invalid call to getLength()");
+            }
+
+            return mPosition - c_pos;
+        }
+    }
+
+    /**
+     * Buffers for the length-prefixed values, whose length must be known
+     * before they are written. Only headers go through these buffers; part
+     * data is appended to the message itself once its length is written.
+     * Buffers are reused once copied, so composing allocates only as many
+     * buffers as values are nested.
+     */
+    private class BufferStack {
+        private LengthRecordNode stack = null;
+        private LengthRecordNode toCopy = null;
+        private ArrayList<ByteArrayOutputStream> spare =
+                new ArrayList<ByteArrayOutputStream>();
+        private LengthRecordNode spareNode = null;
+
+        int stackSize = 0;
+
+        /**
+         *  Create a new message buffer and push it into the stack.
+         */
+        void newbuf() {
+            // You can't create a new buff when toCopy != null
+            // That is after calling pop() and before calling copy()
+            // If you do, it is a bug
+            if (toCopy != null) {
+                throw new RuntimeException("BUG: Invalid newbuf() before copy()");
+            }
+
+            LengthRecordNode temp = spareNode;
+            if (temp != null) {
+                spareNode = temp.next;
+            } else {
+                temp = new LengthRecordNode();
+            }
+
+            temp.currentMessage = mMessage;
+            temp.currentPosition = mPosition;
+
+            temp.next = stack;
+            stack = temp;
+
+            stackSize = stackSize + 1;
+
+            int spareCount = spare.size();
+            mMessage = (spareCount > 0)
+                    ? spare.remove(spareCount - 1) : new MessageBuffer();
+            mPosition = 0;
+        }
+
+        /**
+         *  Pop the message before and record current message in the stack.
+         */
+        void pop() {
+            ByteArrayOutputStream currentMessage = mMessage;
+            int currentPosition = mPosition;
+
+            mMessage = stack.currentMessage;
+            mPosition = stack.currentPosition;
+
+            toCopy = stack;
+            // Re using the top element of the stack to avoid memory allocation
+
+            stack = stack.next;
+            stackSize = stackSize - 1;
+
+            toCopy.currentMessage = currentMessage;
+            toCopy.currentPosition = currentPosition;
+        }
+
+        /**
+         *  Append current message to the message before.
+         */
+        void copy() {
+            try {
+                toCopy.currentMessage.writeTo(mMessage);
+            } catch (IOException e) {
+                // Not thrown by ByteArrayOutputStream.
+                throw new RuntimeException(e);
+            }
+            mPosition = mPosition + toCopy.currentPosition;
+
+            toCopy.currentMessage.reset();
+            spare.add(toCopy.currentMessage);
+            toCopy.currentMessage = null;
+            toCopy.next = spareNode;
+            spareNode = toCopy;
+            toCopy = null;
+        }
+
+        /**
+         *  Mark current message position
+         */
+        PositionMarker mark() {
+            PositionMarker m = new PositionMarker();
+
+            m.c_pos = mPosition;
+            m.currentStackSize = stackSize;
+
+            return m;
+        }
+    }
+
+    /**
+     * Check address type.
+     *
+     * @param address address string without the postfix stinng type,
+     *        such as "/TYPE=PLMN", "/TYPE=IPv6" and "/TYPE=IPv4"
+     * @return PDU_PHONE_NUMBER_ADDRESS_TYPE if it is phone number,
+     *         PDU_EMAIL_ADDRESS_TYPE if it is email address,
+     *         PDU_IPV4_ADDRESS_TYPE if it is ipv4 address,
+     *         PDU_IPV6_ADDRESS_TYPE if it is ipv6 address,
+     *         PDU_UNKNOWN_ADDRESS_TYPE if it is unknown.
+     */
+    protected static int checkAddressType(String address) {
+        /**
+         * From OMA-TS-MMS-ENC-V1_3-20050927-C.pdf, section 8.
+         * address = ( e-mail / device-address / alphanum-shortcode / num-shortcode)
+         * e-mail = mailbox; to the definition of mailbox as described in
+         * section 3.4 of [RFC2822], but excluding the
+         * obsolete definitions as indicated by the "obs-" prefix.
+         * device-address = ( global-phone-number "/TYPE=PLMN" )
+         * / ( ipv4 "/TYPE=IPv4" ) / ( ipv6 "/TYPE=IPv6" )
+         * / ( escaped-value "/TYPE=" address-type )
+         *
+         * global-phone-number = ["+"] 1*( DIGIT / written-sep )
+         * written-sep =("-"/".")
+         *
+         * ipv4 = 1*3DIGIT 3( "." 1*3DIGIT ) ; IPv4 address value
+         *
+         * ipv6 = 4HEXDIG 7( ":" 4HEXDIG ) ; IPv6 address per RFC 2373
+         */
+
+        if (null == address) {
+            return PDU_UNKNOWN_ADDRESS_TYPE;
+        }
+
+        // Group messages often repeat their recipients.
+        int hash = address.hashCode();
+        int index = (hash ^ (hash >>> 16)) & (ADDRESS_TYPE_CACHE_SIZE - 1);
+        AddressType cached = sAddressTypeCache[index];
+        if ((null != cached) && cached.address.equals(address)) {
+            return cached.type;
+        }
+
+        int type;
+        if (isIpv4Address(address)) {
+            // Ipv4 address.
+            type = PDU_IPV4_ADDRESS_TYPE;
+        } else if (isPhoneNumberAddress(address)) {
+            // Phone number.
+            type = PDU_PHONE_NUMBER_ADDRESS_TYPE;
+        } else if (isEmailAddress(address)) {
+            // Email address.
+            type = PDU_EMAIL_ADDRESS_TYPE;
+        } else if (isIpv6Address(address)) {
+            // Ipv6 address.
+            type = PDU_IPV6_ADDRESS_TYPE;
+        } else {
+            // Unknown address.
+            type = PDU_UNKNOWN_ADDRESS_TYPE;
+        }
+        sAddressTypeCache[index] = new AddressType(address, type);
+        return type;
+    }
+
+    /**
+     * An address and its type, as kept in sAddressTypeCache. Immutable, so
+     * that the cache can be shared by threads without locking.
+     */
+    static private final class AddressType {
+        final String address;
+        final int type;
+
+        AddressType(String address, int type) {
+            this.address = address;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Match REGEXP_IPV4_ADDRESS_TYPE: 1*3DIGIT 3( "." 1*3DIGIT )
+     */
+    static private boolean isIpv4Address(String address) {
+        int length = address.length();
+        int i = 0;
+        for (int group = 0; group < 4; group++) {
+            if (group > 0) {
+                if ((i >= length) || ('.' != address.charAt(i))) {
+                    return false;
+                }
+                i++;
+            }
+            int start = i;
+            while ((i < length) && (i - start < 3) && isDigit(address.charAt(i))) {
+                i++;
+            }
+            if (i == start) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    /**
+     * Match REGEXP_PHONE_NUMBER_ADDRESS_TYPE: ["+"] 1*( DIGIT / "." / "-" / "|" )
+     */
+    static private boolean isPhoneNumberAddress(String address) {
+        int length = address.length();
+        int i = ((length > 0) && ('+' == address.charAt(0))) ? 1 : 0;
+        if (i == length) {
+            return false;
+        }
+        for (; i < length; i++) {
+            char c = address.charAt(i);
+            if (!isDigit(c) && ('.' != c) && ('-' != c) && ('|' != c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Match REGEXP_EMAIL_ADDRESS_TYPE: *N ["<"] 1*N "@" 1*N "." 1*N [">"],
+     * where N is a letter, "|" or a space.
+     */
+    static private boolean isEmailAddress(String address) {
+        int length = address.length();
+        int at = address.indexOf('@');
+        if (at <= 0) {
+            return false;
+        }
+
+        int lessThan = -1;
+        for (int i = 0; i < at; i++) {
+            char c = address.charAt(i);
+            if ('<' == c) {
+                if (lessThan >= 0) {
+                    return false;
+                }
+                lessThan = i;
+            } else if (!isEmailNameCharacter(c)) {
+                return false;
+            }
+        }
+        if (lessThan == at - 1) {
+            return false;
+        }
+
+        int end = length;
+        if ((end > at + 1) && ('>' == address.charAt(end - 1))) {
+            end--;
+        }
+        int dot = -1;
+        for (int i = at + 1; i < end; i++) {
+            char c = address.charAt(i);
+            if ('.' == c) {
+                if (dot >= 0) {
+                    return false;
+                }
+                dot = i;
+            } else if (!isEmailNameCharacter(c)) {
+                return false;
+            }
+        }
+        return (dot > at + 1) && (dot < end - 1);
+    }
+
+    /**
+     * Match REGEXP_IPV6_ADDRESS_TYPE: 4HEXALPHA 7( ":" 4HEXDIG )
+     */
+    static private boolean isIpv6Address(String address) {
+        if (39 != address.length()) {
+            return false;
+        }
+        for (int i = 0; i < 39; i++) {
+            char c = address.charAt(i);
+            if (4 == i % 5) {
+                if (':' != c) {
+                    return false;
+                }
+            } else if (!isHexLetter(c) && ((i < 4) || !isDigit(c))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static private boolean isDigit(char c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    static private boolean isHexLetter(char c) {
+        return ((c >= 'a') && (c <= 'f')) || ((c >= 'A') && (c <= 'F'));
+    }
+
+    static private boolean isEmailNameCharacter(char c) {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'))
+                || ('|' == c) || (' ' == c);
+    }
+}
@@ -20,7 +20,6 @@ package com.google.android.mms.pdu;
 import com.google.android.mms.InvalidHeaderValueException;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 public class PduHeaders {
     /**
@@ -320,15 +319,89 @@ public class PduHeaders {
     public static final int STORE_STATUS_ERROR_END                              = 0xFF;
 
     /**
-     * The map contains the value of all headers.
+     * The header fields are the dense range BCC to CANCEL_STATUS, so the
+     * values are kept in arrays indexed by field - FIRST_FIELD.
      */
-    private HashMap<Integer, Object> mHeaderMap = null;
+    private static final int FIRST_FIELD = BCC;
+    private static final int FIELD_COUNT = CANCEL_STATUS - FIRST_FIELD + 1;
+
+    /**
+     * One bit per field, set if the octet or long integer value of the
+     * field is set.
+     */
+    private long mPresent = 0;
+
+    /**
+     * The Octet and LongInteger values, unboxed.
+     */
+    private final long[] mValues = new long[FIELD_COUNT];
+
+    /**
+     * The TextString, EncodedStringValue and EncodedStringValue list values.
+     */
+    private final Object[] mObjects = new Object[FIELD_COUNT];
 
     /**
      * Constructor of PduHeaders.
      */
     public PduHeaders() {
-        mHeaderMap = new HashMap<Integer, Object>();
+    }
+
+    /**
+     * @return the index of the field in the value arrays, -1 if the field
+     *         is not a header field.
+     */
+    private static int indexOf(int field) {
+        int index = field - FIRST_FIELD;
+        return ((index >= 0) && (index < FIELD_COUNT)) ? index : -1;
+    }
+
+    private boolean isPresent(int index) {
+        return (index >= 0) && ((mPresent & (1L << index)) != 0);
+    }
+
+    private void putValue(int field, long value) {
+        int index = indexOf(field);
+        mValues[index] = value;
+        mPresent |= 1L << index;
+    }
+
+    /**
+     * @return an estimate of the heap used by the headers, in bytes
+     */
+    public long estimateSize() {
+        // The object and its value arrays.
+        long size = 64 + FIELD_COUNT * 12;
+        for (Object value : mObjects) {
+            if (null != value) {
+                size += estimateSize(value);
+            }
+        }
+        return size;
+    }
+
+    private static long estimateSize(Object value) {
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        } else if (value instanceof EncodedStringValue) {
+            return ((EncodedStringValue) value).estimateSize();
+        } else if (value instanceof ArrayList) {
+            long size = 40;
+            for (Object element : (ArrayList<?>) value) {
+                size += 4 + estimateSize(element);
+            }
+            return size;
+        }
+        return 16;
+    }
+
+    private Object getObject(int field) {
+        int index = indexOf(field);
+        return (index >= 0) ? mObjects[index] : null;
+    }
+
+    private void putObject(int field, Object value) {
+        mObjects[indexOf(field)] = value;
     }
 
     /**
@@ -340,12 +413,12 @@ public class PduHeaders {
      *          the value is not set.
      */
     protected int getOctet(int field) {
-        Integer octet = (Integer) mHeaderMap.get(field);
-        if (null == octet) {
+        int index = indexOf(field);
+        if (!isPresent(index)) {
             return 0;
         }
 
-        return octet;
+        return (int) mValues[index];
     }
 
     /**
@@ -489,7 +562,7 @@ public class PduHeaders {
                 // This header value should not be Octect.
                 throw new RuntimeException("Invalid header field!");
         }
-        mHeaderMap.put(field, value);
+        putValue(field, value);
     }
 
     /**
@@ -500,7 +573,7 @@ public class PduHeaders {
      *          with specified header field
      */
     protected byte[] getTextString(int field) {
-        return (byte[]) mHeaderMap.get(field);
+        return (byte[]) getObject(field);
     }
 
     /**
@@ -538,7 +611,7 @@ public class PduHeaders {
                 // This header value should not be Text-String.
                 throw new RuntimeException("Invalid header field!");
         }
-        mHeaderMap.put(field, value);
+        putObject(field, value);
     }
 
     /**
@@ -549,7 +622,7 @@ public class PduHeaders {
      *          with specified header field
      */
     protected EncodedStringValue getEncodedStringValue(int field) {
-        return (EncodedStringValue) mHeaderMap.get(field);
+        return (EncodedStringValue) getObject(field);
     }
 
     /**
@@ -561,7 +634,7 @@ public class PduHeaders {
      */
     protected EncodedStringValue[] getEncodedStringValues(int field) {
         ArrayList<EncodedStringValue> list =
-                (ArrayList<EncodedStringValue>) mHeaderMap.get(field);
+                (ArrayList<EncodedStringValue>) getObject(field);
         if (null == list) {
             return null;
         }
@@ -603,7 +676,7 @@ public class PduHeaders {
                 throw new RuntimeException("Invalid header field!");
         }
 
-        mHeaderMap.put(field, value);
+        putObject(field, value);
     }
 
     /**
@@ -638,7 +711,7 @@ public class PduHeaders {
         for (int i = 0; i < value.length; i++) {
             list.add(value[i]);
         }
-        mHeaderMap.put(field, list);
+        putObject(field, list);
     }
 
     /**
@@ -664,12 +737,12 @@ public class PduHeaders {
         }
 
         ArrayList<EncodedStringValue> list =
-            (ArrayList<EncodedStringValue>) mHeaderMap.get(field);
+            (ArrayList<EncodedStringValue>) getObject(field);
         if (null == list) {
             list  = new ArrayList<EncodedStringValue>();
         }
         list.add(value);
-        mHeaderMap.put(field, list);
+        putObject(field, list);
     }
 
     /**
@@ -681,12 +754,12 @@ public class PduHeaders {
      *          field is not existed in pdu header.
      */
     protected long getLongInteger(int field) {
-        Long longInteger = (Long) mHeaderMap.get(field);
-        if (null == longInteger) {
+        int index = indexOf(field);
+        if (!isPresent(index)) {
             return -1;
         }
 
-        return longInteger.longValue();
+        return mValues[index];
     }
 
     /**
@@ -716,6 +789,6 @@ public class PduHeaders {
                 // This header value should not be LongInteger.
                 throw new RuntimeException("Invalid header field!");
         }
-        mHeaderMap.put(field, value);
+        putValue(field, value);
     }
 }
@@ -17,16 +17,24 @@
 
 package com.google.android.mms.pdu;
 
-import android.util.Log;
-
 import com.google.android.mms.ContentType;
 import com.google.android.mms.InvalidHeaderValueException;
+import com.google.android.mms.util.MmsLog;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 public class PduParser {
     /**
@@ -71,12 +79,12 @@ public class PduParser {
     /**
      * Store the "type" parameter in "Content-Type" header field.
      */
-    private static byte[] mTypeParam = null;
+    private byte[] mTypeParam = null;
 
     /**
      * Store the "start" parameter in "Content-Type" header field.
      */
-    private static byte[] mStartParam = null;
+    private byte[] mStartParam = null;
 
     /**
      * The log tag.
@@ -90,6 +98,51 @@ public class PduParser {
      */
     private final boolean mParseContentDisposition;
 
+    /**
+     * Whether to defer parsing the parts until the body is first requested
+     */
+    private boolean mLazyBody = false;
+
+    /**
+     * Executor to decode the parts on, null to decode them on the calling thread
+     */
+    private Executor mDecodeExecutor = null;
+
+    /**
+     * Part data longer than this is spilled to a temporary file in
+     * mSpillDirectory instead of being held on the heap.
+     */
+    private int mSpillThreshold = Integer.MAX_VALUE;
+    private File mSpillDirectory = null;
+
+    /**
+     * Size of the buffer to copy part data to a temporary file with.
+     */
+    private static final int SPILL_BUFFER_SIZE = 8192;
+
+    /**
+     * Content-Type parameters, cleared and reused for each Content-Type.
+     */
+    private final HashMap<Integer, Object> mParamMap = new HashMap<Integer, Object>();
+
+    /**
+     * Parsers kept for reuse by each thread, see {@link #getThreadParser}.
+     */
+    private static final ThreadLocal<PduParser> sThreadParser =
+            new ThreadLocal<PduParser>() {
+                @Override
+                protected PduParser initialValue() {
+                    return new PduParser(false);
+                }
+            };
+    private static final ThreadLocal<PduParser> sThreadDispositionParser =
+            new ThreadLocal<PduParser>() {
+                @Override
+                protected PduParser initialValue() {
+                    return new PduParser(true);
+                }
+            };
+
     /**
      * Constructor.
      *
@@ -97,10 +150,154 @@ public class PduParser {
      * @param parseContentDisposition whether to parse the Content-Disposition part header
      */
     public PduParser(byte[] pduDataStream, boolean parseContentDisposition) {
-        mPduDataStream = new ByteArrayInputStream(pduDataStream);
+        mPduDataStream = new PduDataStream(pduDataStream);
+        mParseContentDisposition = parseContentDisposition;
+    }
+
+    /**
+     * Constructor for a parser without pdu data yet, to be given to
+     * {@link #reset(byte[])} or {@link #reset(ByteBuffer)} before each
+     * parse. A parser reused this way keeps its pdu data stream and
+     * scratch buffers from one pdu to the next.
+     *
+     * @param parseContentDisposition whether to parse the Content-Disposition part header
+     */
+    public PduParser(boolean parseContentDisposition) {
+        mPduDataStream = null;
+        mParseContentDisposition = parseContentDisposition;
+    }
+
+    /**
+     * Constructor for a pdu held in a ByteBuffer, e.g. a MappedByteBuffer of
+     * a pdu file. The pdu is read from the buffer's position to its limit.
+     * Binary part data is not copied: each part references a slice of the
+     * buffer (see {@link PduPart#getDataBuffer}), so the buffer content must
+     * not change while the parsed pdu is in use.
+     *
+     * @param pduData pdu data to be parsed
+     * @param parseContentDisposition whether to parse the Content-Disposition part header
+     */
+    public PduParser(ByteBuffer pduData, boolean parseContentDisposition) {
+        this(new ByteBufferInputStream(pduData), parseContentDisposition);
+    }
+
+    /**
+     * Constructor for an already wrapped pdu data stream.
+     *
+     * @param pduDataStream pdu data to be parsed
+     * @param parseContentDisposition whether to parse the Content-Disposition part header
+     */
+    PduParser(ByteArrayInputStream pduDataStream, boolean parseContentDisposition) {
+        mPduDataStream = pduDataStream;
         mParseContentDisposition = parseContentDisposition;
     }
 
+    /**
+     * Get the parser kept for reuse by the current thread. It must be
+     * reset with the pdu data before each parse, and not be used after
+     * anything else on the thread may have called this method again.
+     *
+     * @param parseContentDisposition whether to parse the Content-Disposition part header
+     * @return the parser of the current thread
+     */
+    public static PduParser getThreadParser(boolean parseContentDisposition) {
+        return parseContentDisposition
+                ? sThreadDispositionParser.get() : sThreadParser.get();
+    }
+
+    /**
+     * Start over with another pdu. The pdus parsed before are not
+     * affected, including a lazily decoded body which has not been
+     * requested yet.
+     *
+     * @param pduData pdu data to be parsed
+     * @return this parser
+     */
+    public PduParser reset(byte[] pduData) {
+        clearState();
+        if (mPduDataStream instanceof PduDataStream) {
+            ((PduDataStream) mPduDataStream).setData(pduData);
+        } else {
+            mPduDataStream = new PduDataStream(pduData);
+        }
+        return this;
+    }
+
+    /**
+     * Start over with another pdu held in a ByteBuffer, as with
+     * {@link #PduParser(ByteBuffer, boolean)}. The pdus parsed before are
+     * not affected.
+     *
+     * @param pduData pdu data to be parsed
+     * @return this parser
+     */
+    public PduParser reset(ByteBuffer pduData) {
+        clearState();
+        mPduDataStream = new ByteBufferInputStream(pduData);
+        return this;
+    }
+
+    private void clearState() {
+        mHeaders = null;
+        mBody = null;
+        mTypeParam = null;
+        mStartParam = null;
+    }
+
+    /**
+     * Set whether parse() decodes the body of SendReq and RetrieveConf pdus
+     * only when {@link MultimediaMessagePdu#getBody} is first called. The
+     * headers are always parsed eagerly. A lazily decoded body keeps the
+     * pdu data referenced until it is decoded, and getBody() returns null
+     * if the parts turn out to be malformed.
+     *
+     * @param lazyBody true to defer parsing the parts
+     */
+    public void setLazyBody(boolean lazyBody) {
+        mLazyBody = lazyBody;
+    }
+
+    /**
+     * Set an executor to decode the parts on. The parts are still read
+     * in order on the calling thread, but the Content-Transfer-Encoding
+     * of a part and the parsing of a nested "multipart/alternative" are
+     * handed to the executor as soon as the part is read, and the calling
+     * thread waits for all of them before returning the body. The body is
+     * the same as with sequential decoding. Parts needing no decoding are
+     * not handed over, and a pdu with less than two such parts is decoded
+     * on the calling thread. So is a part the executor has not started
+     * decoding by the time the calling thread needs it, so a busy executor
+     * only delays the decoding it has already started.
+     *
+     * @param executor the executor, null to decode on the calling thread
+     */
+    public void setDecodeExecutor(Executor executor) {
+        mDecodeExecutor = executor;
+    }
+
+    /**
+     * Set the size above which part data is not held on the heap. The
+     * data of a bigger part is written to a temporary file in the given
+     * directory and the part references a read-only memory-mapped view of
+     * it (see {@link PduPart#getDataBuffer}). The file itself is deleted
+     * right away. The parts of a pdu held in a ByteBuffer already reference
+     * the buffer, so only those with a Content-Transfer-Encoding to decode
+     * are spilled then. The data stays on the heap if the file can not be
+     * written.
+     *
+     * @param threshold the largest part data held on the heap, in bytes,
+     *        Integer.MAX_VALUE to never spill
+     * @param directory the directory for the temporary files, null for the
+     *        default temporary directory
+     */
+    public void setSpillThreshold(int threshold, File directory) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("Negative spill threshold: " + threshold);
+        }
+        mSpillThreshold = threshold;
+        mSpillDirectory = directory;
+    }
+
     /**
      * Parse the pdu.
      *
@@ -128,49 +325,65 @@ public class PduParser {
             return null;
         }
 
+        MultimediaMessagePdu.BodyLoader bodyLoader = null;
         if ((PduHeaders.MESSAGE_TYPE_SEND_REQ == messageType) ||
                 (PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF == messageType)) {
-            /* need to parse the parts */
-            mBody = parseParts(mPduDataStream);
-            if (null == mBody) {
-                // Parse parts failed.
-                return null;
+            if (mLazyBody) {
+                /* parse the parts when the body is requested, by a parser
+                 * of its own as this one may be reset in the meantime */
+                PduParser bodyParser = newChildParser(mPduDataStream);
+                bodyParser.mDecodeExecutor = mDecodeExecutor;
+                bodyLoader = bodyParser.new LazyBodyLoader();
+                mPduDataStream = null;
+            } else {
+                /* need to parse the parts */
+                mBody = parseParts(mPduDataStream);
+                if (null == mBody) {
+                    // Parse parts failed.
+                    return null;
+                }
             }
         }
 
         switch (messageType) {
             case PduHeaders.MESSAGE_TYPE_SEND_REQ:
                 if (LOCAL_LOGV) {
-                    Log.v(LOG_TAG, "parse: MESSAGE_TYPE_SEND_REQ");
+                    MmsLog.v(LOG_TAG, "parse: MESSAGE_TYPE_SEND_REQ");
                 }
                 SendReq sendReq = new SendReq(mHeaders, mBody);
+                if (null != bodyLoader) {
+                    sendReq.setBodyLoader(bodyLoader);
+                }
                 return sendReq;
             case PduHeaders.MESSAGE_TYPE_SEND_CONF:
                 if (LOCAL_LOGV) {
-                    Log.v(LOG_TAG, "parse: MESSAGE_TYPE_SEND_CONF");
+                    MmsLog.v(LOG_TAG, "parse: MESSAGE_TYPE_SEND_CONF");
                 }
                 SendConf sendConf = new SendConf(mHeaders);
                 return sendConf;
             case PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND:
                 if (LOCAL_LOGV) {
-                    Log.v(LOG_TAG, "parse: MESSAGE_TYPE_NOTIFICATION_IND");
+                    MmsLog.v(LOG_TAG, "parse: MESSAGE_TYPE_NOTIFICATION_IND");
                 }
                 NotificationInd notificationInd =
                     new NotificationInd(mHeaders);
                 return notificationInd;
             case PduHeaders.MESSAGE_TYPE_NOTIFYRESP_IND:
                 if (LOCAL_LOGV) {
-                    Log.v(LOG_TAG, "parse: MESSAGE_TYPE_NOTIFYRESP_IND");
+                    MmsLog.v(LOG_TAG, "parse: MESSAGE_TYPE_NOTIFYRESP_IND");
                 }
                 NotifyRespInd notifyRespInd =
                     new NotifyRespInd(mHeaders);
                 return notifyRespInd;
             case PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF:
                 if (LOCAL_LOGV) {
-                    Log.v(LOG_TAG, "parse: MESSAGE_TYPE_RETRIEVE_CONF");
+                    MmsLog.v(LOG_TAG, "parse: MESSAGE_TYPE_RETRIEVE_CONF");
                 }
                 RetrieveConf retrieveConf =
                     new RetrieveConf(mHeaders, mBody);
+                if (null != bodyLoader) {
+                    retrieveConf.setBodyLoader(bodyLoader);
+                }
 
                 byte[] contentType = retrieveConf.getContentType();
                 if (null == contentType) {
@@ -195,28 +408,28 @@ public class PduParser {
                 return null;
             case PduHeaders.MESSAGE_TYPE_DELIVERY_IND:
                 if (LOCAL_LOGV) {
-                    Log.v(LOG_TAG, "parse: MESSAGE_TYPE_DELIVERY_IND");
+                    MmsLog.v(LOG_TAG, "parse: MESSAGE_TYPE_DELIVERY_IND");
                 }
                 DeliveryInd deliveryInd =
                     new DeliveryInd(mHeaders);
                 return deliveryInd;
             case PduHeaders.MESSAGE_TYPE_ACKNOWLEDGE_IND:
                 if (LOCAL_LOGV) {
-                    Log.v(LOG_TAG, "parse: MESSAGE_TYPE_ACKNOWLEDGE_IND");
+                    MmsLog.v(LOG_TAG, "parse: MESSAGE_TYPE_ACKNOWLEDGE_IND");
                 }
                 AcknowledgeInd acknowledgeInd =
                     new AcknowledgeInd(mHeaders);
                 return acknowledgeInd;
             case PduHeaders.MESSAGE_TYPE_READ_ORIG_IND:
                 if (LOCAL_LOGV) {
-                    Log.v(LOG_TAG, "parse: MESSAGE_TYPE_READ_ORIG_IND");
+                    MmsLog.v(LOG_TAG, "parse: MESSAGE_TYPE_READ_ORIG_IND");
                 }
                 ReadOrigInd readOrigInd =
                     new ReadOrigInd(mHeaders);
                 return readOrigInd;
             case PduHeaders.MESSAGE_TYPE_READ_REC_IND:
                 if (LOCAL_LOGV) {
-                    Log.v(LOG_TAG, "parse: MESSAGE_TYPE_READ_REC_IND");
+                    MmsLog.v(LOG_TAG, "parse: MESSAGE_TYPE_READ_REC_IND");
                 }
                 ReadRecInd readRecInd =
                     new ReadRecInd(mHeaders);
@@ -248,7 +461,7 @@ public class PduParser {
                 pduDataStream.reset();
                 byte [] bVal = parseWapString(pduDataStream, TYPE_TEXT_STRING);
                 if (LOCAL_LOGV) {
-                    Log.v(LOG_TAG, "TextHeader: " + new String(bVal));
+                    MmsLog.v(LOG_TAG, "TextHeader: " + new String(bVal));
                 }
                 /* we should ignore it at the moment */
                 continue;
@@ -258,7 +471,7 @@ public class PduParser {
                 {
                     int messageType = extractByteValue(pduDataStream);
                     if (LOCAL_LOGV) {
-                        Log.v(LOG_TAG, "parseHeaders: messageType: " + messageType);
+                        MmsLog.v(LOG_TAG, "parseHeaders: messageType: " + messageType);
                     }
                     switch (messageType) {
                         // We don't support these kind of messages now.
@@ -322,7 +535,7 @@ public class PduParser {
                 {
                     int value = extractByteValue(pduDataStream);
                     if (LOCAL_LOGV) {
-                        Log.v(LOG_TAG, "parseHeaders: byte: " + headerField + " value: " +
+                        MmsLog.v(LOG_TAG, "parseHeaders: byte: " + headerField + " value: " +
                                 value);
                     }
 
@@ -347,7 +560,7 @@ public class PduParser {
                     try {
                         long value = parseLongInteger(pduDataStream);
                         if (LOCAL_LOGV) {
-                            Log.v(LOG_TAG, "parseHeaders: longint: " + headerField + " value: " +
+                            MmsLog.v(LOG_TAG, "parseHeaders: longint: " + headerField + " value: " +
                                     value);
                         }
                         headers.setLongInteger(value, headerField);
@@ -366,7 +579,7 @@ public class PduParser {
                     try {
                         long value = parseIntegerValue(pduDataStream);
                         if (LOCAL_LOGV) {
-                            Log.v(LOG_TAG, "parseHeaders: int: " + headerField + " value: " +
+                            MmsLog.v(LOG_TAG, "parseHeaders: int: " + headerField + " value: " +
                                     value);
                         }
                         headers.setLongInteger(value, headerField);
@@ -402,7 +615,7 @@ public class PduParser {
                     if (null != value) {
                         try {
                             if (LOCAL_LOGV) {
-                                Log.v(LOG_TAG, "parseHeaders: string: " + headerField + " value: " +
+                                MmsLog.v(LOG_TAG, "parseHeaders: string: " + headerField + " value: " +
                                         new String(value));
                             }
                             headers.setTextString(value, headerField);
@@ -431,7 +644,7 @@ public class PduParser {
                     if (null != value) {
                         try {
                             if (LOCAL_LOGV) {
-                                Log.v(LOG_TAG, "parseHeaders: encoded string: " + headerField
+                                MmsLog.v(LOG_TAG, "parseHeaders: encoded string: " + headerField
                                         + " value: " + value.getString());
                             }
                             headers.setEncodedStringValue(value, headerField);
@@ -457,7 +670,7 @@ public class PduParser {
                         if (null != address) {
                             String str = new String(address);
                             if (LOCAL_LOGV) {
-                                Log.v(LOG_TAG, "parseHeaders: (to/cc/bcc) address: " + headerField
+                                MmsLog.v(LOG_TAG, "parseHeaders: (to/cc/bcc) address: " + headerField
                                         + " value: " + str);
                             }
                             int endIndex = str.indexOf("/");
@@ -512,7 +725,7 @@ public class PduParser {
 
                     try {
                         if (LOCAL_LOGV) {
-                            Log.v(LOG_TAG, "parseHeaders: time value: " + headerField
+                            MmsLog.v(LOG_TAG, "parseHeaders: time value: " + headerField
                                     + " value: " + timeValue);
                         }
                         headers.setLongInteger(timeValue, headerField);
@@ -566,7 +779,7 @@ public class PduParser {
 
                     try {
                         if (LOCAL_LOGV) {
-                            Log.v(LOG_TAG, "parseHeaders: from address: " + headerField
+                            MmsLog.v(LOG_TAG, "parseHeaders: from address: " + headerField
                                     + " value: " + from.getString());
                         }
                         headers.setEncodedStringValue(from, PduHeaders.FROM);
@@ -584,7 +797,7 @@ public class PduParser {
                     pduDataStream.mark(1);
                     int messageClass = extractByteValue(pduDataStream);
                     if (LOCAL_LOGV) {
-                        Log.v(LOG_TAG, "parseHeaders: MESSAGE_CLASS: " + headerField
+                        MmsLog.v(LOG_TAG, "parseHeaders: MESSAGE_CLASS: " + headerField
                                 + " value: " + messageClass);
                     }
 
@@ -637,7 +850,7 @@ public class PduParser {
 
                     try {
                         if (LOCAL_LOGV) {
-                            Log.v(LOG_TAG, "parseHeaders: MMS_VERSION: " + headerField
+                            MmsLog.v(LOG_TAG, "parseHeaders: MMS_VERSION: " + headerField
                                     + " value: " + version);
                         }
                         headers.setOctet(version, PduHeaders.MMS_VERSION);
@@ -672,7 +885,7 @@ public class PduParser {
                     if (null != previouslySentBy) {
                         try {
                             if (LOCAL_LOGV) {
-                                Log.v(LOG_TAG, "parseHeaders: PREVIOUSLY_SENT_BY: " + headerField
+                                MmsLog.v(LOG_TAG, "parseHeaders: PREVIOUSLY_SENT_BY: " + headerField
                                         + " value: " + previouslySentBy.getString());
                             }
                             headers.setEncodedStringValue(previouslySentBy,
@@ -705,7 +918,7 @@ public class PduParser {
                     try {
                         long perviouslySentDate = parseLongInteger(pduDataStream);
                         if (LOCAL_LOGV) {
-                            Log.v(LOG_TAG, "parseHeaders: PREVIOUSLY_SENT_DATE: " + headerField
+                            MmsLog.v(LOG_TAG, "parseHeaders: PREVIOUSLY_SENT_DATE: " + headerField
                                     + " value: " + perviouslySentDate);
                         }
                         headers.setLongInteger(perviouslySentDate,
@@ -724,7 +937,7 @@ public class PduParser {
                      * Encoded-string-value
                      */
                     if (LOCAL_LOGV) {
-                        Log.v(LOG_TAG, "parseHeaders: MM_FLAGS: " + headerField
+                        MmsLog.v(LOG_TAG, "parseHeaders: MM_FLAGS: " + headerField
                                 + " NOT REALLY SUPPORTED");
                     }
 
@@ -748,7 +961,7 @@ public class PduParser {
                 case PduHeaders.MBOX_QUOTAS:
                 {
                     if (LOCAL_LOGV) {
-                        Log.v(LOG_TAG, "parseHeaders: MBOX_TOTALS: " + headerField);
+                        MmsLog.v(LOG_TAG, "parseHeaders: MBOX_TOTALS: " + headerField);
                     }
                     /* Value-length */
                     parseValueLength(pduDataStream);
@@ -771,7 +984,7 @@ public class PduParser {
 
                 case PduHeaders.ELEMENT_DESCRIPTOR: {
                     if (LOCAL_LOGV) {
-                        Log.v(LOG_TAG, "parseHeaders: ELEMENT_DESCRIPTOR: " + headerField);
+                        MmsLog.v(LOG_TAG, "parseHeaders: ELEMENT_DESCRIPTOR: " + headerField);
                     }
                     parseContentType(pduDataStream, null);
 
@@ -781,15 +994,15 @@ public class PduParser {
                 }
 
                 case PduHeaders.CONTENT_TYPE: {
-                    HashMap<Integer, Object> map =
-                        new HashMap<Integer, Object>();
+                    HashMap<Integer, Object> map = mParamMap;
+                    map.clear();
                     byte[] contentType =
                         parseContentType(pduDataStream, map);
 
                     if (null != contentType) {
                         try {
                             if (LOCAL_LOGV) {
-                                Log.v(LOG_TAG, "parseHeaders: CONTENT_TYPE: " + headerField +
+                                MmsLog.v(LOG_TAG, "parseHeaders: CONTENT_TYPE: " + headerField +
                                         contentType.toString());
                             }
                             headers.setTextString(contentType, PduHeaders.CONTENT_TYPE);
@@ -816,7 +1029,7 @@ public class PduParser {
                 case PduHeaders.ATTRIBUTES:
                 default: {
                     if (LOCAL_LOGV) {
-                        Log.v(LOG_TAG, "parseHeaders: Unknown header: " + headerField);
+                        MmsLog.v(LOG_TAG, "parseHeaders: Unknown header: " + headerField);
                     }
                     log("Unknown header");
                 }
@@ -838,107 +1051,450 @@ public class PduParser {
         }
 
         int count = parseUnsignedInt(pduDataStream); // get the number of parts
+        if (null != mDecodeExecutor) {
+            return parsePartsConcurrently(pduDataStream, count);
+        }
+
         PduBody body = new PduBody();
 
         for (int i = 0 ; i < count ; i++) {
             int headerLength = parseUnsignedInt(pduDataStream);
             int dataLength = parseUnsignedInt(pduDataStream);
-            PduPart part = new PduPart();
-            int startPos = pduDataStream.available();
-            if (startPos <= 0) {
-                // Invalid part.
+            PduPart part = parsePartHeader(pduDataStream, headerLength);
+            if (null == part) {
                 return null;
             }
 
-            /* parse part's content-type */
-            HashMap<Integer, Object> map = new HashMap<Integer, Object>();
-            byte[] contentType = parseContentType(pduDataStream, map);
-            if (null != contentType) {
-                part.setContentType(contentType);
+            /* get part's data */
+            if (dataLength > 0) {
+                part = decodePartData(part, readPartData(pduDataStream, dataLength), this);
+                if (null == part) {
+                    return null;
+                }
+            }
+
+            /* add this part to body */
+            if (THE_FIRST_PART == checkPartPosition(part)) {
+                /* this is the first part */
+                body.addPart(0, part);
             } else {
-                part.setContentType((PduContentTypes.contentTypes[0]).getBytes()); //"*/*"
+                /* add the part to the end */
+                body.addPart(part);
             }
+        }
 
-            /* get name parameter */
-            byte[] name = (byte[]) map.get(PduPart.P_NAME);
-            if (null != name) {
-                part.setName(name);
+        return body;
+    }
+
+    /**
+     * Parse pdu parts, decoding them on mDecodeExecutor.
+     *
+     * @param pduDataStream pdu data input stream, after the number of parts
+     * @param count the number of parts
+     * @return parts in PduBody structure
+     */
+    private PduBody parsePartsConcurrently(ByteArrayInputStream pduDataStream, int count) {
+        ArrayList<PduPart> parts = new ArrayList<PduPart>();
+        ArrayList<FutureTask<PduPart>> tasks = new ArrayList<FutureTask<PduPart>>();
+        int decodeCount = 0;
+        FutureTask<PduPart> firstTask = null;
+
+        try {
+            for (int i = 0 ; i < count ; i++) {
+                int headerLength = parseUnsignedInt(pduDataStream);
+                int dataLength = parseUnsignedInt(pduDataStream);
+                PduPart part = parsePartHeader(pduDataStream, headerLength);
+                if (null == part) {
+                    return null;
+                }
+
+                FutureTask<PduPart> task = null;
+                if (dataLength > 0) {
+                    Object data = readPartData(pduDataStream, dataLength);
+                    if (needsDecoding(part)) {
+                        // The nested parts go to a parser of their own, as
+                        // this one keeps reading the pdu meanwhile.
+                        task = new FutureTask<PduPart>(
+                                new PartDecoder(part, data, newChildParser(null)));
+                        decodeCount++;
+                        if (1 == decodeCount) {
+                            // Only worth going concurrent once there is another.
+                            firstTask = task;
+                        } else {
+                            if (2 == decodeCount) {
+                                execute(firstTask);
+                            }
+                            execute(task);
+                        }
+                    } else {
+                        part = decodePartData(part, data, this);
+                        if (null == part) {
+                            return null;
+                        }
+                    }
+                }
+                parts.add(part);
+                tasks.add(task);
             }
 
-            /* get charset parameter */
-            Integer charset = (Integer) map.get(PduPart.P_CHARSET);
-            if (null != charset) {
-                part.setCharset(charset);
+            PduBody body = new PduBody();
+            for (int i = 0; i < count; i++) {
+                PduPart part = parts.get(i);
+                FutureTask<PduPart> task = tasks.get(i);
+                if (null != task) {
+                    part = getDecodedPart(task);
+                    if (null == part) {
+                        return null;
+                    }
+                }
+
+                /* add this part to body */
+                if (THE_FIRST_PART == checkPartPosition(part)) {
+                    /* this is the first part */
+                    body.addPart(0, part);
+                } else {
+                    /* add the part to the end */
+                    body.addPart(part);
+                }
             }
+            tasks.clear();
 
-            /* parse part's headers */
-            int endPos = pduDataStream.available();
-            int partHeaderLen = headerLength - (startPos - endPos);
-            if (partHeaderLen > 0) {
-                if (false == parsePartHeaders(pduDataStream, part, partHeaderLen)) {
-                    // Parse part header faild.
-                    return null;
+            return body;
+        } finally {
+            // Don't leave any task running when returning early.
+            for (FutureTask<PduPart> task : tasks) {
+                if (null != task) {
+                    task.cancel(false);
                 }
-            } else if (partHeaderLen < 0) {
-                // Invalid length of content-type.
-                return null;
             }
+        }
+    }
 
-            /* FIXME: check content-id, name, filename and content location,
-             * if not set anyone of them, generate a default content-location
-             */
-            if ((null == part.getContentLocation())
-                    && (null == part.getName())
-                    && (null == part.getFilename())
-                    && (null == part.getContentId())) {
-                part.setContentLocation(Long.toOctalString(
-                        System.currentTimeMillis()).getBytes());
+    private void execute(FutureTask<PduPart> task) {
+        try {
+            mDecodeExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Saturated, decode on this thread.
+            task.run();
+        }
+    }
+
+    /**
+     * Wait for a part to be decoded, decoding it on this thread if the
+     * executor has not started it yet.
+     */
+    private static PduPart getDecodedPart(FutureTask<PduPart> task) {
+        // Does nothing if the task is running or done already.
+        task.run();
+
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    // Finish the pdu, but keep the interrupt for the caller.
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
+        }
+    }
 
-            /* get part's data */
-            if (dataLength > 0) {
-                byte[] partData = new byte[dataLength];
-                String partContentType = new String(part.getContentType());
-                pduDataStream.read(partData, 0, dataLength);
-                if (partContentType.equalsIgnoreCase(ContentType.MULTIPART_ALTERNATIVE)) {
-                    // parse "multipart/vnd.wap.multipart.alternative".
-                    PduBody childBody = parseParts(new ByteArrayInputStream(partData));
-                    // take the first part of children.
-                    part = childBody.getPart(0);
-                } else {
-                    // Check Content-Transfer-Encoding.
-                    byte[] partDataEncoding = part.getContentTransferEncoding();
-                    if (null != partDataEncoding) {
-                        String encoding = new String(partDataEncoding);
-                        if (encoding.equalsIgnoreCase(PduPart.P_BASE64)) {
-                            // Decode "base64" into "binary".
-                            partData = Base64.decodeBase64(partData);
-                        } else if (encoding.equalsIgnoreCase(PduPart.P_QUOTED_PRINTABLE)) {
-                            // Decode "quoted-printable" into "binary".
-                            partData = QuotedPrintable.decodeQuotedPrintable(partData);
-                        } else {
-                            // "binary" is the default encoding.
-                        }
-                    }
-                    if (null == partData) {
+    /**
+     * Decodes a part on the executor.
+     */
+    private static class PartDecoder implements Callable<PduPart> {
+        private final PduPart mPart;
+        private final Object mData;
+        private final PduParser mParser;
+
+        PartDecoder(PduPart part, Object data, PduParser parser) {
+            mPart = part;
+            mData = data;
+            mParser = parser;
+        }
+
+        public PduPart call() {
+            return decodePartData(mPart, mData, mParser);
+        }
+    }
+
+    /**
+     * Create a parser for nested parts or a lazily parsed body, which
+     * shares the Content-Type parameters of this parser.
+     */
+    private PduParser newChildParser(ByteArrayInputStream pduDataStream) {
+        PduParser parser = new PduParser(pduDataStream, mParseContentDisposition);
+        parser.mTypeParam = mTypeParam;
+        parser.mStartParam = mStartParam;
+        parser.mSpillThreshold = mSpillThreshold;
+        parser.mSpillDirectory = mSpillDirectory;
+        return parser;
+    }
+
+    /**
+     * Check whether the data of a part needs more than to be stored.
+     */
+    private static boolean needsDecoding(PduPart part) {
+        if (new String(part.getContentType()).equalsIgnoreCase(
+                ContentType.MULTIPART_ALTERNATIVE)) {
+            return true;
+        }
+        byte[] partDataEncoding = part.getContentTransferEncoding();
+        if (null != partDataEncoding) {
+            String encoding = new String(partDataEncoding);
+            return encoding.equalsIgnoreCase(PduPart.P_BASE64)
+                    || encoding.equalsIgnoreCase(PduPart.P_QUOTED_PRINTABLE);
+        }
+        return false;
+    }
+
+    /**
+     * Read the data of a part.
+     *
+     * @return a ByteBuffer view of the data if the stream is a
+     *         ByteBufferInputStream or the data is spilled, a copy of the
+     *         data in a byte array otherwise
+     */
+    private Object readPartData(ByteArrayInputStream pduDataStream, int dataLength) {
+        if (pduDataStream instanceof ByteBufferInputStream) {
+            // Take a view of the data instead of copying it.
+            return ((ByteBufferInputStream) pduDataStream).slice(dataLength);
+        }
+        if (dataLength > mSpillThreshold) {
+            pduDataStream.mark(dataLength);
+            try {
+                return spill(pduDataStream, dataLength);
+            } catch (IOException e) {
+                log("Can't spill part data: " + e);
+                pduDataStream.reset();
+            }
+        }
+        byte[] partData = new byte[dataLength];
+        pduDataStream.read(partData, 0, dataLength);
+        return partData;
+    }
+
+    /**
+     * Store the data in the part, parsing a "multipart/alternative" part
+     * and removing the Content-Transfer-Encoding.
+     *
+     * @param part the part
+     * @param data the data, from readPartData
+     * @param parser the parser for the nested parts
+     * @return the part, the first nested part of a "multipart/alternative"
+     *         part, or null when the data can not be decoded
+     */
+    private static PduPart decodePartData(PduPart part, Object data, PduParser parser) {
+        byte[] partData = null;
+        ByteBuffer partBuffer = null;
+        if (data instanceof ByteBuffer) {
+            partBuffer = (ByteBuffer) data;
+        } else {
+            partData = (byte[]) data;
+        }
+        String partContentType = new String(part.getContentType());
+        if (partContentType.equalsIgnoreCase(ContentType.MULTIPART_ALTERNATIVE)) {
+            // parse "multipart/vnd.wap.multipart.alternative".
+            PduBody childBody = parser.parseParts((null != partBuffer)
+                    ? new ByteBufferInputStream(partBuffer)
+                    : new ByteArrayInputStream(partData));
+            // take the first part of children.
+            return childBody.getPart(0);
+        }
+
+        // Check Content-Transfer-Encoding.
+        byte[] partDataEncoding = part.getContentTransferEncoding();
+        if (null != partDataEncoding) {
+            String encoding = new String(partDataEncoding);
+            boolean isBase64 = encoding.equalsIgnoreCase(PduPart.P_BASE64);
+            boolean isQuotedPrintable =
+                    encoding.equalsIgnoreCase(PduPart.P_QUOTED_PRINTABLE);
+            int encodedLength = (null != partBuffer) ? partBuffer.remaining() : partData.length;
+            if ((isBase64 || isQuotedPrintable) && (encodedLength > parser.mSpillThreshold)) {
+                // Decode into a temporary file rather than on the heap.
+                TransferCodecInputStream decodingStream = new TransferCodecInputStream(
+                        (null != partBuffer) ? new ByteBufferInputStream(partBuffer)
+                                : new ByteArrayInputStream(partData),
+                        isBase64 ? new Base64.Decoder() : new QuotedPrintable.Decoder());
+                try {
+                    partBuffer = parser.spill(decodingStream, -1);
+                    partData = null;
+                    isBase64 = false;
+                    isQuotedPrintable = false;
+                } catch (IOException e) {
+                    if (decodingStream.isMalformed()) {
                         log("Decode part data error!");
                         return null;
                     }
-                    part.setData(partData);
+                    log("Can't spill part data: " + e);
                 }
             }
-
-            /* add this part to body */
-            if (THE_FIRST_PART == checkPartPosition(part)) {
-                /* this is the first part */
-                body.addPart(0, part);
+            if (isBase64 || isQuotedPrintable) {
+                if (null != partBuffer) {
+                    // The buffer may be shared, decode a copy.
+                    partData = new byte[partBuffer.remaining()];
+                    partBuffer.get(partData);
+                    partBuffer = null;
+                }
+                // Decode into "binary" in place, no other copy is made.
+                int length = isBase64
+                        ? Base64.decode(partData, 0, partData.length, partData, 0)
+                        : QuotedPrintable.decode(
+                                partData, 0, partData.length, partData, 0);
+                if (length < 0) {
+                    partData = null;
+                } else {
+                    partBuffer = ByteBuffer.wrap(partData, 0, length);
+                }
             } else {
-                /* add the part to the end */
-                body.addPart(part);
+                // "binary" is the default encoding.
             }
         }
+        if (null != partBuffer) {
+            part.setDataBuffer(partBuffer);
+        } else if (null == partData) {
+            log("Decode part data error!");
+            return null;
+        } else {
+            part.setData(partData);
+        }
+        return part;
+    }
 
-        return body;
+    /**
+     * Copy data to a SpillingOutputStream.
+     *
+     * @param in the stream to copy from
+     * @param length the number of bytes to copy, -1 to copy to the end
+     *        of the stream
+     * @return a view of the data, memory-mapped if it was spilled
+     * @throws IOException if reading or spilling the data fails
+     */
+    private ByteBuffer spill(InputStream in, int length) throws IOException {
+        SpillingOutputStream out = new SpillingOutputStream(mSpillThreshold, mSpillDirectory);
+        try {
+            byte[] buffer = new byte[SPILL_BUFFER_SIZE];
+            while (0 != length) {
+                int len = in.read(buffer, 0,
+                        (length < 0) ? buffer.length : Math.min(length, buffer.length));
+                if (len < 0) {
+                    break;
+                }
+                out.write(buffer, 0, len);
+                if (length > 0) {
+                    length -= len;
+                }
+            }
+            return out.toByteBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Parse the headers of a part: its content-type and the part headers
+     * that follow it.
+     *
+     * @param pduDataStream pdu data input stream
+     * @param headerLength length of the content-type and headers of the part
+     * @return the part without data, null when parse fail
+     */
+    protected PduPart parsePartHeader(ByteArrayInputStream pduDataStream, int headerLength) {
+        PduPart part = new PduPart();
+        int startPos = pduDataStream.available();
+        if (startPos <= 0) {
+            // Invalid part.
+            return null;
+        }
+
+        /* parse part's content-type */
+        HashMap<Integer, Object> map = mParamMap;
+        map.clear();
+        byte[] contentType = parseContentType(pduDataStream, map);
+        if (null != contentType) {
+            part.setContentType(contentType);
+        } else {
+            part.setContentType((PduContentTypes.contentTypes[0]).getBytes()); //"*/*"
+        }
+
+        /* get name parameter */
+        byte[] name = (byte[]) map.get(PduPart.P_NAME);
+        if (null != name) {
+            part.setName(name);
+        }
+
+        /* get charset parameter */
+        Integer charset = (Integer) map.get(PduPart.P_CHARSET);
+        if (null != charset) {
+            part.setCharset(charset);
+        }
+
+        /* parse part's headers */
+        int endPos = pduDataStream.available();
+        int partHeaderLen = headerLength - (startPos - endPos);
+        if (partHeaderLen > 0) {
+            if (false == parsePartHeaders(pduDataStream, part, partHeaderLen)) {
+                // Parse part header faild.
+                return null;
+            }
+        } else if (partHeaderLen < 0) {
+            // Invalid length of content-type.
+            return null;
+        }
+
+        /* FIXME: check content-id, name, filename and content location,
+         * if not set anyone of them, generate a default content-location
+         */
+        if ((null == part.getContentLocation())
+                && (null == part.getName())
+                && (null == part.getFilename())
+                && (null == part.getContentId())) {
+            part.setContentLocation(Long.toOctalString(
+                    System.currentTimeMillis()).getBytes());
+        }
+
+        return part;
+    }
+
+    /**
+     * Parses the parts left in the pdu data stream once the body is
+     * requested.
+     */
+    private class LazyBodyLoader implements MultimediaMessagePdu.BodyLoader {
+        public PduBody loadBody() {
+            mBody = parseParts(mPduDataStream);
+            return mBody;
+        }
+    }
+
+    /**
+     * The stream of a byte array pdu, which can be pointed at the next pdu
+     * when the parser is reset.
+     */
+    private static class PduDataStream extends ByteArrayInputStream {
+        PduDataStream(byte[] data) {
+            super(data);
+        }
+
+        void setData(byte[] data) {
+            buf = data;
+            pos = 0;
+            mark = 0;
+            count = data.length;
+        }
     }
 
     /**
@@ -948,7 +1504,7 @@ public class PduParser {
      */
     private static void log(String text) {
         if (LOCAL_LOGV) {
-            Log.v(LOG_TAG, text);
+            MmsLog.v(LOG_TAG, text);
         }
     }
 
@@ -1191,30 +1747,42 @@ public class PduParser {
     protected static byte[] getWapString(ByteArrayInputStream pduDataStream,
             int stringType) {
         assert(null != pduDataStream);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Count the characters kept first, so the string is copied once
+        // into an array of the right size.
+        pduDataStream.mark(1);
+        int size = 0;
         int temp = pduDataStream.read();
         assert(-1 != temp);
         while((-1 != temp) && ('\0' != temp)) {
             // check each of the character
-            if (stringType == TYPE_TOKEN_STRING) {
-                if (isTokenCharacter(temp)) {
-                    out.write(temp);
-                }
-            } else {
-                if (isText(temp)) {
-                    out.write(temp);
-                }
+            if (isWapStringCharacter(temp, stringType)) {
+                size++;
             }
 
             temp = pduDataStream.read();
             assert(-1 != temp);
         }
 
-        if (out.size() > 0) {
-            return out.toByteArray();
+        if (size == 0) {
+            return null;
         }
 
-        return null;
+        pduDataStream.reset();
+        byte[] out = new byte[size];
+        int count = 0;
+        temp = pduDataStream.read();
+        while((-1 != temp) && ('\0' != temp)) {
+            if (isWapStringCharacter(temp, stringType)) {
+                out[count++] = (byte) temp;
+            }
+            temp = pduDataStream.read();
+        }
+
+        return out;
+    }
+
+    private static boolean isWapStringCharacter(int ch, int stringType) {
+        return (stringType == TYPE_TOKEN_STRING) ? isTokenCharacter(ch) : isText(ch);
     }
 
     /**
@@ -1462,7 +2030,7 @@ public class PduParser {
                             map.put(PduPart.P_CHARSET, charsetInt);
                         } catch (UnsupportedEncodingException e) {
                             // Not a well-known charset, use "*".
-                            Log.e(LOG_TAG, Arrays.toString(charsetStr), e);
+                            MmsLog.e(LOG_TAG, Arrays.toString(charsetStr), e);
                             map.put(PduPart.P_CHARSET, CharacterSets.ANY_CHARSET);
                         }
                     } else {
@@ -1497,10 +2065,10 @@ public class PduParser {
                     break;
                 default:
                     if (LOCAL_LOGV) {
-                        Log.v(LOG_TAG, "Not supported Content-Type parameter");
+                        MmsLog.v(LOG_TAG, "Not supported Content-Type parameter");
                     }
                 if (-1 == skipWapValue(pduDataStream, lastLen)) {
-                    Log.e(LOG_TAG, "Corrupt Content-Type");
+                    MmsLog.e(LOG_TAG, "Corrupt Content-Type");
                 } else {
                     lastLen = 0;
                 }
@@ -1509,7 +2077,7 @@ public class PduParser {
         }
 
         if (0 != lastLen) {
-            Log.e(LOG_TAG, "Corrupt Content-Type");
+            MmsLog.e(LOG_TAG, "Corrupt Content-Type");
         }
     }
 
@@ -1559,7 +2127,7 @@ public class PduParser {
                     contentType = parseWapString(pduDataStream, TYPE_TEXT_STRING);
                 }
             } else {
-                Log.e(LOG_TAG, "Corrupt content-type");
+                MmsLog.e(LOG_TAG, "Corrupt content-type");
                 return (PduContentTypes.contentTypes[0]).getBytes(); //"*/*"
             }
 
@@ -1570,7 +2138,7 @@ public class PduParser {
             }
 
             if (parameterLen < 0) {
-                Log.e(LOG_TAG, "Corrupt MMS message");
+                MmsLog.e(LOG_TAG, "Corrupt MMS message");
                 return (PduContentTypes.contentTypes[0]).getBytes(); //"*/*"
             }
         } else if (cur <= TEXT_MAX) {
@@ -1617,6 +2185,7 @@ public class PduParser {
         int tempPos = 0;
         int lastLen = length;
         while(0 < lastLen) {
+            pduDataStream.mark(1);
             int header = pduDataStream.read();
             assert(-1 != header);
             lastLen--;
@@ -1709,17 +2278,19 @@ public class PduParser {
                         break;
                     default:
                         if (LOCAL_LOGV) {
-                            Log.v(LOG_TAG, "Not supported Part headers: " + header);
+                            MmsLog.v(LOG_TAG, "Not supported Part headers: " + header);
                         }
                     if (-1 == skipWapValue(pduDataStream, lastLen)) {
-                        Log.e(LOG_TAG, "Corrupt Part headers");
+                        MmsLog.e(LOG_TAG, "Corrupt Part headers");
                         return false;
                     }
                     lastLen = 0;
                     break;
                 }
             } else if ((header >= TEXT_MIN) && (header <= TEXT_MAX)) {
-                // Not assigned header.
+                // Not assigned header. The octet read is the first
+                // character of its name.
+                pduDataStream.reset();
                 byte[] tempHeader = parseWapString(pduDataStream, TYPE_TEXT_STRING);
                 byte[] tempValue = parseWapString(pduDataStream, TYPE_TEXT_STRING);
 
@@ -1733,11 +2304,11 @@ public class PduParser {
                 lastLen = length - (startPos - tempPos);
             } else {
                 if (LOCAL_LOGV) {
-                    Log.v(LOG_TAG, "Not supported Part headers: " + header);
+                    MmsLog.v(LOG_TAG, "Not supported Part headers: " + header);
                 }
                 // Skip all headers of this part.
                 if (-1 == skipWapValue(pduDataStream, lastLen)) {
-                    Log.e(LOG_TAG, "Corrupt Part headers");
+                    MmsLog.e(LOG_TAG, "Corrupt Part headers");
                     return false;
                 }
                 lastLen = 0;
@@ -1745,7 +2316,7 @@ public class PduParser {
         }
 
         if (0 != lastLen) {
-            Log.e(LOG_TAG, "Corrupt Part headers");
+            MmsLog.e(LOG_TAG, "Corrupt Part headers");
             return false;
         }
 
@@ -1759,7 +2330,7 @@ public class PduParser {
      * @return part position, THE_FIRST_PART when it's the
      * first one, THE_LAST_PART when it's the last one.
      */
-    private static int checkPartPosition(PduPart part) {
+    private int checkPartPosition(PduPart part) {
         assert(null != part);
         if ((null == mTypeParam) &&
                 (null == mStartParam)) {
@@ -1792,6 +2363,17 @@ public class PduParser {
         return THE_LAST_PART;
     }
 
+    /**
+     * Check whether a part is the root part named by the "start" or "type"
+     * parameter of the pdu's Content-Type.
+     *
+     * @param part the part to be checked
+     * @return true if the part should be the first part of the body
+     */
+    boolean isFirstPart(PduPart part) {
+        return THE_FIRST_PART == checkPartPosition(part);
+    }
+
     /**
      * Check mandatory headers of a pdu.
      *
@@ -17,8 +17,7 @@
 
 package com.google.android.mms.pdu;
 
-import android.net.Uri;
-
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -110,15 +109,20 @@ public class PduPart {
      private Map<Integer, Object> mPartHeader = null;
 
      /**
-      * Data uri.
+      * Where the data is stored, if not in the part.
       */
-     private Uri mUri = null;
+     private PartDataSource mDataSource = null;
 
      /**
       * Part data.
       */
      private byte[] mPartData = null;
 
+     /**
+      * Part data held as a view of the buffer it was parsed from.
+      */
+     private ByteBuffer mPartDataBuffer = null;
+
      private static final String TAG = "PduPart";
 
      /**
@@ -140,14 +144,55 @@ public class PduPart {
 
          mPartData = new byte[data.length];
          System.arraycopy(data, 0, mPartData, 0, data.length);
+         mPartDataBuffer = null;
+     }
+
+     /**
+      * Set part data as a view of a ByteBuffer. The bytes between the
+      * buffer's position and limit are the data; they are not copied, so
+      * the buffer content must not change while this part is in use.
+      *
+      * @param data the data
+      */
+     public void setDataBuffer(ByteBuffer data) {
+         if(data == null) {
+            return;
+         }
+
+         mPartDataBuffer = data.slice().asReadOnlyBuffer();
+         mPartData = null;
+     }
+
+     /**
+      * @return A read-only view of the part data or null if the data wasn't
+      *         set or the data is stored elsewhere. No copy of the data is made.
+      * @see #getData
+      */
+     public ByteBuffer getDataBuffer() {
+         if(mPartDataBuffer != null) {
+             return mPartDataBuffer.duplicate();
+         }
+         if(mPartData != null) {
+             return ByteBuffer.wrap(mPartData).asReadOnlyBuffer();
+         }
+         return null;
      }
 
      /**
       * @return A copy of the part data or null if the data wasn't set or
-      *         the data is stored as Uri.
-      * @see #getDataUri
+      *         the data is stored elsewhere. The copy is made on the heap
+      *         even for data spilled to a file by the parser, see
+      *         {@link PduParser#setSpillThreshold}: getDataBuffer reads
+      *         large parts without it.
+      * @see #getDataSource
       */
      public byte[] getData() {
+         if(mPartDataBuffer != null) {
+             byte[] byteArray = new byte[mPartDataBuffer.remaining()];
+             mPartDataBuffer.duplicate().get(byteArray);
+             return byteArray;
+         }
+
          if(mPartData == null) {
             return null;
          }
@@ -161,7 +206,9 @@ public class PduPart {
      * @return The length of the data, if this object have data, else 0.
      */
      public int getDataLength() {
-         if(mPartData != null){
+         if(mPartDataBuffer != null){
+             return mPartDataBuffer.remaining();
+         } else if(mPartData != null){
              return mPartData.length;
          } else {
              return 0;
@@ -170,21 +217,46 @@ public class PduPart {
 
 
      /**
-      * Set data uri. The data are stored as Uri.
+      * @return An estimate of the heap used by this part, in bytes. Data
+      *         stored elsewhere or in a direct or memory-mapped buffer is
+      *         not counted.
+      */
+     public long estimateSize() {
+         // The part, its header map and the header values.
+         long size = 80;
+         for (Object value : mPartHeader.values()) {
+             size += 32;
+             if (value instanceof byte[]) {
+                 size += 16 + ((byte[]) value).length;
+             } else {
+                 size += 16;
+             }
+         }
+         if (mPartData != null) {
+             size += 16 + mPartData.length;
+         } else if ((mPartDataBuffer != null) && !mPartDataBuffer.isDirect()) {
+             size += 48 + mPartDataBuffer.remaining();
+         }
+         return size;
+     }
+
+     /**
+      * Set data source. The data are stored elsewhere, such as in a file
+      * or a content provider.
       *
-      * @param uri the uri
+      * @param dataSource the data source
       */
-     public void setDataUri(Uri uri) {
-         mUri = uri;
+     public void setDataSource(PartDataSource dataSource) {
+         mDataSource = dataSource;
      }
 
      /**
-      * @return The Uri of the part data or null if the data wasn't set or
-      *         the data is stored as byte array.
+      * @return The source of the part data or null if the data wasn't set
+      *         or the data is stored as byte array.
       * @see #getData
       */
-     public Uri getDataUri() {
-         return mUri;
+     public PartDataSource getDataSource() {
+         return mDataSource;
      }
 
      /**
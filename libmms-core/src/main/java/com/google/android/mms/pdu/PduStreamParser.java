@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import com.google.android.mms.ContentType;
+import com.google.android.mms.util.MmsLog;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Event driven pdu parser. Unlike {@link PduParser#parse}, which builds the
+ * whole pdu in memory, this parser reads the pdu from an InputStream and
+ * reports the headers and then each part to a {@link PduHandler} as soon as
+ * they are read. Part data is handed out as a stream, so attachments can be
+ * routed straight to storage, and the handler can stop after the headers.
+ */
+public class PduStreamParser {
+    /**
+     * The log tag.
+     */
+    private static final String LOG_TAG = "PduStreamParser";
+    private static final boolean DEBUG = false;
+    private static final boolean LOCAL_LOGV = false;
+
+    /**
+     * Results of parsing the parts.
+     */
+    private static final int PARTS_DONE = 0;
+    private static final int PARTS_STOPPED = 1;
+    private static final int PARTS_ERROR = 2;
+
+    /**
+     * Receives the parsing events.
+     */
+    public interface PduHandler {
+        /**
+         * Called when the pdu headers have been parsed.
+         *
+         * @param pdu the pdu without its body. Use getMessageType() and cast
+         *        to the dedicated pdu class to read the headers.
+         * @return true to go on with the parts, false to stop parsing
+         */
+        boolean onHeaders(GenericPdu pdu);
+
+        /**
+         * Called for each part of the body, in the order the parts are sent.
+         * The data stream is only valid during this call; whatever is left
+         * unread is skipped afterwards.
+         *
+         * @param part the part headers; the part holds no data
+         * @param isFirst true if the part is the root part named by the
+         *        "start" or "type" Content-Type parameter, which
+         *        {@link PduParser#parse} moves to the front of the body
+         * @param data the part data, with any Content-Transfer-Encoding removed
+         *        as it is read. If the encoded data is malformed, reading
+         *        fails with an IOException and parse() returns false.
+         * @return true to go on with the next part, false to stop parsing
+         * @throws IOException if the handler fails to consume the data
+         */
+        boolean onPart(PduPart part, boolean isFirst, InputStream data) throws IOException;
+
+        /**
+         * Called when the whole pdu has been parsed successfully.
+         */
+        void onEnd();
+    }
+
+    /**
+     * The pdu data.
+     */
+    private final StreamingInputStream mPduDataStream;
+
+    /**
+     * The parser used for headers, as it keeps the Content-Type parameters.
+     */
+    private final PduParser mParser;
+
+    /**
+     * Constructor.
+     *
+     * @param pduDataStream the stream to read the pdu from
+     * @param parseContentDisposition whether to parse the Content-Disposition part header
+     */
+    public PduStreamParser(InputStream pduDataStream, boolean parseContentDisposition) {
+        mPduDataStream = new StreamingInputStream(pduDataStream);
+        mParser = new PduParser(mPduDataStream, parseContentDisposition);
+    }
+
+    /**
+     * Parse the pdu, reporting it to the handler.
+     *
+     * @param handler the handler receiving the headers and parts
+     * @return false if the pdu is malformed or its mandatory fields are
+     *         not set, true otherwise, also when the handler stopped parsing
+     * @throws IOException if reading the pdu or handling a part fails
+     */
+    public boolean parse(PduHandler handler) throws IOException {
+        PduHeaders headers = mParser.parseHeaders(mPduDataStream);
+        throwIfFailed();
+        if (null == headers) {
+            return false;
+        }
+
+        if (false == PduParser.checkMandatoryHeader(headers)) {
+            log("check mandatory headers failed!");
+            return false;
+        }
+
+        GenericPdu pdu = createPdu(headers);
+        if (null == pdu) {
+            log("Parser doesn't support this message type in this version!");
+            return false;
+        }
+        if (!handler.onHeaders(pdu)) {
+            return true;
+        }
+
+        int messageType = headers.getOctet(PduHeaders.MESSAGE_TYPE);
+        if ((PduHeaders.MESSAGE_TYPE_SEND_REQ == messageType) ||
+                (PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF == messageType)) {
+            int result = parseParts(mPduDataStream, handler, false);
+            throwIfFailed();
+            if (PARTS_ERROR == result) {
+                return false;
+            } else if (PARTS_STOPPED == result) {
+                return true;
+            }
+        }
+
+        handler.onEnd();
+        return true;
+    }
+
+    /**
+     * Parse the parts and report them to the handler.
+     *
+     * @param pduDataStream pdu data input stream
+     * @param handler the handler receiving the parts
+     * @param firstOnly whether to report only the first part and skip the
+     *        others, as done for "multipart/alternative"
+     * @return PARTS_DONE, PARTS_STOPPED if the handler stopped parsing or
+     *         PARTS_ERROR if the parts are malformed
+     */
+    private int parseParts(StreamingInputStream pduDataStream, PduHandler handler,
+            boolean firstOnly) throws IOException {
+        int count = PduParser.parseUnsignedInt(pduDataStream); // get the number of parts
+
+        for (int i = 0 ; i < count ; i++) {
+            int headerLength = PduParser.parseUnsignedInt(pduDataStream);
+            int dataLength = PduParser.parseUnsignedInt(pduDataStream);
+            if ((headerLength < 0) || (dataLength < 0)) {
+                return PARTS_ERROR;
+            }
+            PduPart part = mParser.parsePartHeader(pduDataStream, headerLength);
+            if (null == part) {
+                return PARTS_ERROR;
+            }
+
+            StreamingInputStream.BoundedInputStream data =
+                    pduDataStream.openBounded(dataLength);
+            try {
+                if (firstOnly && (i > 0)) {
+                    continue;
+                }
+                String partContentType = new String(part.getContentType());
+                if (partContentType.equalsIgnoreCase(ContentType.MULTIPART_ALTERNATIVE)) {
+                    // parse "multipart/vnd.wap.multipart.alternative".
+                    int result = parseParts(new StreamingInputStream(data), handler, true);
+                    if (PARTS_DONE != result) {
+                        return result;
+                    }
+                } else {
+                    InputStream partData = decode(part, data);
+                    try {
+                        if (!handler.onPart(part, mParser.isFirstPart(part), partData)) {
+                            return PARTS_STOPPED;
+                        }
+                    } catch (IOException e) {
+                        if (isMalformed(partData)) {
+                            log("Decode part data error!");
+                            return PARTS_ERROR;
+                        }
+                        throw e;
+                    }
+                }
+            } finally {
+                data.close();
+            }
+        }
+
+        return PARTS_DONE;
+    }
+
+    /**
+     * Remove the Content-Transfer-Encoding of the part data.
+     *
+     * @param part the part
+     * @param data the encoded data
+     * @return the decoded data. Reading it fails with an IOException if
+     *         the data is malformed.
+     */
+    private static InputStream decode(PduPart part, InputStream data) {
+        byte[] partDataEncoding = part.getContentTransferEncoding();
+        if (null == partDataEncoding) {
+            return data;
+        }
+
+        String encoding = new String(partDataEncoding);
+        if (encoding.equalsIgnoreCase(PduPart.P_BASE64)) {
+            // Decode "base64" into "binary".
+            return Base64.newDecodingStream(data);
+        } else if (encoding.equalsIgnoreCase(PduPart.P_QUOTED_PRINTABLE)) {
+            // Decode "quoted-printable" into "binary".
+            return QuotedPrintable.newDecodingStream(data);
+        } else {
+            // "binary" is the default encoding.
+            return data;
+        }
+    }
+
+    /**
+     * @return true if decoding the part data failed as it is malformed
+     */
+    private static boolean isMalformed(InputStream partData) {
+        return (partData instanceof TransferCodecInputStream)
+                && ((TransferCodecInputStream) partData).isMalformed();
+    }
+
+    /**
+     * Create the pdu object for the headers, without a body.
+     *
+     * @param headers pdu headers
+     * @return the pdu, null if the message type is not supported
+     */
+    private static GenericPdu createPdu(PduHeaders headers) {
+        switch (headers.getOctet(PduHeaders.MESSAGE_TYPE)) {
+            case PduHeaders.MESSAGE_TYPE_SEND_REQ:
+                return new SendReq(headers);
+            case PduHeaders.MESSAGE_TYPE_SEND_CONF:
+                return new SendConf(headers);
+            case PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND:
+                return new NotificationInd(headers);
+            case PduHeaders.MESSAGE_TYPE_NOTIFYRESP_IND:
+                return new NotifyRespInd(headers);
+            case PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF:
+                // The MMS content type must be "application/vnd.wap.multipart.mixed"
+                // or "application/vnd.wap.multipart.related"
+                // or "application/vnd.wap.multipart.alternative"
+                String ctTypeStr = new String(headers.getTextString(PduHeaders.CONTENT_TYPE));
+                if (ctTypeStr.equals(ContentType.MULTIPART_MIXED)
+                        || ctTypeStr.equals(ContentType.MULTIPART_RELATED)
+                        || ctTypeStr.equals(ContentType.MULTIPART_ALTERNATIVE)) {
+                    return new RetrieveConf(headers);
+                }
+                return null;
+            case PduHeaders.MESSAGE_TYPE_DELIVERY_IND:
+                return new DeliveryInd(headers);
+            case PduHeaders.MESSAGE_TYPE_ACKNOWLEDGE_IND:
+                return new AcknowledgeInd(headers);
+            case PduHeaders.MESSAGE_TYPE_READ_ORIG_IND:
+                return new ReadOrigInd(headers);
+            case PduHeaders.MESSAGE_TYPE_READ_REC_IND:
+                return new ReadRecInd(headers);
+            default:
+                return null;
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        IOException e = mPduDataStream.getIOException();
+        if (null != e) {
+            throw e;
+        }
+    }
+
+    /**
+     * Log status.
+     *
+     * @param text log information
+     */
+    private static void log(String text) {
+        if (LOCAL_LOGV) {
+            MmsLog.v(LOG_TAG, text);
+        }
+    }
+}
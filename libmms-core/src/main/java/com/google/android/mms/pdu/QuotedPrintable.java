@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2007 Esmertec AG.
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+public class QuotedPrintable {
+    private static byte ESCAPE_CHAR = '=';
+
+    /**
+     * Longest encoded line, not counting the CRLF, as set by RFC 2045.
+     */
+    private static final int MAX_LINE_LENGTH = 76;
+
+    /**
+     * Values of the hexadecimal digits, -1 for other bytes.
+     */
+    private static final byte[] HEX_VALUES = new byte[256];
+    private static final byte[] HEX_DIGITS = {
+        '0', '1', '2', '3', '4', '5', '6', '7',
+        '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = '0'; i <= '9'; i++) {
+            HEX_VALUES[i] = (byte) (i - '0');
+        }
+        for (int i = 'A'; i <= 'F'; i++) {
+            HEX_VALUES[i] = (byte) (i - 'A' + 10);
+            HEX_VALUES[i - 'A' + 'a'] = (byte) (i - 'A' + 10);
+        }
+    }
+
+    /**
+     * Decodes an array quoted-printable characters into an array of original bytes.
+     * Escaped characters are converted back to their original representation.
+     *
+     * <p>
+     * This function implements a subset of
+     * quoted-printable encoding specification (rule #1 and rule #2)
+     * as defined in RFC 1521.
+     * </p>
+     *
+     * @param bytes array of quoted-printable characters
+     * @return array of original bytes,
+     *         null if quoted-printable decoding is unsuccessful.
+     */
+    public static final byte[] decodeQuotedPrintable(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        byte[] buffer = new byte[bytes.length];
+        int len = decode(bytes, 0, bytes.length, buffer, 0);
+        if (len < 0) {
+            return null;
+        }
+        if (len == buffer.length) {
+            return buffer;
+        }
+        byte[] result = new byte[len];
+        System.arraycopy(buffer, 0, result, 0, len);
+        return result;
+    }
+
+    /**
+     * Decodes quoted-printable characters into a caller supplied buffer,
+     * in one pass. See decodeQuotedPrintable(byte[]).
+     *
+     * @param src array of quoted-printable characters
+     * @param off the offset of the characters in src
+     * @param len the number of characters
+     * @param dst the buffer for the original bytes, which needs room for
+     *        len bytes. It may be src with dstOff <= off, to decode in place.
+     * @param dstOff the offset of the original bytes in dst
+     * @return the number of original bytes,
+     *         -1 if quoted-printable decoding is unsuccessful.
+     */
+    public static int decode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        Decoder decoder = new Decoder();
+        int decoded = decoder.process(src, off, len, dst, dstOff);
+        if ((decoded < 0) || (decoder.finish(dst, dstOff + decoded) < 0)) {
+            return -1;
+        }
+        return decoded;
+    }
+
+    /**
+     * Encodes an array of bytes into quoted-printable characters. CRLF
+     * pairs are kept as line breaks, longer lines are broken with soft
+     * line breaks, and all other bytes outside of printable US-ASCII are
+     * escaped, so decoding gives back the original bytes.
+     *
+     * @param bytes array of bytes
+     * @return array of quoted-printable characters
+     */
+    public static final byte[] encodeQuotedPrintable(byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        Encoder encoder = new Encoder();
+        byte[] buffer = new byte[encoder.maxOutputLength(bytes.length)];
+        int len = encoder.process(bytes, 0, bytes.length, buffer, 0);
+        len += encoder.finish(buffer, len);
+        byte[] result = new byte[len];
+        System.arraycopy(buffer, 0, result, 0, len);
+        return result;
+    }
+
+    /**
+     * Wrap a stream of quoted-printable characters. Reading from the
+     * returned stream fails with an IOException if decoding is unsuccessful.
+     *
+     * @param in the quoted-printable characters
+     * @return a stream of the original bytes
+     */
+    public static InputStream newDecodingStream(InputStream in) {
+        return new TransferCodecInputStream(in, new Decoder());
+    }
+
+    /**
+     * Wrap a stream to write quoted-printable characters to. The returned
+     * stream must be closed to write the final characters.
+     *
+     * @param out the stream for the quoted-printable characters
+     * @return a stream to write the original bytes to
+     */
+    public static OutputStream newEncodingStream(OutputStream out) {
+        return new TransferCodecOutputStream(out, new Encoder());
+    }
+
+    /**
+     * Single pass, table driven decoder. An escape sequence split between
+     * chunks is kept for the next chunk.
+     */
+    static final class Decoder implements TransferCodec {
+        private static final int STATE_TEXT = 0;
+        private static final int STATE_ESCAPE = 1;
+        private static final int STATE_DIGIT = 2;
+        private static final int STATE_CR = 3;
+
+        private int mState = STATE_TEXT;
+        private int mDigit = 0;
+
+        public int process(byte[] src, int off, int len, byte[] dst, int dstOff) {
+            int state = mState;
+            int digit = mDigit;
+            int dstPos = dstOff;
+            for (int end = off + len; off < end; off++) {
+                byte b = src[off];
+                switch (state) {
+                    case STATE_TEXT:
+                        if (b == ESCAPE_CHAR) {
+                            state = STATE_ESCAPE;
+                        } else {
+                            dst[dstPos++] = b;
+                        }
+                        break;
+                    case STATE_ESCAPE:
+                        if (b == '\r') {
+                            // A soft line break.
+                            state = STATE_CR;
+                            break;
+                        }
+                        digit = HEX_VALUES[b & 0xff];
+                        if (digit < 0) {
+                            return -1;
+                        }
+                        state = STATE_DIGIT;
+                        break;
+                    case STATE_DIGIT:
+                        int low = HEX_VALUES[b & 0xff];
+                        if (low < 0) {
+                            return -1;
+                        }
+                        dst[dstPos++] = (byte) ((digit << 4) | low);
+                        state = STATE_TEXT;
+                        break;
+                    case STATE_CR:
+                        if (b != '\n') {
+                            return -1;
+                        }
+                        state = STATE_TEXT;
+                        break;
+                }
+            }
+            mState = state;
+            mDigit = digit;
+            return dstPos - dstOff;
+        }
+
+        public int finish(byte[] dst, int dstOff) {
+            // The data may not end within an escape sequence.
+            int state = mState;
+            mState = STATE_TEXT;
+            return (state == STATE_TEXT) ? 0 : -1;
+        }
+
+        public int maxOutputLength(int len) {
+            return len;
+        }
+    }
+
+    /**
+     * Encoder. A space, tab or CR is held back until the next byte shows
+     * whether it ends a line.
+     */
+    static final class Encoder implements TransferCodec {
+        private int mLineLength = 0;
+        private int mPending = -1;
+
+        public int process(byte[] src, int off, int len, byte[] dst, int dstOff) {
+            int dstPos = dstOff;
+            for (int end = off + len; off < end; off++) {
+                int b = src[off] & 0xff;
+                if (mPending == '\r') {
+                    mPending = -1;
+                    if (b == '\n') {
+                        dst[dstPos++] = '\r';
+                        dst[dstPos++] = '\n';
+                        mLineLength = 0;
+                        continue;
+                    }
+                    dstPos = escape('\r', dst, dstPos);
+                } else if (mPending >= 0) {
+                    // Whitespace at the end of a line must be escaped.
+                    int pending = mPending;
+                    mPending = -1;
+                    dstPos = (b == '\r') ? escape(pending, dst, dstPos) : put(pending, dst, dstPos);
+                }
+
+                if ((b == ' ') || (b == '\t') || (b == '\r')) {
+                    mPending = b;
+                } else if ((b >= '!') && (b <= '~') && (b != ESCAPE_CHAR)) {
+                    dstPos = put(b, dst, dstPos);
+                } else {
+                    dstPos = escape(b, dst, dstPos);
+                }
+            }
+            return dstPos - dstOff;
+        }
+
+        public int finish(byte[] dst, int dstOff) {
+            int dstPos = dstOff;
+            if (mPending >= 0) {
+                dstPos = escape(mPending, dst, dstPos);
+            }
+            mPending = -1;
+            mLineLength = 0;
+            return dstPos - dstOff;
+        }
+
+        private int put(int b, byte[] dst, int dstPos) {
+            dstPos = breakLine(1, dst, dstPos);
+            dst[dstPos++] = (byte) b;
+            mLineLength++;
+            return dstPos;
+        }
+
+        private int escape(int b, byte[] dst, int dstPos) {
+            dstPos = breakLine(3, dst, dstPos);
+            dst[dstPos++] = ESCAPE_CHAR;
+            dst[dstPos++] = HEX_DIGITS[b >> 4];
+            dst[dstPos++] = HEX_DIGITS[b & 0xf];
+            mLineLength += 3;
+            return dstPos;
+        }
+
+        /**
+         * Insert a soft line break if len more characters do not fit in
+         * the line next to the '=' of a soft line break.
+         */
+        private int breakLine(int len, byte[] dst, int dstPos) {
+            if (mLineLength + len > MAX_LINE_LENGTH - 1) {
+                dst[dstPos++] = ESCAPE_CHAR;
+                dst[dstPos++] = '\r';
+                dst[dstPos++] = '\n';
+                mLineLength = 0;
+            }
+            return dstPos;
+        }
+
+        public int maxOutputLength(int len) {
+            // Each byte, and the one held back, takes at most three
+            // characters, and a soft line break follows at least 73 of them.
+            int bytes = len + 1;
+            return 3 * bytes + 3 * (bytes / 24 + 1);
+        }
+    }
+}
@@ -17,9 +17,8 @@
 
 package com.google.android.mms.pdu;
 
-import android.util.Log;
-
 import com.google.android.mms.InvalidHeaderValueException;
+import com.google.android.mms.util.MmsLog;
 
 public class SendReq extends MultimediaMessagePdu {
     private static final String TAG = "SendReq";
@@ -37,7 +36,7 @@ public class SendReq extends MultimediaMessagePdu {
             setTransactionId(generateTransactionId());
         } catch (InvalidHeaderValueException e) {
             // Impossible to reach here since all headers we set above are valid.
-            Log.e(TAG, "Unexpected InvalidHeaderValueException.", e);
+            MmsLog.e(TAG, "Unexpected InvalidHeaderValueException.", e);
             throw new RuntimeException(e);
         }
     }
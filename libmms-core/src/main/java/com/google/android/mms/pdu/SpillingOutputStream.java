@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An output stream for part data, which keeps the data on the heap up to
+ * a threshold and writes it to a temporary file beyond. The data is read
+ * back with {@link #toByteBuffer}, as a read-only memory-mapped view of the
+ * file if it was spilled, so the heap never holds more than the threshold.
+ */
+class SpillingOutputStream extends OutputStream {
+    private static final int FILE_BUFFER_SIZE = 8192;
+
+    private final int mThreshold;
+    private final File mDirectory;
+
+    /**
+     * The data until it is spilled.
+     */
+    private ByteArrayOutputStream mMemory = new ByteArrayOutputStream();
+
+    /**
+     * The temporary file, null until the data is spilled.
+     */
+    private File mFile = null;
+    private OutputStream mFileStream = null;
+
+    /**
+     * Constructor.
+     *
+     * @param threshold the largest data kept on the heap, in bytes
+     * @param directory the directory for the temporary file, null for the
+     *        default temporary directory
+     */
+    SpillingOutputStream(int threshold, File directory) {
+        mThreshold = threshold;
+        mDirectory = directory;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mFileStream == null) {
+            if (mMemory == null) {
+                throw new IOException("Stream closed");
+            }
+            if (mMemory.size() + len > mThreshold) {
+                spill();
+            }
+        }
+        if (mFileStream != null) {
+            mFileStream.write(b, off, len);
+        } else {
+            mMemory.write(b, off, len);
+        }
+    }
+
+    private void spill() throws IOException {
+        mFile = File.createTempFile("part", null, mDirectory);
+        mFileStream = new BufferedOutputStream(new FileOutputStream(mFile), FILE_BUFFER_SIZE);
+        mMemory.writeTo(mFileStream);
+        mMemory = null;
+    }
+
+    /**
+     * Finish writing and return the data written. The temporary file, if
+     * any, is deleted once mapped: the mapping stays valid until the
+     * returned buffer is garbage collected. It is deleted as well if the
+     * data can not be read back.
+     *
+     * @return a read-only view of the data
+     * @throws IOException if the spilled data can not be read back
+     */
+    ByteBuffer toByteBuffer() throws IOException {
+        if (mFile == null) {
+            if (mMemory == null) {
+                throw new IOException("Stream closed");
+            }
+            return ByteBuffer.wrap(mMemory.toByteArray()).asReadOnlyBuffer();
+        }
+
+        try {
+            mFileStream.close();
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            } finally {
+                file.close();
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Discard the data and delete the temporary file, if any.
+     */
+    @Override
+    public void close() throws IOException {
+        mMemory = null;
+        if (mFile != null) {
+            try {
+                mFileStream.close();
+            } finally {
+                if (!mFile.delete()) {
+                    // Still mapped where that prevents deleting a file.
+                    mFile.deleteOnExit();
+                }
+                mFile = null;
+                mFileStream = null;
+            }
+        }
+    }
+}
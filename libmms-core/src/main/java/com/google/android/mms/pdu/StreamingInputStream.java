@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A ByteArrayInputStream that pulls its data from an InputStream on demand,
+ * so that the PduParser helpers can parse a pdu which is never held in
+ * memory as a whole.
+ *
+ * The parser measures lengths as differences of available(), so
+ * available() reports Integer.MAX_VALUE minus the number of bytes consumed
+ * until the end of the stream is reached, and 0 after that.
+ *
+ * Bytes read after mark() are kept until the next mark() or clearMark(),
+ * whatever the read-ahead limit. An IOException from the source stream
+ * ends the stream and is kept for getIOException().
+ */
+class StreamingInputStream extends ByteArrayInputStream {
+    private static final byte[] EMPTY = new byte[0];
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream mSource;
+
+    private byte[] mBuffer = new byte[BUFFER_SIZE];
+    private int mBufferPos = 0;
+    private int mBufferLen = 0;
+    private int mMarkPos = -1;
+
+    /**
+     * Number of bytes consumed so far.
+     */
+    private int mConsumed = 0;
+
+    private boolean mEndOfStream = false;
+    private IOException mIOException = null;
+
+    /**
+     * Constructor.
+     *
+     * @param source the stream to read the pdu from
+     */
+    public StreamingInputStream(InputStream source) {
+        super(EMPTY);
+        mSource = source;
+    }
+
+    /**
+     * Make sure the buffer holds at least one unread byte.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() {
+        if (mBufferPos < mBufferLen) {
+            return true;
+        }
+        if (mEndOfStream) {
+            return false;
+        }
+
+        if (mMarkPos < 0) {
+            mBufferPos = 0;
+            mBufferLen = 0;
+        } else if (mMarkPos > 0) {
+            // Keep the marked bytes, move them to the front.
+            mBufferLen -= mMarkPos;
+            System.arraycopy(mBuffer, mMarkPos, mBuffer, 0, mBufferLen);
+            mBufferPos = mBufferLen;
+            mMarkPos = 0;
+        } else if (mBufferLen == mBuffer.length) {
+            byte[] buffer = new byte[mBuffer.length * 2];
+            System.arraycopy(mBuffer, 0, buffer, 0, mBufferLen);
+            mBuffer = buffer;
+        }
+
+        int count;
+        try {
+            count = mSource.read(mBuffer, mBufferLen, mBuffer.length - mBufferLen);
+        } catch (IOException e) {
+            mIOException = e;
+            count = -1;
+        }
+        if (count <= 0) {
+            mEndOfStream = true;
+            return false;
+        }
+        mBufferLen += count;
+        return true;
+    }
+
+    @Override
+    public int read() {
+        if (!fill()) {
+            return -1;
+        }
+        mConsumed++;
+        return mBuffer[mBufferPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int count = Math.min(len, mBufferLen - mBufferPos);
+        System.arraycopy(mBuffer, mBufferPos, b, off, count);
+        mBufferPos += count;
+        mConsumed += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        while ((skipped < n) && fill()) {
+            int count = (int) Math.min(n - skipped, mBufferLen - mBufferPos);
+            mBufferPos += count;
+            mConsumed += count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        if (!fill()) {
+            return 0;
+        }
+        return Integer.MAX_VALUE - mConsumed;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) {
+        mMarkPos = mBufferPos;
+    }
+
+    @Override
+    public void reset() {
+        if (mMarkPos >= 0) {
+            mConsumed -= mBufferPos - mMarkPos;
+            mBufferPos = mMarkPos;
+        }
+    }
+
+    /**
+     * Forget the mark, so that bytes read from now on need not be kept.
+     */
+    public void clearMark() {
+        mMarkPos = -1;
+    }
+
+    /**
+     * @return the exception which ended the source stream, or null
+     */
+    public IOException getIOException() {
+        return mIOException;
+    }
+
+    /**
+     * Return a stream over the next <code>length</code> bytes. Reading it
+     * advances this stream; call {@link BoundedInputStream#close} to skip
+     * whatever the caller did not read.
+     *
+     * @param length number of bytes the returned stream covers
+     * @return the stream
+     */
+    public BoundedInputStream openBounded(int length) {
+        clearMark();
+        return new BoundedInputStream(length);
+    }
+
+    /**
+     * A view of a fixed number of bytes of the enclosing stream.
+     */
+    class BoundedInputStream extends InputStream {
+        private int mRemaining;
+
+        private BoundedInputStream(int length) {
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mRemaining <= 0) {
+                return -1;
+            }
+            int b = StreamingInputStream.this.read();
+            if (b < 0) {
+                throwIfFailed();
+                mRemaining = 0;
+                return -1;
+            }
+            mRemaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (mRemaining <= 0) {
+                return -1;
+            }
+            int count = StreamingInputStream.this.read(b, off, Math.min(len, mRemaining));
+            if (count < 0) {
+                throwIfFailed();
+                mRemaining = 0;
+                return -1;
+            }
+            mRemaining -= count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = StreamingInputStream.this.skip(Math.min(n, mRemaining));
+            mRemaining -= skipped;
+            throwIfFailed();
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return Math.min(mRemaining, mBufferLen - mBufferPos);
+        }
+
+        /**
+         * @return the number of bytes not yet read
+         */
+        public int remaining() {
+            return mRemaining;
+        }
+
+        /**
+         * Skip the unread bytes. The enclosing stream is not closed.
+         */
+        @Override
+        public void close() throws IOException {
+            skip(mRemaining);
+        }
+
+        private void throwIfFailed() throws IOException {
+            if (mIOException != null) {
+                throw mIOException;
+            }
+        }
+    }
+}
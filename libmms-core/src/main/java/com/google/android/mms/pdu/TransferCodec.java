@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+/**
+ * Incremental encoder or decoder of a Content-Transfer-Encoding. The data
+ * is fed in chunks of any size; the codec keeps whatever state a chunk
+ * leaves open, such as an incomplete base64 quadruple, for the next one.
+ *
+ * A codec is not thread-safe.
+ */
+interface TransferCodec {
+    /**
+     * Convert a chunk of data.
+     *
+     * @param src the input
+     * @param off the offset of the chunk in src
+     * @param len the length of the chunk
+     * @param dst the output, at least maxOutputLength(len) bytes from dstOff.
+     *        A decoder may use src with dstOff <= off to decode in place.
+     * @param dstOff the offset of the output in dst
+     * @return the number of bytes written, -1 if the input is malformed
+     */
+    int process(byte[] src, int off, int len, byte[] dst, int dstOff);
+
+    /**
+     * Write the output of the state left open at the end of the data, and
+     * reset the codec.
+     *
+     * @param dst the output, at least maxOutputLength(0) bytes from dstOff
+     * @param dstOff the offset of the output in dst
+     * @return the number of bytes written, -1 if the input is malformed
+     */
+    int finish(byte[] dst, int dstOff);
+
+    /**
+     * @return the largest output of process() for len bytes of input, or of
+     *         finish() for len 0
+     */
+    int maxOutputLength(int len);
+}
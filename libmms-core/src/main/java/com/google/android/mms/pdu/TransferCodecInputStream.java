@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Converts the data read from a stream with a {@link TransferCodec}, such
+ * as a decoder of a Content-Transfer-Encoding.
+ */
+class TransferCodecInputStream extends FilterInputStream {
+    private static final int BUFFER_SIZE = 4096;
+
+    private final TransferCodec mCodec;
+    private final byte[] mInput = new byte[BUFFER_SIZE];
+    private final byte[] mOutput;
+    private int mOutputPos = 0;
+    private int mOutputLen = 0;
+    private boolean mEndOfStream = false;
+    private boolean mMalformed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param in the stream to convert
+     * @param codec the codec
+     */
+    TransferCodecInputStream(InputStream in, TransferCodec codec) {
+        super(in);
+        mCodec = codec;
+        mOutput = new byte[Math.max(codec.maxOutputLength(BUFFER_SIZE), codec.maxOutputLength(0))];
+    }
+
+    /**
+     * @return true if reading failed as the data is malformed
+     */
+    boolean isMalformed() {
+        return mMalformed;
+    }
+
+    /**
+     * Make sure the output buffer holds at least one unread byte.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        while (mOutputPos >= mOutputLen) {
+            if (mMalformed) {
+                throw new IOException("Malformed transfer encoded data");
+            }
+            if (mEndOfStream) {
+                return false;
+            }
+
+            int len = in.read(mInput, 0, BUFFER_SIZE);
+            int outputLen;
+            if (len < 0) {
+                mEndOfStream = true;
+                outputLen = mCodec.finish(mOutput, 0);
+            } else {
+                outputLen = mCodec.process(mInput, 0, len, mOutput, 0);
+            }
+            if (outputLen < 0) {
+                mMalformed = true;
+                throw new IOException("Malformed transfer encoded data");
+            }
+            mOutputPos = 0;
+            mOutputLen = outputLen;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return mOutput[mOutputPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        len = Math.min(len, mOutputLen - mOutputPos);
+        System.arraycopy(mOutput, mOutputPos, b, off, len);
+        mOutputPos += len;
+        return len;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while ((skipped < n) && fill()) {
+            int len = (int) Math.min(n - skipped, mOutputLen - mOutputPos);
+            mOutputPos += len;
+            skipped += len;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return mOutputLen - mOutputPos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
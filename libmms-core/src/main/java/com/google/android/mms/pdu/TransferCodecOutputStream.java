@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Converts the data written to a stream with a {@link TransferCodec}, such
+ * as an encoder of a Content-Transfer-Encoding. close() writes the end of
+ * the converted data, so the stream must be closed, not only flushed.
+ */
+class TransferCodecOutputStream extends FilterOutputStream {
+    private static final int BUFFER_SIZE = 4096;
+
+    private final TransferCodec mCodec;
+    private final byte[] mOutput;
+    private final byte[] mSingleByte = new byte[1];
+    private boolean mClosed = false;
+
+    /**
+     * Constructor.
+     *
+     * @param out the stream to write the converted data to
+     * @param codec the codec
+     */
+    TransferCodecOutputStream(OutputStream out, TransferCodec codec) {
+        super(out);
+        mCodec = codec;
+        mOutput = new byte[Math.max(codec.maxOutputLength(BUFFER_SIZE), codec.maxOutputLength(0))];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        mSingleByte[0] = (byte) b;
+        write(mSingleByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (mClosed) {
+            throw new IOException("Stream closed");
+        }
+        while (len > 0) {
+            int chunk = Math.min(len, BUFFER_SIZE);
+            writeOutput(mCodec.process(b, off, chunk, mOutput, 0));
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    private void writeOutput(int len) throws IOException {
+        if (len < 0) {
+            throw new IOException("Malformed transfer encoded data");
+        }
+        out.write(mOutput, 0, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            writeOutput(mCodec.finish(mOutput, 0));
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+}
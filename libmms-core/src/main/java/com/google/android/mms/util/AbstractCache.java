@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2008 Esmertec AG.
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.util;
+
+import java.util.HashMap;
+
+/**
+ * A cache bounded by the total size of its entries, evicting the entries
+ * picked by an {@link EvictionPolicy}. Its methods are synchronized, so
+ * the entries and counters stay consistent when used from several
+ * threads.
+ */
+public abstract class AbstractCache<K, V> {
+    private static final String TAG = "AbstractCache";
+    private static final boolean DEBUG = false;
+    private static final boolean LOCAL_LOGV = false;
+
+    private static final int MAX_CACHED_ITEMS  = 500;
+
+    private final HashMap<K, CacheEntry<V>> mCacheMap;
+    private final EvictionPolicy<K> mPolicy;
+
+    /**
+     * Capacity and current size, in the unit of sizeOf().
+     */
+    private final long mCapacity;
+    private long mSize;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * Constructor for a cache of up to 500 entries, evicting the least
+     * recently used one.
+     */
+    protected AbstractCache() {
+        this(new LruPolicy<K>(), MAX_CACHED_ITEMS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param policy the policy that picks the entries to evict
+     * @param capacity the maximum total size of the entries, in the unit
+     *        of {@link #sizeOf}; the number of entries unless sizeOf() is
+     *        overridden
+     */
+    protected AbstractCache(EvictionPolicy<K> policy, long capacity) {
+        mCacheMap = new HashMap<K, CacheEntry<V>>();
+        mPolicy = policy;
+        mCapacity = capacity;
+        mPolicy.setCapacity(capacity);
+    }
+
+    /**
+     * Return the size of an entry in the unit of the capacity. Returns 1,
+     * so the capacity counts entries; override to count estimated bytes
+     * instead. The size of an entry must not change while it is cached.
+     */
+    protected long sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Called when an entry is evicted to make room for others. Not called
+     * for entries removed by purge(), purgeAll() or replaced by put().
+     */
+    protected void onEvicted(K key, V value) {
+    }
+
+    /**
+     * Put an entry into the cache, evicting others if it is full.
+     *
+     * @return true if the entry is cached, false if the key is null, the
+     *         entry is larger than the whole cache or the policy evicted
+     *         it right away in favor of more frequently used entries
+     */
+    public synchronized boolean put(K key, V value) {
+        if (LOCAL_LOGV) {
+            MmsLog.v(TAG, "Trying to put " + key + " into cache.");
+        }
+
+        if (key != null) {
+            long size = sizeOf(key, value);
+            if (size > mCapacity) {
+                if (LOCAL_LOGV) {
+                    MmsLog.v(TAG, "Failed! " + key + " is larger than the cache.");
+                }
+                return false;
+            }
+
+            CacheEntry<V> oldEntry = mCacheMap.remove(key);
+            if (oldEntry != null) {
+                mSize -= oldEntry.size;
+                mPolicy.recordRemove(key);
+            }
+
+            CacheEntry<V> cacheEntry = new CacheEntry<V>();
+            cacheEntry.value = value;
+            cacheEntry.size = size;
+            mCacheMap.put(key, cacheEntry);
+            mSize += size;
+            mPolicy.recordInsert(key, size);
+
+            evict();
+
+            if (LOCAL_LOGV) {
+                MmsLog.v(TAG, key + " cached, " + mCacheMap.size() + " items total.");
+            }
+            return mCacheMap.get(key) == cacheEntry;
+        }
+        return false;
+    }
+
+    /**
+     * Evict entries until the cache is within its capacity.
+     */
+    private void evict() {
+        while (mSize > mCapacity) {
+            K key = mPolicy.selectVictim();
+            if (key == null) {
+                break;
+            }
+
+            CacheEntry<V> cacheEntry = mCacheMap.remove(key);
+            mPolicy.recordRemove(key);
+            if (cacheEntry != null) {
+                mSize -= cacheEntry.size;
+                mEvictionCount++;
+                if (LOCAL_LOGV) {
+                    MmsLog.v(TAG, key + " evicted after " + cacheEntry.hit + " hits.");
+                }
+                onEvicted(key, cacheEntry.value);
+            }
+        }
+    }
+
+    public synchronized V get(K key) {
+        if (LOCAL_LOGV) {
+            MmsLog.v(TAG, "Trying to get " + key + " from cache.");
+        }
+
+        if (key != null) {
+            CacheEntry<V> cacheEntry = mCacheMap.get(key);
+            if (cacheEntry != null) {
+                cacheEntry.hit++;
+                mHitCount++;
+                mPolicy.recordAccess(key, cacheEntry.hit);
+                if (LOCAL_LOGV) {
+                    MmsLog.v(TAG, key + " hit " + cacheEntry.hit + " times.");
+                }
+                return cacheEntry.value;
+            }
+            mMissCount++;
+        }
+        return null;
+    }
+
+    public synchronized V purge(K key) {
+        if (LOCAL_LOGV) {
+            MmsLog.v(TAG, "Trying to purge " + key);
+        }
+
+        CacheEntry<V> v = mCacheMap.remove(key);
+        if (v != null) {
+            mSize -= v.size;
+            mPolicy.recordRemove(key);
+        }
+
+        if (LOCAL_LOGV) {
+            MmsLog.v(TAG, mCacheMap.size() + " items cached.");
+        }
+
+        return v != null ? v.value : null;
+    }
+
+    public synchronized void purgeAll() {
+        if (LOCAL_LOGV) {
+            MmsLog.v(TAG, "Purging cache, " + mCacheMap.size()
+                    + " items dropped.");
+        }
+        mCacheMap.clear();
+        mPolicy.clear();
+        mSize = 0;
+    }
+
+    public synchronized int size() {
+        return mCacheMap.size();
+    }
+
+    /**
+     * @return the total size of the cached entries, in the unit of sizeOf()
+     */
+    public synchronized long getTotalSize() {
+        return mSize;
+    }
+
+    /**
+     * @return the maximum total size of the cached entries
+     */
+    public long getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return the number of get() calls that found their entry
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of get() calls that did not find their entry
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return the number of entries evicted to make room for others
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    private static class CacheEntry<V> {
+        int hit;
+        long size;
+        V value;
+    }
+}
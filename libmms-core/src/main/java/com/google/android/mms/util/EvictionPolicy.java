@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.util;
+
+/**
+ * Decides which entry an {@link AbstractCache} drops when it is full.
+ *
+ * The cache reports every insertion, hit and removal of a key, and asks
+ * for a victim as long as its entries exceed the capacity. A policy is
+ * used by a single cache and is called with the cache's lock held, if any.
+ *
+ * @see LruPolicy
+ * @see LfuPolicy
+ * @see TinyLfuPolicy
+ */
+public interface EvictionPolicy<K> {
+    /**
+     * Set the capacity of the cache, in the unit of
+     * {@link AbstractCache#sizeOf}. Called once, before any other method.
+     */
+    void setCapacity(long capacity);
+
+    /**
+     * A key was put into the cache.
+     *
+     * @param key the key
+     * @param size the size of the entry, as returned by
+     *        {@link AbstractCache#sizeOf}
+     */
+    void recordInsert(K key, long size);
+
+    /**
+     * A key was found in the cache.
+     *
+     * @param key the key
+     * @param hit the number of hits of the entry so far, this one included
+     */
+    void recordAccess(K key, int hit);
+
+    /**
+     * A key was removed from the cache, either purged or evicted.
+     */
+    void recordRemove(K key);
+
+    /**
+     * All keys were removed from the cache.
+     */
+    void clear();
+
+    /**
+     * @return the key to evict next, null if no key is known. The key
+     *         stays known to the policy until {@link #recordRemove}.
+     */
+    K selectVictim();
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.util;
+
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Evicts the least hit entry, by the hit counter the cache keeps for each
+ * entry. Among entries with the same number of hits, the least recently
+ * used one goes first.
+ */
+public class LfuPolicy<K> implements EvictionPolicy<K> {
+    private final HashMap<K, Node<K>> mNodes = new HashMap<K, Node<K>>();
+    private final TreeSet<Node<K>> mOrder = new TreeSet<Node<K>>();
+
+    /**
+     * Source of the use order of the nodes.
+     */
+    private long mTick = 0;
+
+    public void setCapacity(long capacity) {
+    }
+
+    public void recordInsert(K key, long size) {
+        recordRemove(key);
+
+        Node<K> node = new Node<K>(key);
+        node.tick = mTick++;
+        mNodes.put(key, node);
+        mOrder.add(node);
+    }
+
+    public void recordAccess(K key, int hit) {
+        Node<K> node = mNodes.get(key);
+        if (node != null) {
+            // Re-insert, as the position in mOrder depends on the fields.
+            mOrder.remove(node);
+            node.hit = hit;
+            node.tick = mTick++;
+            mOrder.add(node);
+        }
+    }
+
+    public void recordRemove(K key) {
+        Node<K> node = mNodes.remove(key);
+        if (node != null) {
+            mOrder.remove(node);
+        }
+    }
+
+    public void clear() {
+        mNodes.clear();
+        mOrder.clear();
+    }
+
+    public K selectVictim() {
+        return mOrder.isEmpty() ? null : mOrder.first().key;
+    }
+
+    private static class Node<K> implements Comparable<Node<K>> {
+        final K key;
+        int hit;
+        long tick;
+
+        Node(K key) {
+            this.key = key;
+        }
+
+        public int compareTo(Node<K> another) {
+            if (hit != another.hit) {
+                return hit < another.hit ? -1 : 1;
+            }
+            if (tick != another.tick) {
+                return tick < another.tick ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+}
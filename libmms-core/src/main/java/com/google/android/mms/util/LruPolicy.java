@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts the least recently used entry.
+ */
+public class LruPolicy<K> implements EvictionPolicy<K> {
+    /**
+     * Keys in access order, the least recently used first.
+     */
+    private final LinkedHashMap<K, Boolean> mKeys =
+            new LinkedHashMap<K, Boolean>(16, 0.75f, true);
+
+    public void setCapacity(long capacity) {
+    }
+
+    public void recordInsert(K key, long size) {
+        mKeys.put(key, Boolean.TRUE);
+    }
+
+    public void recordAccess(K key, int hit) {
+        mKeys.get(key);
+    }
+
+    public void recordRemove(K key) {
+        mKeys.remove(key);
+    }
+
+    public void clear() {
+        mKeys.clear();
+    }
+
+    public K selectVictim() {
+        Iterator<K> keys = mKeys.keySet().iterator();
+        return keys.hasNext() ? keys.next() : null;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.util;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logging for the code that runs outside of Android too, with the methods
+ * and priorities of android.util.Log.
+ *
+ * On Android the messages go to android.util.Log, through
+ * AndroidLogSink of the libmms module. Elsewhere they go to
+ * java.util.logging, with the tag as logger name, unless another sink is
+ * set with {@link #setSink}.
+ */
+public final class MmsLog {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    /**
+     * Receives the log messages.
+     */
+    public interface Sink {
+        /**
+         * @param priority one of VERBOSE, DEBUG, INFO, WARN and ERROR
+         * @param tag the source of the message
+         * @param msg the message
+         * @param tr an exception to log, or null
+         */
+        void log(int priority, String tag, String msg, Throwable tr);
+    }
+
+    /**
+     * The sink used on Android, if it is on the class path.
+     */
+    private static final String ANDROID_SINK = "com.google.android.mms.util.AndroidLogSink";
+
+    private static volatile Sink sSink = createDefaultSink();
+
+    private MmsLog() {
+    }
+
+    /**
+     * Send the log messages to the given sink instead.
+     */
+    public static void setSink(Sink sink) {
+        if (sink == null) {
+            throw new NullPointerException();
+        }
+        sSink = sink;
+    }
+
+    public static void v(String tag, String msg) {
+        sSink.log(VERBOSE, tag, msg, null);
+    }
+
+    public static void v(String tag, String msg, Throwable tr) {
+        sSink.log(VERBOSE, tag, msg, tr);
+    }
+
+    public static void d(String tag, String msg) {
+        sSink.log(DEBUG, tag, msg, null);
+    }
+
+    public static void i(String tag, String msg) {
+        sSink.log(INFO, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg) {
+        sSink.log(WARN, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg, Throwable tr) {
+        sSink.log(WARN, tag, msg, tr);
+    }
+
+    public static void e(String tag, String msg) {
+        sSink.log(ERROR, tag, msg, null);
+    }
+
+    public static void e(String tag, String msg, Throwable tr) {
+        sSink.log(ERROR, tag, msg, tr);
+    }
+
+    private static Sink createDefaultSink() {
+        try {
+            return (Sink) Class.forName(ANDROID_SINK).newInstance();
+        } catch (ClassNotFoundException e) {
+            // Not on Android.
+        } catch (InstantiationException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return new JavaLoggingSink();
+    }
+
+    private static class JavaLoggingSink implements Sink {
+        public void log(int priority, String tag, String msg, Throwable tr) {
+            Level level;
+            switch (priority) {
+                case VERBOSE:
+                    level = Level.FINEST;
+                    break;
+                case DEBUG:
+                    level = Level.FINE;
+                    break;
+                case INFO:
+                    level = Level.INFO;
+                    break;
+                case WARN:
+                    level = Level.WARNING;
+                    break;
+                default:
+                    level = Level.SEVERE;
+                    break;
+            }
+            Logger.getLogger(tag).log(level, msg, tr);
+        }
+    }
+}
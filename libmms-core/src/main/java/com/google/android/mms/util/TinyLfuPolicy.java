@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-aware Window TinyLFU policy.
+ *
+ * New entries go to a small LRU window. When the window holds more than
+ * its share of the capacity, its least recently used entry may only move
+ * on to the main area if it has been used more often, as estimated by a
+ * frequency sketch that also remembers evicted keys, than each of the
+ * entries the main area would evict to make room for it; otherwise the
+ * window entry is evicted. The main area is a segmented LRU: entries hit
+ * again while on probation move to the protected segment.
+ *
+ * All shares are measured in entry sizes, so a large entry needs to win
+ * against as many main area entries as it takes to make room for it.
+ */
+public class TinyLfuPolicy<K> implements EvictionPolicy<K> {
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    /**
+     * Shares of the capacity, in percent.
+     */
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final HashMap<K, Node> mNodes = new HashMap<K, Node>();
+    private final LinkedHashMap<K, Node> mWindow = new LinkedHashMap<K, Node>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node> mProbation = new LinkedHashMap<K, Node>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node> mProtected = new LinkedHashMap<K, Node>(16, 0.75f, true);
+
+    private long mWindowSize = 0;
+    private long mProbationSize = 0;
+    private long mProtectedSize = 0;
+    private long mMaxWindowSize = 1;
+    private long mMaxMainSize = 1;
+    private long mMaxProtectedSize = 1;
+
+    private final FrequencySketch mSketch;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedEntries the number of entries the cache is expected
+     *        to hold, which sizes the frequency sketch
+     */
+    public TinyLfuPolicy(int expectedEntries) {
+        mSketch = new FrequencySketch(expectedEntries);
+    }
+
+    public void setCapacity(long capacity) {
+        mMaxWindowSize = Math.max(1, capacity * WINDOW_PERCENT / 100);
+        mMaxMainSize = Math.max(1, capacity - mMaxWindowSize);
+        mMaxProtectedSize = Math.max(1, mMaxMainSize * PROTECTED_PERCENT / 100);
+    }
+
+    public void recordInsert(K key, long size) {
+        recordRemove(key);
+        mSketch.increment(key);
+
+        Node node = new Node(size);
+        mNodes.put(key, node);
+        mWindow.put(key, node);
+        mWindowSize += size;
+
+        // Until the main area is full, entries leave the window freely.
+        while (mWindowSize > mMaxWindowSize) {
+            K candidate = first(mWindow);
+            Node candidateNode = mNodes.get(candidate);
+            if (mProbationSize + mProtectedSize + candidateNode.size > mMaxMainSize) {
+                break;
+            }
+            moveToProbation(candidate, candidateNode);
+        }
+    }
+
+    private void moveToProbation(K key, Node node) {
+        mWindow.remove(key);
+        mWindowSize -= node.size;
+        node.queue = PROBATION;
+        mProbation.put(key, node);
+        mProbationSize += node.size;
+    }
+
+    public void recordAccess(K key, int hit) {
+        mSketch.increment(key);
+
+        Node node = mNodes.get(key);
+        if (node == null) {
+            return;
+        }
+        switch (node.queue) {
+            case WINDOW:
+                mWindow.get(key);
+                break;
+            case PROBATION:
+                mProbation.remove(key);
+                mProbationSize -= node.size;
+                node.queue = PROTECTED;
+                mProtected.put(key, node);
+                mProtectedSize += node.size;
+                demoteProtected();
+                break;
+            case PROTECTED:
+                mProtected.get(key);
+                break;
+        }
+    }
+
+    /**
+     * Move the least recently used protected entries back to probation
+     * while the protected segment is over its share.
+     */
+    private void demoteProtected() {
+        while ((mProtectedSize > mMaxProtectedSize) && (mProtected.size() > 1)) {
+            K key = first(mProtected);
+            Node node = mProtected.remove(key);
+            mProtectedSize -= node.size;
+            node.queue = PROBATION;
+            mProbation.put(key, node);
+            mProbationSize += node.size;
+        }
+    }
+
+    public void recordRemove(K key) {
+        Node node = mNodes.remove(key);
+        if (node == null) {
+            return;
+        }
+        switch (node.queue) {
+            case WINDOW:
+                mWindow.remove(key);
+                mWindowSize -= node.size;
+                break;
+            case PROBATION:
+                mProbation.remove(key);
+                mProbationSize -= node.size;
+                break;
+            case PROTECTED:
+                mProtected.remove(key);
+                mProtectedSize -= node.size;
+                break;
+        }
+    }
+
+    public void clear() {
+        mNodes.clear();
+        mWindow.clear();
+        mProbation.clear();
+        mProtected.clear();
+        mWindowSize = 0;
+        mProbationSize = 0;
+        mProtectedSize = 0;
+    }
+
+    public K selectVictim() {
+        while (mWindowSize > mMaxWindowSize) {
+            K candidate = first(mWindow);
+            Node candidateNode = mNodes.get(candidate);
+            long needed = mProbationSize + mProtectedSize + candidateNode.size - mMaxMainSize;
+            if (needed <= 0) {
+                // The main area has room left.
+                moveToProbation(candidate, candidateNode);
+                continue;
+            }
+
+            if (!admit(candidate, needed)) {
+                return candidate;
+            }
+            // The victims are now first on probation, ahead of the candidate.
+            moveToProbation(candidate, candidateNode);
+            break;
+        }
+
+        K victim = first(mProbation);
+        if (victim == null) {
+            victim = first(mProtected);
+        }
+        if (victim == null) {
+            victim = first(mWindow);
+        }
+        return victim;
+    }
+
+    /**
+     * Decide whether a window entry may enter the main area. The main area
+     * entries are evicted from the least recently used one on probation,
+     * then in the protected segment; the candidate must be used more often
+     * than each of those that make room for it. If it is, the protected
+     * ones among them are moved to probation, to be evicted next.
+     *
+     * @param needed the size to free in the main area for the candidate
+     * @return true if the candidate is admitted
+     */
+    private boolean admit(K candidate, long needed) {
+        int frequency = mSketch.frequency(candidate);
+        for (Map.Entry<K, Node> entry : mProbation.entrySet()) {
+            if (needed <= 0) {
+                return true;
+            }
+            if (mSketch.frequency(entry.getKey()) >= frequency) {
+                return false;
+            }
+            needed -= entry.getValue().size;
+        }
+
+        int demoted = 0;
+        for (Map.Entry<K, Node> entry : mProtected.entrySet()) {
+            if (needed <= 0) {
+                break;
+            }
+            if (mSketch.frequency(entry.getKey()) >= frequency) {
+                return false;
+            }
+            needed -= entry.getValue().size;
+            demoted++;
+        }
+
+        for (; demoted > 0; demoted--) {
+            K key = first(mProtected);
+            Node node = mProtected.remove(key);
+            mProtectedSize -= node.size;
+            node.queue = PROBATION;
+            mProbation.put(key, node);
+            mProbationSize += node.size;
+        }
+        return true;
+    }
+
+    private static <K> K first(LinkedHashMap<K, ?> queue) {
+        Iterator<K> keys = queue.keySet().iterator();
+        return keys.hasNext() ? keys.next() : null;
+    }
+
+    private static class Node {
+        final long size;
+        int queue = WINDOW;
+
+        Node(long size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters. All counters are halved once
+     * enough increments were counted, so that old popularity fades.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {
+            0x97CB3127, 0x2B5E5C49, 0x6C8E9CF5, 0xA8F3B1D7
+        };
+
+        private final byte[] mCounters;
+        private final int mMask;
+        private final int mSampleSize;
+        private int mAdditions = 0;
+
+        FrequencySketch(int expectedEntries) {
+            int width = 16;
+            while ((width < expectedEntries) && (width < (1 << 20))) {
+                width <<= 1;
+            }
+            mCounters = new byte[DEPTH * width];
+            mMask = width - 1;
+            mSampleSize = 10 * width;
+        }
+
+        private int index(int hash, int row) {
+            int h = (hash ^ SEEDS[row]) * 0x9E3779B1;
+            h ^= h >>> 16;
+            return (row * (mMask + 1)) + (h & mMask);
+        }
+
+        void increment(Object key) {
+            int hash = key.hashCode();
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int i = index(hash, row);
+                if (mCounters[i] < MAX_COUNT) {
+                    mCounters[i]++;
+                    added = true;
+                }
+            }
+            if (added && (++mAdditions >= mSampleSize)) {
+                for (int i = 0; i < mCounters.length; i++) {
+                    mCounters[i] >>= 1;
+                }
+                mAdditions >>= 1;
+            }
+        }
+
+        int frequency(Object key) {
+            int hash = key.hashCode();
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                frequency = Math.min(frequency, mCounters[index(hash, row)]);
+            }
+            return frequency;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that PduComposer.checkAddressType classifies addresses as the
+ * address regular expressions do, on generated addresses.
+ */
+public class CheckAddressTypeTest {
+    private static final int ITERATIONS = 200000;
+
+    /**
+     * Characters the expressions care about, and a few they don't.
+     */
+    private static final String ALPHABET = "0123456789abcdefxyzABCDEFXYZ.-+|@<>: \u00e9\u0660";
+
+    /**
+     * The classification by the regular expressions, as checkAddressType
+     * was first written.
+     */
+    private static int expectedType(String address) {
+        if (address.matches(PduComposer.REGEXP_IPV4_ADDRESS_TYPE)) {
+            return PduComposer.PDU_IPV4_ADDRESS_TYPE;
+        } else if (address.matches(PduComposer.REGEXP_PHONE_NUMBER_ADDRESS_TYPE)) {
+            return PduComposer.PDU_PHONE_NUMBER_ADDRESS_TYPE;
+        } else if (address.matches(PduComposer.REGEXP_EMAIL_ADDRESS_TYPE)) {
+            return PduComposer.PDU_EMAIL_ADDRESS_TYPE;
+        } else if (address.matches(PduComposer.REGEXP_IPV6_ADDRESS_TYPE)) {
+            return PduComposer.PDU_IPV6_ADDRESS_TYPE;
+        }
+        return PduComposer.PDU_UNKNOWN_ADDRESS_TYPE;
+    }
+
+    private static void check(String address) {
+        assertEquals("\"" + address + "\"",
+                expectedType(address), PduComposer.checkAddressType(address));
+        // Again, from the cache.
+        assertEquals("\"" + address + "\"",
+                expectedType(address), PduComposer.checkAddressType(address));
+    }
+
+    @Test
+    public void knownAddresses() {
+        assertEquals(PduComposer.PDU_UNKNOWN_ADDRESS_TYPE, PduComposer.checkAddressType(null));
+        String[] addresses = {
+            "", "+", "+15551234567", "555-123.4567", "1|2", "++1",
+            "10.0.0.1", "1.2.3", "1.2.3.4.5", "1234.1.1.1", "1..1.1",
+            "foo@example.com", "John Doe <john@example.com>", "<a@b.c>", "a@b.c>",
+            "a<@b.c", "a@b", "a@b.c.d", "a@@b.c", "@b.c", "a@.c", "a@b.",
+            "abcd:0000:1111:2222:3333:4444:5555:6666", "0bcd:0000:1111:2222:3333:4444:5555:6666",
+            "abcd:0000:1111:2222:3333:4444:5555:666", "abcd-0000:1111:2222:3333:4444:5555:6666",
+        };
+        for (String address : addresses) {
+            check(address);
+        }
+    }
+
+    @Test
+    public void randomAddresses() {
+        Random random = new Random(20081231);
+        for (int i = 0; i < ITERATIONS; i++) {
+            check(mutate(random, generate(random), random.nextInt(3)));
+        }
+    }
+
+    /**
+     * An address of one of the types, or random characters.
+     */
+    private static String generate(Random random) {
+        StringBuilder sb = new StringBuilder();
+        switch (random.nextInt(5)) {
+            case 0:
+                for (int group = 0; group < 4; group++) {
+                    if (group > 0) {
+                        sb.append('.');
+                    }
+                    sb.append(random.nextInt(1000));
+                }
+                break;
+            case 1:
+                if (random.nextBoolean()) {
+                    sb.append('+');
+                }
+                append(random, sb, "0123456789.-|", 1 + random.nextInt(15));
+                break;
+            case 2:
+                append(random, sb, "abcXYZ| ", random.nextInt(4));
+                if (random.nextBoolean()) {
+                    sb.append('<');
+                }
+                append(random, sb, "abcXYZ| ", 1 + random.nextInt(6));
+                sb.append('@');
+                append(random, sb, "abcXYZ| ", 1 + random.nextInt(6));
+                sb.append('.');
+                append(random, sb, "abcXYZ| ", 1 + random.nextInt(3));
+                if (random.nextBoolean()) {
+                    sb.append('>');
+                }
+                break;
+            case 3:
+                for (int group = 0; group < 8; group++) {
+                    if (group > 0) {
+                        sb.append(':');
+                    }
+                    append(random, sb, (group == 0) ? "abcdefABCDEF" : "0123456789abcdefABCDEF", 4);
+                }
+                break;
+            default:
+                append(random, sb, ALPHABET, random.nextInt(12));
+                break;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Insert, delete or replace some characters, or leave the address as it is.
+     */
+    private static String mutate(Random random, String address, int count) {
+        StringBuilder sb = new StringBuilder(address);
+        for (int i = 0; i < count; i++) {
+            int position = random.nextInt(sb.length() + 1);
+            char c = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+            switch (random.nextInt(4)) {
+                case 0:
+                    sb.insert(position, c);
+                    break;
+                case 1:
+                    if (position < sb.length()) {
+                        sb.deleteCharAt(position);
+                    }
+                    break;
+                case 2:
+                    if (position < sb.length()) {
+                        sb.setCharAt(position, c);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void append(Random random, StringBuilder sb, String characters, int count) {
+        for (int i = 0; i < count; i++) {
+            sb.append(characters.charAt(random.nextInt(characters.length())));
+        }
+    }
+}
@@ -17,11 +17,6 @@
 
 package com.google.android.mms.pdu;
 
-import android.content.ContentResolver;
-import android.content.Context;
-import android.util.Log;
-import android.text.TextUtils;
-
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -29,7 +24,13 @@ import java.io.InputStream;
 import java.util.Arrays;
 import java.util.HashMap;
 
-public class PduComposer {
+/**
+ * PduComposer as it was before it stopped copying the part data through
+ * its buffers, without the Android dependencies. Part data in a data
+ * source is read as the content resolver used to read the part uri. The
+ * tests check the messages PduComposer makes against this one.
+ */
+final class LegacyPduComposer {
     /**
      * Address type.
      */
@@ -102,11 +103,6 @@ public class PduComposer {
      */
     private BufferStack mStack = null;
 
-    /**
-     * Content resolver.
-     */
-    private final ContentResolver mResolver;
-
     /**
      * Header of this pdu.
      */
@@ -129,12 +125,10 @@ public class PduComposer {
     /**
      * Constructor.
      *
-     * @param context the context
      * @param pdu the pdu to be composed
      */
-    public PduComposer(Context context, GenericPdu pdu) {
+    public LegacyPduComposer(GenericPdu pdu) {
         mPdu = pdu;
-        mResolver = context.getContentResolver();
         mPduHeader = pdu.getPduHeaders();
         mStack = new BufferStack();
         mMessage = new ByteArrayOutputStream();
@@ -530,7 +524,7 @@ public class PduComposer {
 
                 EncodedStringValue from = mPduHeader.getEncodedStringValue(field);
                 if ((from == null)
-                        || TextUtils.isEmpty(from.getString())
+                        || (from.getString().length() == 0)
                         || new String(from.getTextString()).equals(
                                 PduHeaders.FROM_INSERT_ADDRESS_TOKEN_STR)) {
                     // Length of from = 1
@@ -988,7 +982,7 @@ public class PduComposer {
                 InputStream cr = null;
                 try {
                     byte[] buffer = new byte[PDU_COMPOSER_BLOCK_SIZE];
-                    cr = mResolver.openInputStream(part.getDataUri());
+                    cr = part.getDataSource().openStream();
                     int len = 0;
                     while ((len = cr.read(buffer)) != -1) {
                         mMessage.write(buffer, 0, len);
@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that PduClassifier.getNotificationLocation takes a notification
+ * only if PduParser parses it, on generated notifications.
+ */
+public class PduClassifierTest {
+    private static final int ITERATIONS = 20000;
+
+    private static final byte[] LOCATION =
+            "http://mmsc.example.com/mms/0123456789abcdef".getBytes();
+
+    /**
+     * @return the notification PduParser parses, null if none
+     */
+    private static NotificationInd parse(byte[] data) {
+        GenericPdu pdu = null;
+        try {
+            pdu = new PduParser(data, true).parse();
+        } catch (RuntimeException e) {
+            // As bad as no pdu.
+        }
+        return (pdu instanceof NotificationInd) ? (NotificationInd) pdu : null;
+    }
+
+    /**
+     * Check the classifier takes the notification only if the parser does,
+     * with the same content location.
+     *
+     * @param exact whether the classifier reads all of the headers, and so
+     *        must take the notification whenever the parser does
+     * @return whether the classifier took the notification
+     */
+    private static boolean check(byte[] data, boolean exact) {
+        byte[] location = PduClassifier.getNotificationLocation(data);
+        NotificationInd ind = parse(data);
+        if (location != null) {
+            assertNotNull(toString(data), ind);
+            assertArrayEquals(toString(data), ind.getContentLocation(), location);
+        } else if (exact) {
+            assertEquals(toString(data), null, ind);
+        }
+        return location != null;
+    }
+
+    @Test
+    public void knownNotification() {
+        assertTrue(check(PduCorpus.get(PduCorpus.NOTIFICATION_IND), true));
+        assertEquals(null, PduClassifier.getNotificationLocation(null));
+        assertEquals(null, PduClassifier.getNotificationLocation(
+                PduCorpus.get(PduCorpus.SEND_REQ_1)));
+    }
+
+    @Test
+    public void randomNotifications() {
+        Random random = new Random(20140613);
+        int taken = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            ArrayList<byte[]> headers = new ArrayList<byte[]>();
+            boolean exact = generate(random, headers);
+            Collections.shuffle(headers, random);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(PduHeaders.MESSAGE_TYPE);
+            out.write(PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND);
+            for (byte[] header : headers) {
+                out.write(header, 0, header.length);
+            }
+            byte[] data = out.toByteArray();
+            if (check(data, exact)) {
+                taken++;
+            }
+            check(mutate(random, data, 1 + random.nextInt(3)), false);
+        }
+        // A good part of the notifications have their mandatory headers.
+        assertTrue("taken " + taken, taken > ITERATIONS / 4);
+    }
+
+    /**
+     * Add the headers of a notification, each missing or invalid now and
+     * then.
+     *
+     * @return whether the classifier reads all of the headers
+     */
+    private static boolean generate(Random random, ArrayList<byte[]> headers) {
+        if (random.nextInt(20) > 0) {
+            headers.add(header(PduHeaders.TRANSACTION_ID).text(random, "T1234567890"));
+        }
+        if (random.nextInt(20) > 0) {
+            // Any version is taken.
+            headers.add(header(PduHeaders.MMS_VERSION)
+                    .octet(random.nextBoolean() ? PduHeaders.MMS_VERSION_1_2 | 0x80
+                            : random.nextInt(256)).toByteArray());
+        }
+        if (random.nextInt(20) > 0) {
+            Header header = header(PduHeaders.MESSAGE_CLASS);
+            if (random.nextBoolean()) {
+                header.octet(PduHeaders.MESSAGE_CLASS_PERSONAL + random.nextInt(5));
+                headers.add(header.toByteArray());
+            } else {
+                headers.add(header.text(random, "personal"));
+            }
+        }
+        if (random.nextInt(20) > 0) {
+            headers.add(header(PduHeaders.MESSAGE_SIZE)
+                    .longInteger(random, random.nextInt(100000)).toByteArray());
+        }
+        if (random.nextInt(20) > 0) {
+            Header value = new Header().octet(random.nextBoolean()
+                    ? PduHeaders.VALUE_RELATIVE_TOKEN : PduHeaders.VALUE_ABSOLUTE_TOKEN);
+            value.longInteger(random, random.nextInt(1000000));
+            headers.add(header(PduHeaders.EXPIRY).value(random, value).toByteArray());
+        }
+        if (random.nextInt(20) > 0) {
+            headers.add(header(PduHeaders.CONTENT_LOCATION).text(random, new String(LOCATION)));
+        }
+        if (random.nextInt(4) == 0) {
+            // A header replaced by a later one.
+            headers.add(header(PduHeaders.CONTENT_LOCATION).text(random, "http://other"));
+        }
+        if (random.nextBoolean()) {
+            Header value = new Header();
+            if (random.nextBoolean()) {
+                value.octet(PduHeaders.FROM_ADDRESS_PRESENT_TOKEN);
+                value.encodedString(random, "+15551234567");
+            } else {
+                value.octet(PduHeaders.FROM_INSERT_ADDRESS_TOKEN);
+            }
+            headers.add(header(PduHeaders.FROM).value(random, value).toByteArray());
+        }
+        if (random.nextBoolean()) {
+            headers.add(header(PduHeaders.SUBJECT).encodedString(random, "Hello").toByteArray());
+        }
+        if (random.nextInt(4) == 0) {
+            headers.add(header(PduHeaders.DELIVERY_REPORT)
+                    .octet(PduHeaders.VALUE_YES + random.nextInt(3)).toByteArray());
+        }
+        if (random.nextInt(4) == 0) {
+            headers.add(header(PduHeaders.PRIORITY)
+                    .octet(PduHeaders.PRIORITY_LOW + random.nextInt(4)).toByteArray());
+        }
+        if (random.nextInt(8) == 0) {
+            headers.add(new Header().bytes("X-Extra".getBytes()).octet(0).toByteArray());
+        }
+        if (random.nextInt(8) == 0) {
+            // Not a header.
+            headers.add(new Header().octet(1 + random.nextInt(31)).toByteArray());
+        }
+        if (random.nextInt(8) == 0) {
+            // Not read by the classifier.
+            headers.add(header(PduHeaders.DATE)
+                    .longInteger(random, 1400000000).toByteArray());
+            return false;
+        }
+        return true;
+    }
+
+    private static Header header(int field) {
+        return new Header().octet(field);
+    }
+
+    /**
+     * Insert, delete or replace some octets, or cut the pdu short.
+     */
+    private static byte[] mutate(Random random, byte[] data, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(data, 0, data.length);
+        byte[] result = out.toByteArray();
+        for (int i = 0; i < count; i++) {
+            int position = 2 + random.nextInt(result.length - 1);
+            byte[] next;
+            switch (random.nextInt(4)) {
+                case 0:
+                    next = new byte[result.length + 1];
+                    System.arraycopy(result, 0, next, 0, position);
+                    next[position] = (byte) random.nextInt(256);
+                    System.arraycopy(result, position, next, position + 1,
+                            result.length - position);
+                    break;
+                case 1:
+                    if (position >= result.length) {
+                        continue;
+                    }
+                    next = new byte[result.length - 1];
+                    System.arraycopy(result, 0, next, 0, position);
+                    System.arraycopy(result, position + 1, next, position,
+                            result.length - position - 1);
+                    break;
+                case 2:
+                    if (position >= result.length) {
+                        continue;
+                    }
+                    next = result;
+                    next[position] = (byte) random.nextInt(256);
+                    break;
+                default:
+                    next = new byte[position];
+                    System.arraycopy(result, 0, next, 0, position);
+                    break;
+            }
+            result = next;
+        }
+        return result;
+    }
+
+    private static String toString(byte[] data) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : data) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the encodings of a header, with variants PduParser reads
+     * as well.
+     */
+    private static class Header {
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+        Header octet(int value) {
+            mOut.write(value);
+            return this;
+        }
+
+        Header bytes(byte[] value) {
+            mOut.write(value, 0, value.length);
+            return this;
+        }
+
+        /**
+         * A Text-string: the text, quoted or not, or an empty one, or one
+         * of control characters only.
+         */
+        byte[] text(Random random, String text) {
+            switch (random.nextInt(16)) {
+                case 0:
+                    break;
+                case 1:
+                    octet(0x0a).octet(0x01);
+                    break;
+                case 2:
+                    octet(0x7f).bytes(text.getBytes());
+                    break;
+                case 3:
+                    octet(0x7f).octet(0xe9).bytes(text.getBytes());
+                    break;
+                default:
+                    bytes(text.getBytes());
+                    break;
+            }
+            return octet(0).toByteArray();
+        }
+
+        /**
+         * A Long-integer, of the fewest octets or of more, or too long for
+         * PduParser.
+         */
+        Header longInteger(Random random, long value) {
+            int size;
+            switch (random.nextInt(20)) {
+                case 0:
+                    size = 9;
+                    break;
+                case 1:
+                    size = 8;
+                    if (random.nextBoolean()) {
+                        value = -1;
+                    }
+                    break;
+                default:
+                    size = 0;
+                    for (long temp = value; temp != 0; temp >>>= 8) {
+                        size++;
+                    }
+                    break;
+            }
+            octet(size);
+            for (int i = size - 1; i >= 0; i--) {
+                octet((i < 8) ? (int) (value >>> (8 * i)) & 0xff : 0);
+            }
+            return this;
+        }
+
+        /**
+         * A value with its Value-length, as a Short-length or a Uintvar,
+         * or a wrong length as PduParser does not check it.
+         */
+        Header value(Random random, Header value) {
+            int length = value.mOut.size();
+            switch (random.nextInt(4)) {
+                case 0:
+                    octet(31).octet(length);
+                    break;
+                case 1:
+                    octet(31).octet(0x80).octet(length);
+                    break;
+                case 2:
+                    // Not 0, which starts an empty Encoded-string-value.
+                    octet(1 + random.nextInt(30));
+                    break;
+                default:
+                    octet(length);
+                    break;
+            }
+            return bytes(value.toByteArray());
+        }
+
+        /**
+         * An Encoded-string-value: a Text-string, with its charset or not,
+         * or an empty one.
+         */
+        Header encodedString(Random random, String text) {
+            switch (random.nextInt(3)) {
+                case 0:
+                    return octet(0);
+                case 1:
+                    return value(random, new Header()
+                            .octet(CharacterSets.UTF_8 | 0x80)
+                            .bytes(new Header().text(random, text)));
+                default:
+                    return bytes(new Header().text(random, text));
+            }
+        }
+
+        byte[] toByteArray() {
+            return mOut.toByteArray();
+        }
+    }
+}
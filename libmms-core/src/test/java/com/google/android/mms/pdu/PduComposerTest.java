@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the messages PduComposer makes against the ones of
+ * LegacyPduComposer, on the pdus of PduCorpus.
+ */
+public class PduComposerTest {
+    private final ArrayList<File> mFiles = new ArrayList<File>();
+
+    @After
+    public void tearDown() {
+        for (File file : mFiles) {
+            file.delete();
+        }
+    }
+
+    /**
+     * Check make(), make(OutputStream) and make(WritableByteChannel)
+     * against the legacy composer.
+     */
+    private static void check(GenericPdu pdu) throws IOException {
+        byte[] expected = new LegacyPduComposer(pdu).make();
+        assertArrayEquals(expected, new PduComposer(pdu).make());
+        assertArrayEquals(expected, PduComposer.getThreadComposer().reset(pdu).make());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new PduComposer(pdu).make(out);
+        assertArrayEquals(expected, out.toByteArray());
+
+        out = new ByteArrayOutputStream();
+        WritableByteChannel channel = Channels.newChannel(out);
+        new PduComposer(pdu).make(channel);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    /**
+     * @return a copy of the part headers, with the data in source
+     */
+    private static PduPart withDataSource(PduPart part, PartDataSource source) {
+        PduPart copy = new PduPart();
+        copy.setContentType(part.getContentType());
+        if (part.getCharset() != 0) {
+            copy.setCharset(part.getCharset());
+        }
+        if (part.getContentId() != null) {
+            copy.setContentId(part.getContentId());
+        }
+        copy.setContentLocation(part.getContentLocation());
+        copy.setDataSource(source);
+        return copy;
+    }
+
+    @Test
+    public void testSendReq() throws IOException {
+        check(PduCorpus.getSendReq(PduCorpus.SEND_REQ_1));
+        check(PduCorpus.getSendReq(PduCorpus.SEND_REQ_10));
+        check(PduCorpus.getSendReq(PduCorpus.SEND_REQ_50));
+    }
+
+    @Test
+    public void testLargeSendReq() throws IOException {
+        check(PduCorpus.getSendReq(PduCorpus.SEND_REQ_1MB));
+        check(PduCorpus.getSendReq(PduCorpus.SEND_REQ_10MB));
+    }
+
+    @Test
+    public void testFileDataSource() throws IOException {
+        SendReq req = PduCorpus.getSendReq(PduCorpus.SEND_REQ_10);
+        PduBody body = req.getBody();
+        PduBody sources = new PduBody();
+        for (int i = 0; i < body.getPartsNum(); i++) {
+            PduPart part = body.getPart(i);
+            File file = File.createTempFile("part", ".dat");
+            mFiles.add(file);
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(part.getData());
+            } finally {
+                out.close();
+            }
+            sources.addPart(withDataSource(part, new FilePartDataSource(file)));
+        }
+        req.setBody(sources);
+        check(req);
+    }
+
+    @Test
+    public void testUnknownLengthDataSource() throws IOException {
+        SendReq req = PduCorpus.getSendReq(PduCorpus.SEND_REQ_10);
+        PduBody body = req.getBody();
+        PduBody sources = new PduBody();
+        for (int i = 0; i < body.getPartsNum(); i++) {
+            PduPart part = body.getPart(i);
+            final byte[] data = part.getData();
+            sources.addPart(withDataSource(part, new PartDataSource() {
+                public long getLength() {
+                    return -1;
+                }
+
+                public InputStream openStream() {
+                    return new ByteArrayInputStream(data);
+                }
+
+                public void transferTo(WritableByteChannel out, long length) {
+                    throw new UnsupportedOperationException();
+                }
+            }));
+        }
+        req.setBody(sources);
+        check(req);
+    }
+
+    @Test
+    public void testMissingDataSource() throws IOException {
+        SendReq req = PduCorpus.getSendReq(PduCorpus.SEND_REQ_10);
+        File file = File.createTempFile("part", ".dat");
+        file.delete();
+        PduPart part = req.getBody().getPart(2);
+        req.getBody().addPart(withDataSource(part, new FilePartDataSource(file)));
+
+        assertNull(new LegacyPduComposer(req).make());
+        assertNull(new PduComposer(req).make());
+    }
+
+    @Test
+    public void testIndications() throws Exception {
+        check(new NotifyRespInd(PduHeaders.MMS_VERSION_1_2, "T1234567890".getBytes(),
+                PduHeaders.STATUS_RETRIEVED));
+        check(new AcknowledgeInd(PduHeaders.MMS_VERSION_1_2, "T1234567890".getBytes()));
+        check(new ReadRecInd(new EncodedStringValue("+15551234567"),
+                "0123456789abcdef@mmsc.example.com".getBytes(), PduHeaders.MMS_VERSION_1_2,
+                PduHeaders.READ_STATUS_READ,
+                new EncodedStringValue[] { new EncodedStringValue("+15557654321") }));
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import com.google.android.mms.ContentType;
+import com.google.android.mms.InvalidHeaderValueException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+/**
+ * Synthetic pdus for the tests and benchmarks. Send-reqs are made by PduComposer;
+ * the pdus PduComposer can't make are written field by field.
+ */
+public final class PduCorpus {
+    public static final String NOTIFICATION_IND = "notification-ind";
+    public static final String SEND_REQ_1 = "send-req-1";
+    public static final String SEND_REQ_10 = "send-req-10";
+    public static final String SEND_REQ_50 = "send-req-50";
+    public static final String SEND_REQ_1MB = "send-req-1mb";
+    public static final String SEND_REQ_10MB = "send-req-10mb";
+    public static final String RETRIEVE_CONF_ALTERNATIVE = "retrieve-conf-alternative";
+    public static final String RETRIEVE_CONF_BASE64_10 = "retrieve-conf-base64-10";
+    public static final String RETRIEVE_CONF_BASE64_1MB = "retrieve-conf-base64-1mb";
+    public static final String RETRIEVE_CONF_BASE64_10MB = "retrieve-conf-base64-10mb";
+
+    /**
+     * Size of the image parts of send-reqs.
+     */
+    static final int IMAGE_SIZE = 16 * 1024;
+
+    /**
+     * A megabyte, the unit of the image sizes of the large pdus.
+     */
+    static final int MB = 1024 * 1024;
+
+    /**
+     * The text of the corpus, in several scripts.
+     */
+    static final String LATIN_TEXT = "Hello, are we still on for dinner at 8? Bring the photos.";
+    static final String ACCENTED_TEXT = "Caf\u00e9 cr\u00e8me br\u00fbl\u00e9e \u00e0 la fran\u00e7aise.";
+    static final String JAPANESE_TEXT = "\u4eca\u65e5\u306f\u3044\u3044\u5929\u6c17\u3067\u3059\u306d\u3002";
+
+    private PduCorpus() {
+    }
+
+    /**
+     * @param name one of the pdu names of this class
+     * @return the encoded pdu
+     */
+    public static byte[] get(String name) {
+        if (NOTIFICATION_IND.equals(name)) {
+            return notificationInd();
+        } else if (SEND_REQ_1.equals(name)) {
+            return sendReqPdu(1);
+        } else if (SEND_REQ_10.equals(name)) {
+            return sendReqPdu(10);
+        } else if (SEND_REQ_50.equals(name)) {
+            return sendReqPdu(50);
+        } else if (SEND_REQ_1MB.equals(name) || SEND_REQ_10MB.equals(name)) {
+            return newComposer(getSendReq(name)).make();
+        } else if (RETRIEVE_CONF_ALTERNATIVE.equals(name)) {
+            return retrieveConf();
+        } else if (RETRIEVE_CONF_BASE64_10.equals(name)) {
+            return base64RetrieveConf(10, IMAGE_SIZE);
+        } else if (RETRIEVE_CONF_BASE64_1MB.equals(name)) {
+            return base64RetrieveConf(1, MB);
+        } else if (RETRIEVE_CONF_BASE64_10MB.equals(name)) {
+            return base64RetrieveConf(1, 10 * MB);
+        }
+        throw new IllegalArgumentException("Unknown pdu " + name);
+    }
+
+    /**
+     * @return a composer for the pdu
+     */
+    public static PduComposer newComposer(GenericPdu pdu) {
+        return new PduComposer(pdu);
+    }
+
+    /**
+     * @param name one of the send-req names of this class
+     * @return the send-req
+     */
+    public static SendReq getSendReq(String name) {
+        if (SEND_REQ_1.equals(name)) {
+            return sendReq(1);
+        } else if (SEND_REQ_10.equals(name)) {
+            return sendReq(10);
+        } else if (SEND_REQ_50.equals(name)) {
+            return sendReq(50);
+        } else if (SEND_REQ_1MB.equals(name)) {
+            return sendReq(3, MB);
+        } else if (SEND_REQ_10MB.equals(name)) {
+            return sendReq(3, 10 * MB);
+        }
+        throw new IllegalArgumentException("Unknown send-req " + name);
+    }
+
+    /**
+     * A send-req with a SMIL part, a text part and image parts.
+     *
+     * @param parts the number of parts
+     */
+    public static SendReq sendReq(int parts) {
+        return sendReq(parts, IMAGE_SIZE);
+    }
+
+    /**
+     * A send-req with a SMIL part, a text part and image parts.
+     *
+     * @param parts the number of parts
+     * @param imageSize the size of each image
+     */
+    public static SendReq sendReq(int parts, int imageSize) {
+        SendReq req = new SendReq();
+        req.setTransactionId("T1234567890".getBytes());
+        req.setFrom(new EncodedStringValue(PduHeaders.FROM_INSERT_ADDRESS_TOKEN_STR));
+        req.addTo(new EncodedStringValue("+15551234567"));
+        req.addTo(new EncodedStringValue("+15557654321"));
+        req.addCc(new EncodedStringValue("someone@example.com"));
+        req.setSubject(new EncodedStringValue(CharacterSets.UTF_8, utf8(ACCENTED_TEXT)));
+        req.setDate(1234567890L);
+        req.setExpiry(7 * 24 * 60 * 60);
+        try {
+            req.setPriority(PduHeaders.PRIORITY_NORMAL);
+            req.setDeliveryReport(PduHeaders.VALUE_NO);
+            req.setReadReport(PduHeaders.VALUE_NO);
+        } catch (InvalidHeaderValueException e) {
+            throw new AssertionError(e);
+        }
+
+        PduBody body = new PduBody();
+        PduPart smil = new PduPart();
+        smil.setContentType("application/smil".getBytes());
+        smil.setContentId("<smil>".getBytes());
+        smil.setContentLocation("smil.xml".getBytes());
+        smil.setData("<smil><body><par dur=\"5000ms\"/></body></smil>".getBytes());
+        body.addPart(smil);
+
+        for (int i = 1; i < parts; i++) {
+            PduPart part = new PduPart();
+            if (i % 2 == 1) {
+                part.setContentType("text/plain".getBytes());
+                part.setCharset(CharacterSets.UTF_8);
+                part.setContentLocation(("text_" + i + ".txt").getBytes());
+                part.setData(utf8(JAPANESE_TEXT));
+            } else {
+                part.setContentType("image/jpeg".getBytes());
+                part.setContentLocation(("image_" + i + ".jpg").getBytes());
+                part.setContentId(("<image_" + i + ">").getBytes());
+                part.setData(image(imageSize, i));
+            }
+            body.addPart(part);
+        }
+        req.setBody(body);
+        return req;
+    }
+
+    /**
+     * @return image data, a pattern depending on seed
+     */
+    static byte[] image(int size, int seed) {
+        byte[] data = new byte[size];
+        for (int j = 0; j < data.length; j++) {
+            data[j] = (byte) (j * 31 + seed);
+        }
+        return data;
+    }
+
+    private static byte[] sendReqPdu(int parts) {
+        return newComposer(sendReq(parts)).make();
+    }
+
+    private static byte[] notificationInd() {
+        Writer w = new Writer();
+        w.octet(PduHeaders.MESSAGE_TYPE).octet(PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND);
+        w.octet(PduHeaders.TRANSACTION_ID).textString("T1234567890".getBytes());
+        w.octet(PduHeaders.MMS_VERSION).octet(PduHeaders.MMS_VERSION_1_2);
+        w.octet(PduHeaders.FROM).value(new Writer()
+                .octet(PduHeaders.FROM_ADDRESS_PRESENT_TOKEN)
+                .textString("+15551234567".getBytes()));
+        w.octet(PduHeaders.SUBJECT).encodedString(CharacterSets.UTF_8, utf8(ACCENTED_TEXT));
+        w.octet(PduHeaders.MESSAGE_CLASS).octet(PduHeaders.MESSAGE_CLASS_PERSONAL);
+        w.octet(PduHeaders.MESSAGE_SIZE).longInteger(54321);
+        w.octet(PduHeaders.EXPIRY).value(new Writer()
+                .octet(PduHeaders.VALUE_RELATIVE_TOKEN)
+                .longInteger(604800));
+        w.octet(PduHeaders.CONTENT_LOCATION)
+                .textString("http://mmsc.example.com/mms/0123456789abcdef".getBytes());
+        return w.toByteArray();
+    }
+
+    /**
+     * A retrieve-conf of a multipart/alternative part with the text in
+     * several charsets, and an image.
+     */
+    private static byte[] retrieveConf() {
+        Writer w = new Writer();
+        w.octet(PduHeaders.MESSAGE_TYPE).octet(PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF);
+        w.octet(PduHeaders.TRANSACTION_ID).textString("T1234567890".getBytes());
+        w.octet(PduHeaders.MMS_VERSION).octet(PduHeaders.MMS_VERSION_1_2);
+        w.octet(PduHeaders.MESSAGE_ID).textString("0123456789abcdef@mmsc.example.com".getBytes());
+        w.octet(PduHeaders.DATE).longInteger(1234567890L);
+        w.octet(PduHeaders.FROM).value(new Writer()
+                .octet(PduHeaders.FROM_ADDRESS_PRESENT_TOKEN)
+                .textString("+15551234567".getBytes()));
+        w.octet(PduHeaders.TO).encodedString(CharacterSets.US_ASCII, "+15557654321".getBytes());
+        w.octet(PduHeaders.SUBJECT).encodedString(CharacterSets.SHIFT_JIS,
+                encode(JAPANESE_TEXT, "Shift_JIS"));
+        w.octet(PduHeaders.MESSAGE_CLASS).octet(PduHeaders.MESSAGE_CLASS_PERSONAL);
+        w.octet(PduHeaders.PRIORITY).octet(PduHeaders.PRIORITY_NORMAL);
+        w.octet(PduHeaders.CONTENT_TYPE).shortInteger(
+                contentTypeIndex(ContentType.MULTIPART_MIXED));
+
+        Writer alternative = new Writer();
+        alternative.uintvar(4);
+        alternative.part(ContentType.TEXT_PLAIN, CharacterSets.US_ASCII,
+                encode(LATIN_TEXT, "US-ASCII"));
+        alternative.part(ContentType.TEXT_PLAIN, CharacterSets.ISO_8859_1,
+                encode(ACCENTED_TEXT, "ISO-8859-1"));
+        alternative.part(ContentType.TEXT_PLAIN, CharacterSets.SHIFT_JIS,
+                encode(JAPANESE_TEXT, "Shift_JIS"));
+        alternative.part(ContentType.TEXT_HTML, CharacterSets.UTF_8,
+                utf8("<p>" + JAPANESE_TEXT + "</p>"));
+
+        byte[] image = image(IMAGE_SIZE, 0);
+
+        w.uintvar(2);
+        w.part(ContentType.MULTIPART_ALTERNATIVE, 0, alternative.toByteArray());
+        w.part(ContentType.IMAGE_JPEG, 0, image);
+        return w.toByteArray();
+    }
+
+    /**
+     * A retrieve-conf of base64 encoded images, as some gateways send.
+     * Image i is image(imageSize, i).
+     */
+    static byte[] base64RetrieveConf(int parts, int imageSize) {
+        Writer w = new Writer();
+        w.octet(PduHeaders.MESSAGE_TYPE).octet(PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF);
+        w.octet(PduHeaders.TRANSACTION_ID).textString("T1234567890".getBytes());
+        w.octet(PduHeaders.MMS_VERSION).octet(PduHeaders.MMS_VERSION_1_2);
+        w.octet(PduHeaders.MESSAGE_ID).textString("0123456789abcdef@mmsc.example.com".getBytes());
+        w.octet(PduHeaders.DATE).longInteger(1234567890L);
+        w.octet(PduHeaders.FROM).value(new Writer()
+                .octet(PduHeaders.FROM_ADDRESS_PRESENT_TOKEN)
+                .textString("+15551234567".getBytes()));
+        w.octet(PduHeaders.TO).encodedString(CharacterSets.US_ASCII, "+15557654321".getBytes());
+        w.octet(PduHeaders.CONTENT_TYPE).shortInteger(
+                contentTypeIndex(ContentType.MULTIPART_MIXED));
+
+        w.uintvar(parts);
+        for (int i = 0; i < parts; i++) {
+            w.base64Part(ContentType.IMAGE_JPEG, image(imageSize, i));
+        }
+        return w.toByteArray();
+    }
+
+    private static int contentTypeIndex(String contentType) {
+        return Arrays.asList(PduContentTypes.contentTypes).indexOf(contentType);
+    }
+
+    static byte[] utf8(String text) {
+        return encode(text, "UTF-8");
+    }
+
+    static byte[] encode(String text, String charset) {
+        try {
+            return text.getBytes(charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Writes the WSP encodings of the pdu fields, see wap-230-wsp-20010705-a.
+     */
+    private static class Writer {
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+        Writer octet(int value) {
+            mOut.write(value);
+            return this;
+        }
+
+        Writer shortInteger(int value) {
+            return octet((value | 0x80) & 0xff);
+        }
+
+        Writer longInteger(long value) {
+            int size = 0;
+            for (long temp = value; temp != 0; temp >>>= 8) {
+                size++;
+            }
+            octet(Math.max(size, 1));
+            for (int i = Math.max(size, 1) - 1; i >= 0; i--) {
+                octet((int) (value >>> (8 * i)) & 0xff);
+            }
+            return this;
+        }
+
+        Writer integer(long value) {
+            return (value < 0x80) ? shortInteger((int) value) : longInteger(value);
+        }
+
+        Writer uintvar(long value) {
+            int shift = 0;
+            while ((value >>> (shift + 7)) != 0) {
+                shift += 7;
+            }
+            for (; shift > 0; shift -= 7) {
+                octet((int) ((value >>> shift) & 0x7f) | 0x80);
+            }
+            return octet((int) (value & 0x7f));
+        }
+
+        Writer valueLength(int length) {
+            if (length < 31) {
+                return octet(length);
+            }
+            return octet(31).uintvar(length);
+        }
+
+        Writer textString(byte[] text) {
+            if ((text.length > 0) && ((text[0] & 0xff) > 0x7f)) {
+                octet(0x7f); // Quote
+            }
+            bytes(text);
+            return octet(0);
+        }
+
+        Writer encodedString(int charset, byte[] text) {
+            return value(new Writer().integer(charset).textString(text));
+        }
+
+        /**
+         * A value with its Value-length.
+         */
+        Writer value(Writer value) {
+            return valueLength(value.mOut.size()).bytes(value.toByteArray());
+        }
+
+        /**
+         * A part with its content type, the charset as parameter if not 0,
+         * and a Content-Location header.
+         */
+        Writer part(String contentType, int charset, byte[] data) {
+            Writer type = new Writer();
+            int index = contentTypeIndex(contentType);
+            if (index >= 0) {
+                type.shortInteger(index);
+            } else {
+                type.textString(contentType.getBytes());
+            }
+
+            Writer headers = new Writer();
+            if (charset != 0) {
+                headers.value(type.octet(PduPart.P_CHARSET).integer(charset));
+            } else {
+                headers.bytes(type.toByteArray());
+            }
+            headers.octet(PduPart.P_CONTENT_LOCATION)
+                    .textString(("part_" + mOut.size()).getBytes());
+
+            uintvar(headers.mOut.size()).uintvar(data.length);
+            return bytes(headers.toByteArray()).bytes(data);
+        }
+
+        /**
+         * A part with its content type, and its data base64 encoded.
+         */
+        Writer base64Part(String contentType, byte[] data) {
+            Writer headers = new Writer()
+                    .shortInteger(contentTypeIndex(contentType))
+                    .octet(PduPart.P_CONTENT_LOCATION)
+                    .textString(("part_" + mOut.size()).getBytes());
+            headers.textString(PduPart.CONTENT_TRANSFER_ENCODING.getBytes())
+                    .textString(PduPart.P_BASE64.getBytes());
+
+            byte[] encoded = Base64.encodeBase64(data);
+            uintvar(headers.mOut.size()).uintvar(encoded.length);
+            return bytes(headers.toByteArray()).bytes(encoded);
+        }
+
+        Writer bytes(byte[] data) {
+            mOut.write(data, 0, data.length);
+            return this;
+        }
+
+        byte[] toByteArray() {
+            return mOut.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parses the pdus of PduCorpus and checks their bodies.
+ */
+public class PduParserTest {
+    /**
+     * The multipart pdus of the corpus.
+     */
+    private static final String[] MULTIPART = {
+        PduCorpus.SEND_REQ_10,
+        PduCorpus.SEND_REQ_50,
+        PduCorpus.RETRIEVE_CONF_ALTERNATIVE,
+        PduCorpus.RETRIEVE_CONF_BASE64_10
+    };
+
+    private static PduBody parseBody(byte[] data) {
+        return parseBody(data, null);
+    }
+
+    private static PduBody parseBody(byte[] data, Executor executor) {
+        PduParser parser = new PduParser(data, true);
+        parser.setDecodeExecutor(executor);
+        GenericPdu pdu = parser.parse();
+        assertNotNull(pdu);
+        assertTrue(pdu instanceof MultimediaMessagePdu);
+        return ((MultimediaMessagePdu) pdu).getBody();
+    }
+
+    /**
+     * Check the images of a base64 retrieve-conf are decoded, which needs
+     * the Content-Transfer-Encoding part header to be read by its name.
+     */
+    private static void checkBase64(int parts, int imageSize) {
+        PduBody body = parseBody(PduCorpus.base64RetrieveConf(parts, imageSize));
+        assertEquals(parts, body.getPartsNum());
+        for (int i = 0; i < parts; i++) {
+            PduPart part = body.getPart(i);
+            assertEquals(PduPart.P_BASE64, new String(part.getContentTransferEncoding()));
+            assertArrayEquals(PduCorpus.image(imageSize, i), part.getData());
+        }
+    }
+
+    private static void checkSendReq(String name) {
+        PduBody expected = PduCorpus.getSendReq(name).getBody();
+        PduBody body = parseBody(PduCorpus.get(name));
+        assertEquals(expected.getPartsNum(), body.getPartsNum());
+        for (int i = 0; i < body.getPartsNum(); i++) {
+            assertArrayEquals(expected.getPart(i).getContentLocation(),
+                    body.getPart(i).getContentLocation());
+            assertArrayEquals(expected.getPart(i).getData(), body.getPart(i).getData());
+        }
+    }
+
+    private static void assertBodyEquals(String name, PduBody expected, PduBody body) {
+        assertEquals(name, expected.getPartsNum(), body.getPartsNum());
+        for (int i = 0; i < body.getPartsNum(); i++) {
+            PduPart expectedPart = expected.getPart(i);
+            PduPart part = body.getPart(i);
+            assertArrayEquals(name, expectedPart.getContentType(), part.getContentType());
+            assertArrayEquals(name, expectedPart.getContentLocation(),
+                    part.getContentLocation());
+            assertEquals(name, expectedPart.getCharset(), part.getCharset());
+            assertArrayEquals(name, expectedPart.getData(), part.getData());
+        }
+    }
+
+    /**
+     * Check that decoding the parts on the executor gives the body decoded
+     * on the calling thread.
+     */
+    private static void checkExecutor(Executor executor) {
+        for (String name : MULTIPART) {
+            byte[] data = PduCorpus.get(name);
+            assertBodyEquals(name, parseBody(data), parseBody(data, executor));
+        }
+    }
+
+    @Test
+    public void testDecodeExecutor() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            checkExecutor(executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDecodeExecutorNeverRunning() {
+        // Queues the tasks without ever running them, as a pool busy with
+        // other pdus would for a while.
+        final ArrayList<Runnable> queued = new ArrayList<Runnable>();
+        checkExecutor(new Executor() {
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        assertTrue(queued.size() > 0);
+    }
+
+    @Test
+    public void testContentTransferEncoding() {
+        checkBase64(10, PduCorpus.IMAGE_SIZE);
+    }
+
+    /**
+     * Check textual part headers are read by their name as encoded, the
+     * name starting at the first octet, and the headers after them too.
+     */
+    @Test
+    public void testTextualPartHeaders() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] gateway = "X-Gateway-Id\u000012345\u0000".getBytes();
+        out.write(gateway, 0, gateway.length);
+        byte[] encoding = "Content-Transfer-Encoding\u0000quoted-printable\u0000".getBytes();
+        out.write(encoding, 0, encoding.length);
+        out.write(PduPart.P_CONTENT_LOCATION);
+        byte[] location = "image.jpg\u0000".getBytes();
+        out.write(location, 0, location.length);
+        byte[] headers = out.toByteArray();
+
+        PduPart part = new PduPart();
+        assertTrue(new PduParser(new byte[0], true).parsePartHeaders(
+                new ByteArrayInputStream(headers), part, headers.length));
+        assertArrayEquals(PduPart.P_QUOTED_PRINTABLE.getBytes(),
+                part.getContentTransferEncoding());
+        assertArrayEquals("image.jpg".getBytes(), part.getContentLocation());
+    }
+
+    @Test
+    public void testSendReq() {
+        checkSendReq(PduCorpus.SEND_REQ_1);
+        checkSendReq(PduCorpus.SEND_REQ_10);
+        checkSendReq(PduCorpus.SEND_REQ_50);
+    }
+
+    @Test
+    public void testLargePdus() {
+        checkSendReq(PduCorpus.SEND_REQ_1MB);
+        checkSendReq(PduCorpus.SEND_REQ_10MB);
+        checkBase64(1, PduCorpus.MB);
+        checkBase64(1, 10 * PduCorpus.MB);
+    }
+}
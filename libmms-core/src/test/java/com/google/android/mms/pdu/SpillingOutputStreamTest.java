@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks when SpillingOutputStream spills its data to a file, reading the
+ * data back, and that the file is always deleted.
+ */
+public class SpillingOutputStreamTest {
+    private static final int THRESHOLD = 100;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("spill", null);
+        assertTrue(mDirectory.delete());
+        assertTrue(mDirectory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private int spilledFiles() {
+        return mDirectory.list().length;
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] array = new byte[buffer.remaining()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+
+    @Test
+    public void testBelowThreshold() throws IOException {
+        SpillingOutputStream out = new SpillingOutputStream(THRESHOLD, mDirectory);
+        byte[] data = data(THRESHOLD - 1);
+        out.write(data, 0, data.length);
+        assertEquals(0, spilledFiles());
+
+        ByteBuffer buffer = out.toByteBuffer();
+        assertFalse(buffer instanceof MappedByteBuffer);
+        assertTrue(buffer.isReadOnly());
+        assertArrayEquals(data, toArray(buffer));
+    }
+
+    @Test
+    public void testEqualToThreshold() throws IOException {
+        SpillingOutputStream out = new SpillingOutputStream(THRESHOLD, mDirectory);
+        byte[] data = data(THRESHOLD);
+        out.write(data, 0, 60);
+        out.write(data, 60, THRESHOLD - 60);
+        assertEquals(0, spilledFiles());
+
+        ByteBuffer buffer = out.toByteBuffer();
+        assertFalse(buffer instanceof MappedByteBuffer);
+        assertArrayEquals(data, toArray(buffer));
+    }
+
+    @Test
+    public void testCrossingThreshold() throws IOException {
+        SpillingOutputStream out = new SpillingOutputStream(THRESHOLD, mDirectory);
+        byte[] data = data(THRESHOLD * 3);
+        out.write(data, 0, THRESHOLD);
+        assertEquals(0, spilledFiles());
+        out.write(data[THRESHOLD]);
+        assertEquals(1, spilledFiles());
+        out.write(data, THRESHOLD + 1, data.length - THRESHOLD - 1);
+
+        ByteBuffer buffer = out.toByteBuffer();
+        assertTrue(buffer instanceof MappedByteBuffer);
+        assertTrue(buffer.isReadOnly());
+        assertArrayEquals(data, toArray(buffer));
+        // Deleted once mapped.
+        assertEquals(0, spilledFiles());
+    }
+
+    @Test
+    public void testZeroThreshold() throws IOException {
+        SpillingOutputStream out = new SpillingOutputStream(0, mDirectory);
+        byte[] data = data(10);
+        out.write(data, 0, data.length);
+        assertEquals(1, spilledFiles());
+        assertArrayEquals(data, toArray(out.toByteBuffer()));
+        assertEquals(0, spilledFiles());
+    }
+
+    @Test
+    public void testCloseDeletesFile() throws IOException {
+        SpillingOutputStream out = new SpillingOutputStream(THRESHOLD, mDirectory);
+        byte[] data = data(THRESHOLD + 1);
+        out.write(data, 0, data.length);
+        assertEquals(1, spilledFiles());
+
+        out.close();
+        assertEquals(0, spilledFiles());
+        try {
+            out.write(data, 0, data.length);
+            fail("Written after close");
+        } catch (IOException e) {
+            // Expected.
+        }
+        try {
+            out.toByteBuffer();
+            fail("Read after close");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testReadFailureDeletesFile() throws IOException {
+        SpillingOutputStream out = new SpillingOutputStream(THRESHOLD, mDirectory);
+        byte[] data = data(THRESHOLD + 1);
+        out.write(data, 0, data.length);
+        File[] files = mDirectory.listFiles();
+        assertEquals(1, files.length);
+
+        // Put a directory in place of the file, which can't be mapped.
+        assertTrue(files[0].delete());
+        assertTrue(files[0].mkdir());
+        try {
+            out.toByteBuffer();
+            fail("Read a directory");
+        } catch (IOException e) {
+            // Expected.
+        }
+        assertEquals(0, spilledFiles());
+    }
+}
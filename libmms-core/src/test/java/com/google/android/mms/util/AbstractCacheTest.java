@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the eviction order, the size budget and the counters of
+ * AbstractCache with each of the eviction policies.
+ */
+public class AbstractCacheTest {
+    /**
+     * A cache whose values are the sizes of their entries, and which
+     * records the evicted keys.
+     */
+    private static class SizedCache extends AbstractCache<String, Integer> {
+        final ArrayList<String> evicted = new ArrayList<String>();
+
+        SizedCache(EvictionPolicy<String> policy, long capacity) {
+            super(policy, capacity);
+        }
+
+        @Override
+        protected long sizeOf(String key, Integer value) {
+            return value;
+        }
+
+        @Override
+        protected void onEvicted(String key, Integer value) {
+            evicted.add(key);
+        }
+    }
+
+    @Test
+    public void testLruOrder() {
+        SizedCache cache = new SizedCache(new LruPolicy<String>(), 3);
+        cache.put("a", 1);
+        cache.put("b", 1);
+        cache.put("c", 1);
+        assertNotNull(cache.get("a"));
+        cache.put("d", 1);
+        cache.put("e", 1);
+
+        assertEquals(Arrays.asList("b", "c"), cache.evicted);
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertEquals(3, cache.size());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testLruSize() {
+        SizedCache cache = new SizedCache(new LruPolicy<String>(), 10);
+        cache.put("a", 4);
+        cache.put("b", 4);
+        cache.put("c", 4);
+        assertEquals(Arrays.asList("a"), cache.evicted);
+        assertEquals(8, cache.getTotalSize());
+
+        // Larger than the whole cache.
+        assertFalse(cache.put("big", 11));
+        assertEquals(8, cache.getTotalSize());
+
+        assertTrue(cache.put("d", 9));
+        assertEquals(Arrays.asList("a", "b", "c"), cache.evicted);
+        assertEquals(9, cache.getTotalSize());
+
+        // Replacing an entry is not an eviction.
+        assertTrue(cache.put("d", 2));
+        assertEquals(2, cache.getTotalSize());
+        assertEquals(3, cache.getEvictionCount());
+
+        assertNull(cache.purge("x"));
+        assertEquals(Integer.valueOf(2), cache.purge("d"));
+        assertEquals(0, cache.getTotalSize());
+        assertEquals(3, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testLfuOrder() {
+        SizedCache cache = new SizedCache(new LfuPolicy<String>(), 3);
+        cache.put("a", 1);
+        cache.put("b", 1);
+        cache.put("c", 1);
+        cache.get("a");
+        cache.get("a");
+        cache.get("b");
+        cache.put("d", 1);
+        assertEquals(Arrays.asList("c"), cache.evicted);
+
+        // The least recently used of the least hit entries goes first.
+        cache.put("e", 1);
+        assertEquals(Arrays.asList("c", "d"), cache.evicted);
+
+        assertEquals(3, cache.getHitCount());
+        assertNull(cache.get("c"));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testLfuSize() {
+        SizedCache cache = new SizedCache(new LfuPolicy<String>(), 10);
+        cache.put("a", 5);
+        cache.put("b", 3);
+        cache.put("c", 2);
+        cache.get("a");
+        cache.get("a");
+        cache.get("c");
+
+        // b is evicted first, then d itself, as it has no hits yet.
+        assertFalse(cache.put("d", 4));
+        assertEquals(Arrays.asList("b", "d"), cache.evicted);
+        assertEquals(7, cache.getTotalSize());
+        assertEquals(2, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testTinyLfuScanResistance() {
+        SizedCache cache = new SizedCache(new TinyLfuPolicy<String>(1024), 100);
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, 1);
+        }
+        assertTrue(cache.evicted.isEmpty());
+        for (int hit = 0; hit < 3; hit++) {
+            for (int i = 0; i < 10; i++) {
+                assertNotNull(cache.get("key" + i));
+            }
+        }
+
+        // A scan of keys used once does not push out the hot keys.
+        for (int i = 0; i < 1000; i++) {
+            cache.put("scan" + i, 1);
+        }
+        assertEquals(100, cache.size());
+        assertEquals(100, cache.getTotalSize());
+        assertEquals(1000, cache.getEvictionCount());
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(cache.get("key" + i));
+        }
+        assertEquals(40, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void testTinyLfuSizeAwareAdmission() {
+        SizedCache cache = new SizedCache(new TinyLfuPolicy<String>(1024), 100);
+        // key5 is used more often than the other keys, before they are
+        // put.
+        for (int i = 0; i < 4; i++) {
+            cache.put("key5", 1);
+        }
+        for (int i = 0; i < 100; i++) {
+            cache.put("key" + i, 1);
+        }
+        assertTrue(cache.evicted.isEmpty());
+
+        // The large entry needs the room of the 50 least recently used
+        // keys, key5 among them, so it must be used more often than key5.
+        for (int i = 0; i < 5; i++) {
+            assertFalse(cache.put("big", 50));
+        }
+        assertEquals(1 + 5, cache.getEvictionCount());
+        assertEquals("key99", cache.evicted.get(0));
+        assertEquals(99, cache.getTotalSize());
+
+        cache.evicted.clear();
+        assertTrue(cache.put("big", 50));
+        assertEquals(49, cache.evicted.size());
+        for (int i = 0; i < 49; i++) {
+            assertEquals("key" + i, cache.evicted.get(i));
+        }
+        assertEquals(100, cache.getTotalSize());
+        assertNotNull(cache.get("big"));
+        assertNotNull(cache.get("key49"));
+        assertNull(cache.get("key5"));
+    }
+
+    @Test
+    public void testPurgeAll() {
+        SizedCache cache = new SizedCache(new TinyLfuPolicy<String>(16), 10);
+        cache.put("a", 4);
+        cache.put("b", 4);
+        cache.purgeAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getTotalSize());
+        assertNull(cache.get("a"));
+
+        cache.put("c", 10);
+        assertEquals(10, cache.getTotalSize());
+        assertTrue(cache.evicted.isEmpty());
+    }
+}
@@ -15,3 +15,8 @@
 #-keepclassmembers class fqcn.of.javascript.interface.for.webview {
 #   public *;
 #}
+
+# MmsLog of libmms-core loads its Android sink by name.
+-keep class com.google.android.mms.util.AndroidLogSink {
+    <init>();
+}
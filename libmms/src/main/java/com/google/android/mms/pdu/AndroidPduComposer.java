@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import android.content.ContentResolver;
+import android.content.Context;
+
+/**
+ * A {@link PduComposer} reading the part data set with
+ * {@link UriPartDataSource#setDataUri} with the content resolver of a
+ * context, as the composer did before it moved to libmms-core. The data
+ * sources of those parts are replaced in the pdu by ones holding the
+ * resolver.
+ */
+public class AndroidPduComposer extends PduComposer {
+    private final ContentResolver mResolver;
+
+    /**
+     * Constructor.
+     *
+     * @param context the context to read the part data with
+     * @param pdu the pdu to be composed
+     */
+    public AndroidPduComposer(Context context, GenericPdu pdu) {
+        super(setResolver(context.getContentResolver(), pdu));
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Constructor for a composer without pdu yet, to be given to
+     * {@link #reset} before each make.
+     *
+     * @param context the context to read the part data with
+     */
+    public AndroidPduComposer(Context context) {
+        super();
+        mResolver = context.getContentResolver();
+    }
+
+    @Override
+    public PduComposer reset(GenericPdu pdu) {
+        return super.reset(setResolver(mResolver, pdu));
+    }
+
+    private static GenericPdu setResolver(ContentResolver resolver, GenericPdu pdu) {
+        UriPartDataSource.setResolver(resolver, pdu);
+        return pdu;
+    }
+}
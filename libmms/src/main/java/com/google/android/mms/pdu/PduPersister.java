@@ -26,15 +26,19 @@ import com.google.android.mms.util.PduCache;
 import com.google.android.mms.util.PduCacheEntry;
 import com.google.android.mms.util.SqliteWrapper;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteException;
 import android.drm.DrmManagerClient;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.provider.MediaStore;
 import android.provider.Telephony;
 import android.provider.Telephony.Mms;
@@ -55,12 +59,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import com.google.android.mms.pdu.EncodedStringValue;
 
@@ -95,6 +109,12 @@ public class PduPersister {
     private static PduPersister sPersister;
     private static final PduCache PDU_CACHE_INSTANCE;
 
+    /**
+     * The loads in progress. Callers loading the same Uri share the result.
+     */
+    private static final ConcurrentHashMap<Uri, FutureTask<GenericPdu>> LOADS_IN_FLIGHT =
+            new ConcurrentHashMap<Uri, FutureTask<GenericPdu>>();
+
     private static final int[] ADDRESS_FIELDS = new int[] {
             PduHeaders.BCC,
             PduHeaders.CC,
@@ -182,6 +202,32 @@ public class PduPersister {
     private static final int PART_COLUMN_NAME                = 7;
     private static final int PART_COLUMN_TEXT                = 8;
 
+    // PART_PROJECTION plus the message id, to load the parts of several messages at once.
+    private static final String[] PART_BATCH_PROJECTION = new String[] {
+        Part._ID,
+        Part.CHARSET,
+        Part.CONTENT_DISPOSITION,
+        Part.CONTENT_ID,
+        Part.CONTENT_LOCATION,
+        Part.CONTENT_TYPE,
+        Part.FILENAME,
+        Part.NAME,
+        Part.TEXT,
+        Part.MSG_ID
+    };
+
+    private static final int PART_COLUMN_MSG_ID              = 9;
+
+    /**
+     * The maximum number of messages loadAll() loads with one query.
+     */
+    private static final int LOAD_BATCH_SIZE = 100;
+
+    /**
+     * The number of PDUs a PersistBatch stores with one applyBatch().
+     */
+    private static final int PERSIST_BATCH_SIZE = 50;
+
     private static final HashMap<Uri, Integer> MESSAGE_BOX_MAP;
     // These map are used for convenience in persist() and load().
     private static final HashMap<Integer, Integer> CHARSET_COLUMN_INDEX_MAP;
@@ -342,6 +388,88 @@ public class PduPersister {
         }
     }
 
+    /**
+     * Fill the headers from the current row of a cursor with PDU_PROJECTION.
+     */
+    private void readHeaders(Cursor c, PduHeaders headers) throws InvalidHeaderValueException {
+        Set<Entry<Integer, Integer>> set;
+
+        set = ENCODED_STRING_COLUMN_INDEX_MAP.entrySet();
+        for (Entry<Integer, Integer> e : set) {
+            setEncodedStringValueToHeaders(
+                    c, e.getValue(), headers, e.getKey());
+        }
+
+        set = TEXT_STRING_COLUMN_INDEX_MAP.entrySet();
+        for (Entry<Integer, Integer> e : set) {
+            setTextStringToHeaders(
+                    c, e.getValue(), headers, e.getKey());
+        }
+
+        set = OCTET_COLUMN_INDEX_MAP.entrySet();
+        for (Entry<Integer, Integer> e : set) {
+            setOctetToHeaders(
+                    c, e.getValue(), headers, e.getKey());
+        }
+
+        set = LONG_COLUMN_INDEX_MAP.entrySet();
+        for (Entry<Integer, Integer> e : set) {
+            setLongToHeaders(
+                    c, e.getValue(), headers, e.getKey());
+        }
+    }
+
+    /**
+     * Create the PDU object for loaded headers and body.
+     *
+     * @param msgType the message type from the headers
+     * @param body the body, used by M-Retrieve.conf and M-Send.req only
+     * @throws MmsException the message type is not supported
+     */
+    private static GenericPdu createPdu(int msgType, PduHeaders headers, PduBody body)
+            throws MmsException {
+        switch (msgType) {
+        case PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND:
+            return new NotificationInd(headers);
+        case PduHeaders.MESSAGE_TYPE_DELIVERY_IND:
+            return new DeliveryInd(headers);
+        case PduHeaders.MESSAGE_TYPE_READ_ORIG_IND:
+            return new ReadOrigInd(headers);
+        case PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF:
+            return new RetrieveConf(headers, body);
+        case PduHeaders.MESSAGE_TYPE_SEND_REQ:
+            return new SendReq(headers, body);
+        case PduHeaders.MESSAGE_TYPE_ACKNOWLEDGE_IND:
+            return new AcknowledgeInd(headers);
+        case PduHeaders.MESSAGE_TYPE_NOTIFYRESP_IND:
+            return new NotifyRespInd(headers);
+        case PduHeaders.MESSAGE_TYPE_READ_REC_IND:
+            return new ReadRecInd(headers);
+        case PduHeaders.MESSAGE_TYPE_SEND_CONF:
+        case PduHeaders.MESSAGE_TYPE_FORWARD_REQ:
+        case PduHeaders.MESSAGE_TYPE_FORWARD_CONF:
+        case PduHeaders.MESSAGE_TYPE_MBOX_STORE_REQ:
+        case PduHeaders.MESSAGE_TYPE_MBOX_STORE_CONF:
+        case PduHeaders.MESSAGE_TYPE_MBOX_VIEW_REQ:
+        case PduHeaders.MESSAGE_TYPE_MBOX_VIEW_CONF:
+        case PduHeaders.MESSAGE_TYPE_MBOX_UPLOAD_REQ:
+        case PduHeaders.MESSAGE_TYPE_MBOX_UPLOAD_CONF:
+        case PduHeaders.MESSAGE_TYPE_MBOX_DELETE_REQ:
+        case PduHeaders.MESSAGE_TYPE_MBOX_DELETE_CONF:
+        case PduHeaders.MESSAGE_TYPE_MBOX_DESCR:
+        case PduHeaders.MESSAGE_TYPE_DELETE_REQ:
+        case PduHeaders.MESSAGE_TYPE_DELETE_CONF:
+        case PduHeaders.MESSAGE_TYPE_CANCEL_REQ:
+        case PduHeaders.MESSAGE_TYPE_CANCEL_CONF:
+            throw new MmsException(
+                    "Unsupported PDU type: " + Integer.toHexString(msgType));
+
+        default:
+            throw new MmsException(
+                    "Unrecognized PDU type: " + Integer.toHexString(msgType));
+        }
+    }
+
     private Integer getIntegerFromPartColumn(Cursor c, int columnIndex) {
         if (!c.isNull(columnIndex)) {
             return c.getInt(columnIndex);
@@ -375,110 +503,116 @@ public class PduPersister {
             int partIdx = 0;
             parts = new PduPart[partCount];
             while (c.moveToNext()) {
-                PduPart part = new PduPart();
-                Integer charset = getIntegerFromPartColumn(
-                        c, PART_COLUMN_CHARSET);
-                if (charset != null) {
-                    part.setCharset(charset);
-                }
+                parts[partIdx++] = loadPart(c);
+            }
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
 
-                byte[] contentDisposition = getByteArrayFromPartColumn(
-                        c, PART_COLUMN_CONTENT_DISPOSITION);
-                if (contentDisposition != null) {
-                    part.setContentDisposition(contentDisposition);
-                }
+        return parts;
+    }
 
-                byte[] contentId = getByteArrayFromPartColumn(
-                        c, PART_COLUMN_CONTENT_ID);
-                if (contentId != null) {
-                    part.setContentId(contentId);
-                }
+    /**
+     * Load the part at the current row of a cursor with PART_PROJECTION.
+     */
+    private PduPart loadPart(Cursor c) throws MmsException {
+        PduPart part = new PduPart();
+        Integer charset = getIntegerFromPartColumn(
+                c, PART_COLUMN_CHARSET);
+        if (charset != null) {
+            part.setCharset(charset);
+        }
 
-                byte[] contentLocation = getByteArrayFromPartColumn(
-                        c, PART_COLUMN_CONTENT_LOCATION);
-                if (contentLocation != null) {
-                    part.setContentLocation(contentLocation);
-                }
+        byte[] contentDisposition = getByteArrayFromPartColumn(
+                c, PART_COLUMN_CONTENT_DISPOSITION);
+        if (contentDisposition != null) {
+            part.setContentDisposition(contentDisposition);
+        }
 
-                byte[] contentType = getByteArrayFromPartColumn(
-                        c, PART_COLUMN_CONTENT_TYPE);
-                if (contentType != null) {
-                    part.setContentType(contentType);
-                } else {
-                    throw new MmsException("Content-Type must be set.");
-                }
+        byte[] contentId = getByteArrayFromPartColumn(
+                c, PART_COLUMN_CONTENT_ID);
+        if (contentId != null) {
+            part.setContentId(contentId);
+        }
 
-                byte[] fileName = getByteArrayFromPartColumn(
-                        c, PART_COLUMN_FILENAME);
-                if (fileName != null) {
-                    part.setFilename(fileName);
-                }
+        byte[] contentLocation = getByteArrayFromPartColumn(
+                c, PART_COLUMN_CONTENT_LOCATION);
+        if (contentLocation != null) {
+            part.setContentLocation(contentLocation);
+        }
 
-                byte[] name = getByteArrayFromPartColumn(
-                        c, PART_COLUMN_NAME);
-                if (name != null) {
-                    part.setName(name);
-                }
+        byte[] contentType = getByteArrayFromPartColumn(
+                c, PART_COLUMN_CONTENT_TYPE);
+        if (contentType != null) {
+            part.setContentType(contentType);
+        } else {
+            throw new MmsException("Content-Type must be set.");
+        }
+
+        byte[] fileName = getByteArrayFromPartColumn(
+                c, PART_COLUMN_FILENAME);
+        if (fileName != null) {
+            part.setFilename(fileName);
+        }
+
+        byte[] name = getByteArrayFromPartColumn(
+                c, PART_COLUMN_NAME);
+        if (name != null) {
+            part.setName(name);
+        }
+
+        // Construct a Uri for this part.
+        long partId = c.getLong(PART_COLUMN_ID);
+        Uri partURI = Uri.parse("content://mms/part/" + partId);
+        part.setDataSource(new UriPartDataSource(mContentResolver, partURI));
+
+        // For images/audio/video, we won't keep their data in Part
+        // because their renderer accept Uri as source.
+        String type = toIsoString(contentType);
+        if (!ContentType.isImageType(type)
+                && !ContentType.isAudioType(type)
+                && !ContentType.isVideoType(type)) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            InputStream is = null;
+
+            // Store simple string values directly in the database instead of an
+            // external file.  This makes the text searchable and retrieval slightly
+            // faster.
+            if (ContentType.TEXT_PLAIN.equals(type) || ContentType.APP_SMIL.equals(type)
+                    || ContentType.TEXT_HTML.equals(type)) {
+                String text = c.getString(PART_COLUMN_TEXT);
+                byte [] blob = new EncodedStringValue(text != null ? text : "")
+                    .getTextString();
+                baos.write(blob, 0, blob.length);
+            } else {
 
-                // Construct a Uri for this part.
-                long partId = c.getLong(PART_COLUMN_ID);
-                Uri partURI = Uri.parse("content://mms/part/" + partId);
-                part.setDataUri(partURI);
-
-                // For images/audio/video, we won't keep their data in Part
-                // because their renderer accept Uri as source.
-                String type = toIsoString(contentType);
-                if (!ContentType.isImageType(type)
-                        && !ContentType.isAudioType(type)
-                        && !ContentType.isVideoType(type)) {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    InputStream is = null;
-
-                    // Store simple string values directly in the database instead of an
-                    // external file.  This makes the text searchable and retrieval slightly
-                    // faster.
-                    if (ContentType.TEXT_PLAIN.equals(type) || ContentType.APP_SMIL.equals(type)
-                            || ContentType.TEXT_HTML.equals(type)) {
-                        String text = c.getString(PART_COLUMN_TEXT);
-                        byte [] blob = new EncodedStringValue(text != null ? text : "")
-                            .getTextString();
-                        baos.write(blob, 0, blob.length);
-                    } else {
+                try {
+                    is = mContentResolver.openInputStream(partURI);
 
+                    byte[] buffer = new byte[256];
+                    int len = is.read(buffer);
+                    while (len >= 0) {
+                        baos.write(buffer, 0, len);
+                        len = is.read(buffer);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to load part data", e);
+                    throw new MmsException(e);
+                } finally {
+                    if (is != null) {
                         try {
-                            is = mContentResolver.openInputStream(partURI);
-
-                            byte[] buffer = new byte[256];
-                            int len = is.read(buffer);
-                            while (len >= 0) {
-                                baos.write(buffer, 0, len);
-                                len = is.read(buffer);
-                            }
+                            is.close();
                         } catch (IOException e) {
-                            Log.e(TAG, "Failed to load part data", e);
-                            c.close();
-                            throw new MmsException(e);
-                        } finally {
-                            if (is != null) {
-                                try {
-                                    is.close();
-                                } catch (IOException e) {
-                                    Log.e(TAG, "Failed to close stream", e);
-                                } // Ignore
-                            }
-                        }
+                            Log.e(TAG, "Failed to close stream", e);
+                        } // Ignore
                     }
-                    part.setData(baos.toByteArray());
                 }
-                parts[partIdx++] = part;
-            }
-        } finally {
-            if (c != null) {
-                c.close();
             }
+            part.setData(baos.toByteArray());
         }
-
-        return parts;
+        return part;
     }
 
     private void loadAddress(long msgId, PduHeaders headers) {
@@ -521,40 +655,77 @@ public class PduPersister {
     /**
      * Load a PDU from storage by given Uri.
      *
+     * Concurrent loads of the same Uri are done only once: callers arriving
+     * while a load is in progress wait for it and get the same PDU object,
+     * or the same exception.
+     *
      * @param uri The Uri of the PDU to be loaded.
      * @return A generic PDU object, it may be cast to dedicated PDU.
      * @throws MmsException Failed to load some fields of a PDU.
      */
-    public GenericPdu load(Uri uri) throws MmsException {
+    public GenericPdu load(final Uri uri) throws MmsException {
+        FutureTask<GenericPdu> load = new FutureTask<GenericPdu>(new Callable<GenericPdu>() {
+            public GenericPdu call() throws MmsException {
+                return loadPdu(uri);
+            }
+        });
+        FutureTask<GenericPdu> inFlight = LOADS_IN_FLIGHT.putIfAbsent(uri, load);
+        if (inFlight == null) {
+            inFlight = load;
+            try {
+                load.run();
+            } finally {
+                LOADS_IN_FLIGHT.remove(uri, load);
+            }
+        } else if (LOCAL_LOGV) {
+            Log.v(TAG, "load: " + uri + " joins the load in progress");
+        }
+
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            // As the load is shared, do not wait any longer but load it again.
+            Log.e(TAG, "load: ", e);
+            return loadPdu(uri);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MmsException) {
+                throw (MmsException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new MmsException(cause);
+        }
+    }
+
+    private GenericPdu loadPdu(Uri uri) throws MmsException {
         GenericPdu pdu = null;
         PduCacheEntry cacheEntry = null;
         int msgBox = 0;
         long threadId = -1;
-        try {
-            synchronized(PDU_CACHE_INSTANCE) {
-                if (PDU_CACHE_INSTANCE.isUpdating(uri)) {
-                    if (LOCAL_LOGV) {
-                        Log.v(TAG, "load: " + uri + " blocked by isUpdating()");
-                    }
-                    try {
-                        PDU_CACHE_INSTANCE.wait();
-                    } catch (InterruptedException e) {
-                        Log.e(TAG, "load: ", e);
-                    }
-                    cacheEntry = PDU_CACHE_INSTANCE.get(uri);
-                    if (cacheEntry != null) {
-                        return cacheEntry.getPdu();
-                    }
-                }
-                // Tell the cache to indicate to other callers that this item
-                // is currently being updated.
-                PDU_CACHE_INSTANCE.setUpdating(uri, true);
+        // Tell the cache to indicate to other callers that this item
+        // is currently being updated, once nobody else is updating it.
+        CountDownLatch update;
+        while ((update = PDU_CACHE_INSTANCE.beginUpdate(uri)) == null) {
+            if (LOCAL_LOGV) {
+                Log.v(TAG, "load: " + uri + " blocked by isUpdating()");
             }
-
+            try {
+                PDU_CACHE_INSTANCE.awaitUpdate(uri);
+            } catch (InterruptedException e) {
+                Log.e(TAG, "load: ", e);
+            }
+            cacheEntry = PDU_CACHE_INSTANCE.get(uri);
+            if (cacheEntry != null) {
+                return cacheEntry.getPdu();
+            }
+        }
+        try {
             Cursor c = SqliteWrapper.query(mContext, mContentResolver, uri,
                     PDU_PROJECTION, null, null, null);
             PduHeaders headers = new PduHeaders();
-            Set<Entry<Integer, Integer>> set;
             long msgId = ContentUris.parseId(uri);
 
             try {
@@ -564,30 +735,7 @@ public class PduPersister {
 
                 msgBox = c.getInt(PDU_COLUMN_MESSAGE_BOX);
                 threadId = c.getLong(PDU_COLUMN_THREAD_ID);
-
-                set = ENCODED_STRING_COLUMN_INDEX_MAP.entrySet();
-                for (Entry<Integer, Integer> e : set) {
-                    setEncodedStringValueToHeaders(
-                            c, e.getValue(), headers, e.getKey());
-                }
-
-                set = TEXT_STRING_COLUMN_INDEX_MAP.entrySet();
-                for (Entry<Integer, Integer> e : set) {
-                    setTextStringToHeaders(
-                            c, e.getValue(), headers, e.getKey());
-                }
-
-                set = OCTET_COLUMN_INDEX_MAP.entrySet();
-                for (Entry<Integer, Integer> e : set) {
-                    setOctetToHeaders(
-                            c, e.getValue(), headers, e.getKey());
-                }
-
-                set = LONG_COLUMN_INDEX_MAP.entrySet();
-                for (Entry<Integer, Integer> e : set) {
-                    setLongToHeaders(
-                            c, e.getValue(), headers, e.getKey());
-                }
+                readHeaders(c, headers);
             } finally {
                 if (c != null) {
                     c.close();
@@ -618,84 +766,221 @@ public class PduPersister {
                 }
             }
 
-            switch (msgType) {
-            case PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND:
-                pdu = new NotificationInd(headers);
-                break;
-            case PduHeaders.MESSAGE_TYPE_DELIVERY_IND:
-                pdu = new DeliveryInd(headers);
-                break;
-            case PduHeaders.MESSAGE_TYPE_READ_ORIG_IND:
-                pdu = new ReadOrigInd(headers);
-                break;
-            case PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF:
-                pdu = new RetrieveConf(headers, body);
-                break;
-            case PduHeaders.MESSAGE_TYPE_SEND_REQ:
-                pdu = new SendReq(headers, body);
-                break;
-            case PduHeaders.MESSAGE_TYPE_ACKNOWLEDGE_IND:
-                pdu = new AcknowledgeInd(headers);
-                break;
-            case PduHeaders.MESSAGE_TYPE_NOTIFYRESP_IND:
-                pdu = new NotifyRespInd(headers);
-                break;
-            case PduHeaders.MESSAGE_TYPE_READ_REC_IND:
-                pdu = new ReadRecInd(headers);
-                break;
-            case PduHeaders.MESSAGE_TYPE_SEND_CONF:
-            case PduHeaders.MESSAGE_TYPE_FORWARD_REQ:
-            case PduHeaders.MESSAGE_TYPE_FORWARD_CONF:
-            case PduHeaders.MESSAGE_TYPE_MBOX_STORE_REQ:
-            case PduHeaders.MESSAGE_TYPE_MBOX_STORE_CONF:
-            case PduHeaders.MESSAGE_TYPE_MBOX_VIEW_REQ:
-            case PduHeaders.MESSAGE_TYPE_MBOX_VIEW_CONF:
-            case PduHeaders.MESSAGE_TYPE_MBOX_UPLOAD_REQ:
-            case PduHeaders.MESSAGE_TYPE_MBOX_UPLOAD_CONF:
-            case PduHeaders.MESSAGE_TYPE_MBOX_DELETE_REQ:
-            case PduHeaders.MESSAGE_TYPE_MBOX_DELETE_CONF:
-            case PduHeaders.MESSAGE_TYPE_MBOX_DESCR:
-            case PduHeaders.MESSAGE_TYPE_DELETE_REQ:
-            case PduHeaders.MESSAGE_TYPE_DELETE_CONF:
-            case PduHeaders.MESSAGE_TYPE_CANCEL_REQ:
-            case PduHeaders.MESSAGE_TYPE_CANCEL_CONF:
-                throw new MmsException(
-                        "Unsupported PDU type: " + Integer.toHexString(msgType));
+            pdu = createPdu(msgType, headers, body);
+        } finally {
+            if (pdu != null) {
+                assert(PDU_CACHE_INSTANCE.get(uri) == null);
+                // Update the cache entry with the real info
+                cacheEntry = new PduCacheEntry(pdu, msgBox, threadId);
+                PDU_CACHE_INSTANCE.put(uri, cacheEntry);
+            }
+            // tell anybody waiting on this entry to go ahead
+            PDU_CACHE_INSTANCE.endUpdate(uri, update);
+        }
+        return pdu;
+    }
 
-            default:
-                throw new MmsException(
-                        "Unrecognized PDU type: " + Integer.toHexString(msgType));
+    /**
+     * Load several PDUs from storage. The PDU rows and the parts of up to
+     * LOAD_BATCH_SIZE messages are read with one query each; addresses are
+     * still read per message, as the provider serves them per message only.
+     * PDUs found in the cache are not loaded again, and the loaded ones are
+     * put into the cache.
+     *
+     * @param uris The Uris of the PDUs to be loaded.
+     * @return The PDUs by Uri, in the order of the given Uris. Uris whose
+     *         PDU can't be loaded are left out.
+     */
+    public Map<Uri, GenericPdu> loadAll(Collection<Uri> uris) {
+        LinkedHashMap<Uri, GenericPdu> result = new LinkedHashMap<Uri, GenericPdu>();
+        LinkedHashMap<Long, Uri> toBeLoaded = new LinkedHashMap<Long, Uri>();
+        HashMap<Uri, CountDownLatch> updates = new HashMap<Uri, CountDownLatch>();
+        ArrayList<Uri> loadedByOthers = new ArrayList<Uri>();
+
+        for (Uri uri : uris) {
+            if (result.containsKey(uri)) {
+                continue;
+            }
+            // Keep the order of the Uris.
+            result.put(uri, null);
+
+            if (!PDU_CACHE_INSTANCE.isUpdating(uri)) {
+                PduCacheEntry cacheEntry = PDU_CACHE_INSTANCE.get(uri);
+                if (cacheEntry != null) {
+                    result.put(uri, cacheEntry.getPdu());
+                    continue;
+                }
+            }
+
+            long msgId;
+            try {
+                msgId = ContentUris.parseId(uri);
+            } catch (NumberFormatException e) {
+                msgId = -1L;
+            }
+            CountDownLatch update = null;
+            if (msgId == -1L) {
+                Log.e(TAG, "loadAll: bad uri " + uri);
+            } else if (toBeLoaded.containsKey(msgId)
+                    || ((update = PDU_CACHE_INSTANCE.beginUpdate(uri)) == null)) {
+                loadedByOthers.add(uri);
+            } else {
+                toBeLoaded.put(msgId, uri);
+                updates.put(uri, update);
+            }
+        }
+
+        try {
+            ArrayList<Long> msgIds = new ArrayList<Long>(toBeLoaded.keySet());
+            for (int start = 0; start < msgIds.size(); start += LOAD_BATCH_SIZE) {
+                int end = Math.min(start + LOAD_BATCH_SIZE, msgIds.size());
+                loadBatch(msgIds.subList(start, end), toBeLoaded, result);
             }
         } finally {
-            synchronized(PDU_CACHE_INSTANCE) {
-                if (pdu != null) {
-                    assert(PDU_CACHE_INSTANCE.get(uri) == null);
-                    // Update the cache entry with the real info
-                    cacheEntry = new PduCacheEntry(pdu, msgBox, threadId);
-                    PDU_CACHE_INSTANCE.put(uri, cacheEntry);
+            for (Map.Entry<Uri, CountDownLatch> update : updates.entrySet()) {
+                PDU_CACHE_INSTANCE.endUpdate(update.getKey(), update.getValue());
+            }
+        }
+
+        // The Uris being updated by someone else, or named twice.
+        for (Uri uri : loadedByOthers) {
+            try {
+                result.put(uri, load(uri));
+            } catch (MmsException e) {
+                Log.e(TAG, "loadAll: failed to load " + uri, e);
+            }
+        }
+
+        Iterator<GenericPdu> pdus = result.values().iterator();
+        while (pdus.hasNext()) {
+            if (pdus.next() == null) {
+                pdus.remove();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Load the PDUs of some messages with one query for the PDU rows and
+     * one for the parts, and put them into the result and the cache.
+     */
+    private void loadBatch(List<Long> msgIds, Map<Long, Uri> uris,
+            Map<Uri, GenericPdu> result) {
+        String ids = TextUtils.join(",", msgIds);
+        LinkedHashMap<Long, LoadedPdu> loaded = new LinkedHashMap<Long, LoadedPdu>();
+        StringBuilder multipartIds = new StringBuilder();
+
+        Cursor c = SqliteWrapper.query(mContext, mContentResolver, Mms.CONTENT_URI,
+                PDU_PROJECTION, Mms._ID + " IN (" + ids + ")", null, null);
+        if (c != null) {
+            try {
+                while (c.moveToNext()) {
+                    long msgId = c.getLong(PDU_COLUMN_ID);
+                    LoadedPdu pdu = new LoadedPdu();
+                    pdu.msgBox = c.getInt(PDU_COLUMN_MESSAGE_BOX);
+                    pdu.threadId = c.getLong(PDU_COLUMN_THREAD_ID);
+                    try {
+                        readHeaders(c, pdu.headers);
+                    } catch (InvalidHeaderValueException e) {
+                        Log.e(TAG, "loadAll: bad headers of message " + msgId, e);
+                        continue;
+                    }
+                    loaded.put(msgId, pdu);
+
+                    // For PDU which type is M_retrieve.conf or Send.req, we should
+                    // load multiparts and put them into the body of the PDU.
+                    int msgType = pdu.headers.getOctet(PduHeaders.MESSAGE_TYPE);
+                    if ((msgType == PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF)
+                            || (msgType == PduHeaders.MESSAGE_TYPE_SEND_REQ)) {
+                        if (multipartIds.length() > 0) {
+                            multipartIds.append(',');
+                        }
+                        multipartIds.append(msgId);
+                    }
                 }
-                PDU_CACHE_INSTANCE.setUpdating(uri, false);
-                PDU_CACHE_INSTANCE.notifyAll(); // tell anybody waiting on this entry to go ahead
+            } finally {
+                c.close();
             }
         }
-        return pdu;
+
+        if (multipartIds.length() > 0) {
+            c = SqliteWrapper.query(mContext, mContentResolver,
+                    Uri.parse("content://mms/part"), PART_BATCH_PROJECTION,
+                    Part.MSG_ID + " IN (" + multipartIds + ")", null,
+                    Part.MSG_ID + "," + Part._ID);
+            if (c != null) {
+                try {
+                    while (c.moveToNext()) {
+                        LoadedPdu pdu = loaded.get(c.getLong(PART_COLUMN_MSG_ID));
+                        if ((pdu == null) || pdu.failed) {
+                            continue;
+                        }
+                        try {
+                            pdu.body.addPart(loadPart(c));
+                        } catch (MmsException e) {
+                            Log.e(TAG, "loadAll: failed to load a part", e);
+                            pdu.failed = true;
+                        }
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+        }
+
+        for (Map.Entry<Long, LoadedPdu> e : loaded.entrySet()) {
+            long msgId = e.getKey();
+            LoadedPdu loadedPdu = e.getValue();
+            if (loadedPdu.failed) {
+                continue;
+            }
+
+            // Load address information of the MM.
+            loadAddress(msgId, loadedPdu.headers);
+
+            GenericPdu pdu;
+            try {
+                pdu = createPdu(loadedPdu.headers.getOctet(PduHeaders.MESSAGE_TYPE),
+                        loadedPdu.headers, loadedPdu.body);
+            } catch (MmsException ex) {
+                Log.e(TAG, "loadAll: message " + msgId, ex);
+                continue;
+            }
+
+            Uri uri = uris.get(msgId);
+            result.put(uri, pdu);
+            PDU_CACHE_INSTANCE.put(uri,
+                    new PduCacheEntry(pdu, loadedPdu.msgBox, loadedPdu.threadId));
+        }
+    }
+
+    /**
+     * A PDU being loaded by loadBatch().
+     */
+    private static class LoadedPdu {
+        final PduHeaders headers = new PduHeaders();
+        final PduBody body = new PduBody();
+        int msgBox;
+        long threadId;
+        boolean failed;
     }
 
     private void persistAddress(
             long msgId, int type, EncodedStringValue[] array) {
-        ContentValues values = new ContentValues(3);
-
         for (EncodedStringValue addr : array) {
-            values.clear(); // Clear all values first.
-            values.put(Addr.ADDRESS, toIsoString(addr.getTextString()));
-            values.put(Addr.CHARSET, addr.getCharacterSet());
-            values.put(Addr.TYPE, type);
-
             Uri uri = Uri.parse("content://mms/" + msgId + "/addr");
-            SqliteWrapper.insert(mContext, mContentResolver, uri, values);
+            SqliteWrapper.insert(mContext, mContentResolver, uri, getAddressValues(type, addr));
         }
     }
 
+    private static ContentValues getAddressValues(int type, EncodedStringValue addr) {
+        ContentValues values = new ContentValues(3);
+        values.put(Addr.ADDRESS, toIsoString(addr.getTextString()));
+        values.put(Addr.CHARSET, addr.getCharacterSet());
+        values.put(Addr.TYPE, type);
+        return values;
+    }
+
     private static String getPartContentType(PduPart part) {
         return part.getContentType() == null ? null : toIsoString(part.getContentType());
     }
@@ -703,6 +988,28 @@ public class PduPersister {
     public Uri persistPart(PduPart part, long msgId, HashMap<Uri, InputStream> preOpenedFiles)
             throws MmsException {
         Uri uri = Uri.parse("content://mms/" + msgId + "/part");
+        ContentValues values = getPartValues(part);
+        String contentType = values.getAsString(Part.CONTENT_TYPE);
+
+        Uri res = SqliteWrapper.insert(mContext, mContentResolver, uri, values);
+        if (res == null) {
+            throw new MmsException("Failed to persist part, return null.");
+        }
+
+        persistData(part, res, contentType, preOpenedFiles);
+        // After successfully store the data, we should update
+        // the dataUri of the part.
+        part.setDataSource(new UriPartDataSource(mContentResolver, res));
+
+        return res;
+    }
+
+    /**
+     * Get the values of the part row, the part data excepted.
+     *
+     * @throws MmsException the part has no content type
+     */
+    private static ContentValues getPartValues(PduPart part) throws MmsException {
         ContentValues values = new ContentValues(8);
 
         int charset = part.getCharset();
@@ -753,17 +1060,7 @@ public class PduPersister {
             values.put(Part.CONTENT_LOCATION, (String) value);
         }
 
-        Uri res = SqliteWrapper.insert(mContext, mContentResolver, uri, values);
-        if (res == null) {
-            throw new MmsException("Failed to persist part, return null.");
-        }
-
-        persistData(part, res, contentType, preOpenedFiles);
-        // After successfully store the data, we should update
-        // the dataUri of the part.
-        part.setDataUri(res);
-
-        return res;
+        return values;
     }
 
     /**
@@ -790,10 +1087,10 @@ public class PduPersister {
         String path = null;
 
         try {
-            byte[] data = part.getData();
             if (ContentType.TEXT_PLAIN.equals(contentType)
                     || ContentType.APP_SMIL.equals(contentType)
                     || ContentType.TEXT_HTML.equals(contentType)) {
+                byte[] data = part.getData();
                 ContentValues cv = new ContentValues();
                 if (data == null) {
                     data = new String("").getBytes(CharacterSets.DEFAULT_CHARSET_NAME);
@@ -822,7 +1119,7 @@ public class PduPersister {
                                 return;
                             }
                         } catch (Exception e) {
-                            Log.e(TAG, "Can't get file info for: " + part.getDataUri(), e);
+                            Log.e(TAG, "Can't get file info for: " + part.getDataSource(), e);
                         }
                     }
                     // We haven't converted the file yet, start the conversion
@@ -835,20 +1132,29 @@ public class PduPersister {
                 // uri can look like:
                 // content://mms/part/98
                 os = mContentResolver.openOutputStream(uri);
+                // Not getData(), the data may be a memory-mapped part
+                // too big to copy on the heap.
+                ByteBuffer data = part.getDataBuffer();
                 if (data == null) {
-                    dataUri = part.getDataUri();
-                    if ((dataUri == null) || (dataUri == uri)) {
+                    PartDataSource source = part.getDataSource();
+                    dataUri = UriPartDataSource.getDataUri(part);
+                    if ((source == null) || (dataUri == uri)) {
                         Log.w(TAG, "Can't find data for this part.");
                         return;
                     }
                     // dataUri can look like:
                     // content://com.google.android.gallery3d.provider/picasa/item/5720646660183715586
-                    if (preOpenedFiles != null && preOpenedFiles.containsKey(dataUri)) {
+                    if (dataUri != null && preOpenedFiles != null
+                            && preOpenedFiles.containsKey(dataUri)) {
                         is = preOpenedFiles.get(dataUri);
                     }
-                    if (is == null) {
+                    if ((is == null) && (dataUri != null)) {
+                        // The source may have no resolver, see UriPartDataSource.setDataUri.
                         is = mContentResolver.openInputStream(dataUri);
                     }
+                    if (is == null) {
+                        is = source.openStream();
+                    }
 
                     if (LOCAL_LOGV) {
                         Log.v(TAG, "Saving data to: " + uri);
@@ -871,15 +1177,22 @@ public class PduPersister {
                     if (LOCAL_LOGV) {
                         Log.v(TAG, "Saving data to: " + uri);
                     }
-                    if (!isDrm) {
-                        os.write(data);
-                    } else {
+                    if (isDrm) {
                         dataUri = uri;
-                        byte[] convertedData = drmConvertSession.convert(data, data.length);
-                        if (convertedData != null) {
-                            os.write(convertedData, 0, convertedData.length);
+                    }
+                    byte[] buffer = new byte[8192];
+                    while (data.hasRemaining()) {
+                        int len = Math.min(buffer.length, data.remaining());
+                        data.get(buffer, 0, len);
+                        if (!isDrm) {
+                            os.write(buffer, 0, len);
                         } else {
-                            throw new MmsException("Error converting drm data.");
+                            byte[] convertedData = drmConvertSession.convert(buffer, len);
+                            if (convertedData != null) {
+                                os.write(convertedData, 0, convertedData.length);
+                            } else {
+                                throw new MmsException("Error converting drm data.");
+                            }
                         }
                     }
                 }
@@ -984,18 +1297,16 @@ public class PduPersister {
      * @throws MmsException Bad URI or updating failed.
      */
     public void updateHeaders(Uri uri, SendReq sendReq) {
-        synchronized(PDU_CACHE_INSTANCE) {
-            // If the cache item is getting updated, wait until it's done updating before
-            // purging it.
-            if (PDU_CACHE_INSTANCE.isUpdating(uri)) {
-                if (LOCAL_LOGV) {
-                    Log.v(TAG, "updateHeaders: " + uri + " blocked by isUpdating()");
-                }
-                try {
-                    PDU_CACHE_INSTANCE.wait();
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "updateHeaders: ", e);
-                }
+        // If the cache item is getting updated, wait until it's done updating before
+        // purging it.
+        if (PDU_CACHE_INSTANCE.isUpdating(uri)) {
+            if (LOCAL_LOGV) {
+                Log.v(TAG, "updateHeaders: " + uri + " blocked by isUpdating()");
+            }
+            try {
+                PDU_CACHE_INSTANCE.awaitUpdate(uri);
+            } catch (InterruptedException e) {
+                Log.e(TAG, "updateHeaders: ", e);
             }
         }
         PDU_CACHE_INSTANCE.purge(uri);
@@ -1136,8 +1447,8 @@ public class PduPersister {
         // Only update the data when:
         // 1. New binary data supplied or
         // 2. The Uri of the part is different from the current one.
-        if ((part.getData() != null)
-                || (uri != part.getDataUri())) {
+        if ((part.getDataBuffer() != null)
+                || (uri != UriPartDataSource.getDataUri(part))) {
             persistData(part, uri, contentType, preOpenedFiles);
         }
     }
@@ -1152,28 +1463,25 @@ public class PduPersister {
      */
     public void updateParts(Uri uri, PduBody body, HashMap<Uri, InputStream> preOpenedFiles)
             throws MmsException {
-        try {
-            PduCacheEntry cacheEntry;
-            synchronized(PDU_CACHE_INSTANCE) {
-                if (PDU_CACHE_INSTANCE.isUpdating(uri)) {
-                    if (LOCAL_LOGV) {
-                        Log.v(TAG, "updateParts: " + uri + " blocked by isUpdating()");
-                    }
-                    try {
-                        PDU_CACHE_INSTANCE.wait();
-                    } catch (InterruptedException e) {
-                        Log.e(TAG, "updateParts: ", e);
-                    }
-                    cacheEntry = PDU_CACHE_INSTANCE.get(uri);
-                    if (cacheEntry != null) {
-                        ((MultimediaMessagePdu) cacheEntry.getPdu()).setBody(body);
-                    }
-                }
-                // Tell the cache to indicate to other callers that this item
-                // is currently being updated.
-                PDU_CACHE_INSTANCE.setUpdating(uri, true);
+        PduCacheEntry cacheEntry;
+        // Tell the cache to indicate to other callers that this item
+        // is currently being updated, once nobody else is updating it.
+        CountDownLatch update;
+        while ((update = PDU_CACHE_INSTANCE.beginUpdate(uri)) == null) {
+            if (LOCAL_LOGV) {
+                Log.v(TAG, "updateParts: " + uri + " blocked by isUpdating()");
             }
-
+            try {
+                PDU_CACHE_INSTANCE.awaitUpdate(uri);
+            } catch (InterruptedException e) {
+                Log.e(TAG, "updateParts: ", e);
+            }
+            cacheEntry = PDU_CACHE_INSTANCE.get(uri);
+            if (cacheEntry != null) {
+                ((MultimediaMessagePdu) cacheEntry.getPdu()).setBody(body);
+            }
+        }
+        try {
             ArrayList<PduPart> toBeCreated = new ArrayList<PduPart>();
             HashMap<Uri, PduPart> toBeUpdated = new HashMap<Uri, PduPart>();
 
@@ -1181,7 +1489,7 @@ public class PduPersister {
             StringBuilder filter = new StringBuilder().append('(');
             for (int i = 0; i < partsNum; i++) {
                 PduPart part = body.getPart(i);
-                Uri partUri = part.getDataUri();
+                Uri partUri = UriPartDataSource.getDataUri(part);
                 if ((partUri == null) || !partUri.getAuthority().startsWith("mms")) {
                     toBeCreated.add(part);
                 } else {
@@ -1217,65 +1525,14 @@ public class PduPersister {
                 updatePart(e.getKey(), e.getValue(), preOpenedFiles);
             }
         } finally {
-            synchronized(PDU_CACHE_INSTANCE) {
-                PDU_CACHE_INSTANCE.setUpdating(uri, false);
-                PDU_CACHE_INSTANCE.notifyAll();
-            }
+            PDU_CACHE_INSTANCE.endUpdate(uri, update);
         }
     }
 
     /**
-     * Persist a PDU object to specific location in the storage.
-     *
-     * @param pdu The PDU object to be stored.
-     * @param uri Where to store the given PDU object.
-     * @param createThreadId if true, this function may create a thread id for the recipients
-     * @param groupMmsEnabled if true, all of the recipients addressed in the PDU will be used
-     *  to create the associated thread. When false, only the sender will be used in finding or
-     *  creating the appropriate thread or conversation.
-     * @param preOpenedFiles if not null, a map of preopened InputStreams for the parts.
-     * @return A Uri which can be used to access the stored PDU.
+     * Get the values of the PDU row for the headers, addresses excepted.
      */
-
-    public Uri persist(GenericPdu pdu, Uri uri, boolean createThreadId, boolean groupMmsEnabled,
-            HashMap<Uri, InputStream> preOpenedFiles)
-            throws MmsException {
-        if (uri == null) {
-            throw new MmsException("Uri may not be null.");
-        }
-        long msgId = -1;
-        try {
-            msgId = ContentUris.parseId(uri);
-        } catch (NumberFormatException e) {
-            // the uri ends with "inbox" or something else like that
-        }
-        boolean existingUri = msgId != -1;
-
-        if (!existingUri && MESSAGE_BOX_MAP.get(uri) == null) {
-            throw new MmsException(
-                    "Bad destination, must be one of "
-                    + "content://mms/inbox, content://mms/sent, "
-                    + "content://mms/drafts, content://mms/outbox, "
-                    + "content://mms/temp.");
-        }
-        synchronized(PDU_CACHE_INSTANCE) {
-            // If the cache item is getting updated, wait until it's done updating before
-            // purging it.
-            if (PDU_CACHE_INSTANCE.isUpdating(uri)) {
-                if (LOCAL_LOGV) {
-                    Log.v(TAG, "persist: " + uri + " blocked by isUpdating()");
-                }
-                try {
-                    PDU_CACHE_INSTANCE.wait();
-                } catch (InterruptedException e) {
-                    Log.e(TAG, "persist1: ", e);
-                }
-            }
-        }
-        PDU_CACHE_INSTANCE.purge(uri);
-
-        PduHeaders header = pdu.getPduHeaders();
-        PduBody body = null;
+    private ContentValues getHeaderValues(PduHeaders header) {
         ContentValues values = new ContentValues();
         Set<Entry<Integer, String>> set;
 
@@ -1314,6 +1571,13 @@ public class PduPersister {
             }
         }
 
+        return values;
+    }
+
+    /**
+     * Get the addresses of the headers by address type.
+     */
+    private static HashMap<Integer, EncodedStringValue[]> getAddressMap(PduHeaders header) {
         HashMap<Integer, EncodedStringValue[]> addressMap =
                 new HashMap<Integer, EncodedStringValue[]>(ADDRESS_FIELDS.length);
         // Save address information.
@@ -1330,40 +1594,156 @@ public class PduPersister {
             }
             addressMap.put(addrType, array);
         }
+        return addressMap;
+    }
 
-        HashSet<String> recipients = new HashSet<String>();
-        int msgType = pdu.getMessageType();
+    /**
+     * Get the recipients whose thread a new message belongs to.
+     *
+     * @return the recipients, null if no thread ID is allocated for this
+     *         type of message
+     */
+    private HashSet<String> getThreadRecipients(int msgType,
+            HashMap<Integer, EncodedStringValue[]> addressMap, boolean groupMmsEnabled) {
         // Here we only allocate thread ID for M-Notification.ind,
         // M-Retrieve.conf and M-Send.req.
         // Some of other PDU types may be allocated a thread ID outside
         // this scope.
-        if ((msgType == PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND)
-                || (msgType == PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF)
-                || (msgType == PduHeaders.MESSAGE_TYPE_SEND_REQ)) {
-            switch (msgType) {
-                case PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND:
-                case PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF:
-                    loadRecipients(PduHeaders.FROM, recipients, addressMap, false);
-
-                    // For received messages when group MMS is enabled, we want to associate this
-                    // message with the thread composed of all the recipients -- all but our own
-                    // number, that is. This includes the person who sent the
-                    // message or the FROM field (above) in addition to the other people the message
-                    // was addressed to or the TO field. Our own number is in that TO field and
-                    // we have to ignore it in loadRecipients.
-                    if (groupMmsEnabled) {
-                        loadRecipients(PduHeaders.TO, recipients, addressMap, true);
-
-                        // Also load any numbers in the CC field to address group messaging
-                        // compatibility issues with devices that place numbers in this field
-                        // for group messages.
-                        loadRecipients(PduHeaders.CC, recipients, addressMap, true);
-                    }
-                    break;
-                case PduHeaders.MESSAGE_TYPE_SEND_REQ:
-                    loadRecipients(PduHeaders.TO, recipients, addressMap, false);
-                    break;
+        if ((msgType != PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND)
+                && (msgType != PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF)
+                && (msgType != PduHeaders.MESSAGE_TYPE_SEND_REQ)) {
+            return null;
+        }
+
+        HashSet<String> recipients = new HashSet<String>();
+        switch (msgType) {
+            case PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND:
+            case PduHeaders.MESSAGE_TYPE_RETRIEVE_CONF:
+                loadRecipients(PduHeaders.FROM, recipients, addressMap, false);
+
+                // For received messages when group MMS is enabled, we want to associate this
+                // message with the thread composed of all the recipients -- all but our own
+                // number, that is. This includes the person who sent the
+                // message or the FROM field (above) in addition to the other people the message
+                // was addressed to or the TO field. Our own number is in that TO field and
+                // we have to ignore it in loadRecipients.
+                if (groupMmsEnabled) {
+                    loadRecipients(PduHeaders.TO, recipients, addressMap, true);
+
+                    // Also load any numbers in the CC field to address group messaging
+                    // compatibility issues with devices that place numbers in this field
+                    // for group messages.
+                    loadRecipients(PduHeaders.CC, recipients, addressMap, true);
+                }
+                break;
+            case PduHeaders.MESSAGE_TYPE_SEND_REQ:
+                loadRecipients(PduHeaders.TO, recipients, addressMap, false);
+                break;
+        }
+        return recipients;
+    }
+
+    /**
+     * Put the values of the PDU row that summarize the body: whether the
+     * message is text-only and, unless already set from the headers, the
+     * message size.
+     */
+    private static void putBodyValues(ContentValues values, PduBody body) {
+        // Figure out if this PDU is a text-only message
+        boolean textOnly = true;
+
+        // Sum up the total message size
+        int messageSize = 0;
+
+        if (body != null) {
+            int partsNum = body.getPartsNum();
+            if (partsNum > 2) {
+                // For a text-only message there will be two parts: 1-the SMIL, 2-the text.
+                // Down a few lines below we're checking to make sure we've only got SMIL or
+                // text. We also have to check then we don't have more than two parts.
+                // Otherwise, a slideshow with two text slides would be marked as textOnly.
+                textOnly = false;
+            }
+            for (int i = 0; i < partsNum; i++) {
+                PduPart part = body.getPart(i);
+                messageSize += part.getDataLength();
+
+                // If we've got anything besides text/plain or SMIL part, then we've got
+                // an mms message with some other type of attachment.
+                String contentType = getPartContentType(part);
+                if (contentType != null && !ContentType.APP_SMIL.equals(contentType)
+                        && !ContentType.TEXT_PLAIN.equals(contentType)) {
+                    textOnly = false;
+                }
+            }
+        }
+        // Record whether this mms message is a simple plain text or not. This is a hint for the
+        // UI.
+        values.put(Mms.TEXT_ONLY, textOnly ? 1 : 0);
+        // The message-size might already have been inserted when parsing the
+        // PDU header. If not, then we insert the message size as well.
+        if (values.getAsInteger(Mms.MESSAGE_SIZE) == null) {
+            values.put(Mms.MESSAGE_SIZE, messageSize);
+        }
+    }
+
+    /**
+     * Persist a PDU object to specific location in the storage.
+     *
+     * @param pdu The PDU object to be stored.
+     * @param uri Where to store the given PDU object.
+     * @param createThreadId if true, this function may create a thread id for the recipients
+     * @param groupMmsEnabled if true, all of the recipients addressed in the PDU will be used
+     *  to create the associated thread. When false, only the sender will be used in finding or
+     *  creating the appropriate thread or conversation.
+     * @param preOpenedFiles if not null, a map of preopened InputStreams for the parts.
+     * @return A Uri which can be used to access the stored PDU.
+     */
+
+    public Uri persist(GenericPdu pdu, Uri uri, boolean createThreadId, boolean groupMmsEnabled,
+            HashMap<Uri, InputStream> preOpenedFiles)
+            throws MmsException {
+        if (uri == null) {
+            throw new MmsException("Uri may not be null.");
+        }
+        long msgId = -1;
+        try {
+            msgId = ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            // the uri ends with "inbox" or something else like that
+        }
+        boolean existingUri = msgId != -1;
+
+        if (!existingUri && MESSAGE_BOX_MAP.get(uri) == null) {
+            throw new MmsException(
+                    "Bad destination, must be one of "
+                    + "content://mms/inbox, content://mms/sent, "
+                    + "content://mms/drafts, content://mms/outbox, "
+                    + "content://mms/temp.");
+        }
+        // If the cache item is getting updated, wait until it's done updating before
+        // purging it.
+        if (PDU_CACHE_INSTANCE.isUpdating(uri)) {
+            if (LOCAL_LOGV) {
+                Log.v(TAG, "persist: " + uri + " blocked by isUpdating()");
+            }
+            try {
+                PDU_CACHE_INSTANCE.awaitUpdate(uri);
+            } catch (InterruptedException e) {
+                Log.e(TAG, "persist1: ", e);
             }
+        }
+        PDU_CACHE_INSTANCE.purge(uri);
+
+        PduHeaders header = pdu.getPduHeaders();
+        PduBody body = null;
+        ContentValues values = getHeaderValues(header);
+
+        HashMap<Integer, EncodedStringValue[]> addressMap = getAddressMap(header);
+
+        HashSet<String> recipients =
+                getThreadRecipients(pdu.getMessageType(), addressMap, groupMmsEnabled);
+        if (recipients != null) {
             long threadId = 0;
             if (createThreadId && !recipients.isEmpty()) {
                 // Given all the recipients associated with this message, find (or create) the
@@ -1377,48 +1757,18 @@ public class PduPersister {
         // while saving the parts.
         long dummyId = System.currentTimeMillis(); // Dummy ID of the msg.
 
-        // Figure out if this PDU is a text-only message
-        boolean textOnly = true;
-
-        // Sum up the total message size
-        int messageSize = 0;
-
         // Get body if the PDU is a RetrieveConf or SendReq.
         if (pdu instanceof MultimediaMessagePdu) {
             body = ((MultimediaMessagePdu) pdu).getBody();
             // Start saving parts if necessary.
             if (body != null) {
                 int partsNum = body.getPartsNum();
-                if (partsNum > 2) {
-                    // For a text-only message there will be two parts: 1-the SMIL, 2-the text.
-                    // Down a few lines below we're checking to make sure we've only got SMIL or
-                    // text. We also have to check then we don't have more than two parts.
-                    // Otherwise, a slideshow with two text slides would be marked as textOnly.
-                    textOnly = false;
-                }
                 for (int i = 0; i < partsNum; i++) {
-                    PduPart part = body.getPart(i);
-                    messageSize += part.getDataLength();
-                    persistPart(part, dummyId, preOpenedFiles);
-
-                    // If we've got anything besides text/plain or SMIL part, then we've got
-                    // an mms message with some other type of attachment.
-                    String contentType = getPartContentType(part);
-                    if (contentType != null && !ContentType.APP_SMIL.equals(contentType)
-                            && !ContentType.TEXT_PLAIN.equals(contentType)) {
-                        textOnly = false;
-                    }
+                    persistPart(body.getPart(i), dummyId, preOpenedFiles);
                 }
             }
         }
-        // Record whether this mms message is a simple plain text or not. This is a hint for the
-        // UI.
-        values.put(Mms.TEXT_ONLY, textOnly ? 1 : 0);
-        // The message-size might already have been inserted when parsing the
-        // PDU header. If not, then we insert the message size as well.
-        if (values.getAsInteger(Mms.MESSAGE_SIZE) == null) {
-            values.put(Mms.MESSAGE_SIZE, messageSize);
-        }
+        putBodyValues(values, body);
 
         Uri res = null;
         if (existingUri) {
@@ -1459,6 +1809,260 @@ public class PduPersister {
         return res;
     }
 
+    /**
+     * Start a batch to persist many new PDUs with few provider calls.
+     */
+    public PersistBatch newPersistBatch() {
+        return new PersistBatch();
+    }
+
+    /**
+     * Persists new PDUs in batches. Like persist(), the parts of up to
+     * PERSIST_BATCH_SIZE PDUs are saved first: their rows with one
+     * applyBatch(), text parts with their rows, then the data of the other
+     * parts. The PDU rows are inserted with a second applyBatch(), using
+     * back-references to give the parts the IDs of their PDUs, and their
+     * addresses with a third one. Thread IDs are looked up once per set of
+     * recipients.
+     *
+     * The provider does not apply a batch in a transaction: if storing
+     * fails, the PDUs of the failed batch may be partly stored. They are
+     * dropped from the batch all the same; commit() returns the Uris of
+     * those whose PDU row was inserted.
+     *
+     * A PersistBatch is not thread-safe.
+     */
+    public class PersistBatch {
+        private final ArrayList<PendingPdu> mPending = new ArrayList<PendingPdu>();
+        private final ArrayList<Uri> mPersisted = new ArrayList<Uri>();
+        private final HashMap<Set<String>, Long> mThreadIds = new HashMap<Set<String>, Long>();
+        private final HashSet<Uri> mPurged = new HashSet<Uri>();
+
+        /**
+         * Dummy IDs the parts are saved with until their PDU is inserted.
+         * Unlike those of persist(), they stay unique within a millisecond.
+         */
+        private long mNextDummyId = System.currentTimeMillis() * 1000;
+
+        private PersistBatch() {
+        }
+
+        /**
+         * Add a PDU to the batch. Like persist(), but the PDU can only be
+         * stored as a new message, and it may be stored before commit().
+         *
+         * @param pdu The PDU object to be stored.
+         * @param uri The message box to store the PDU into.
+         * @param createThreadId if true, this function may create a thread id for the recipients
+         * @param groupMmsEnabled if true, all of the recipients addressed in the PDU will be used
+         *  to create the associated thread. When false, only the sender will be used in finding or
+         *  creating the appropriate thread or conversation.
+         * @param preOpenedFiles if not null, a map of preopened InputStreams for the parts.
+         * @throws MmsException Bad destination or storing failed.
+         */
+        public void add(GenericPdu pdu, Uri uri, boolean createThreadId, boolean groupMmsEnabled,
+                HashMap<Uri, InputStream> preOpenedFiles) throws MmsException {
+            if ((uri == null) || (MESSAGE_BOX_MAP.get(uri) == null)) {
+                throw new MmsException(
+                        "Bad destination, must be one of "
+                        + "content://mms/inbox, content://mms/sent, "
+                        + "content://mms/drafts, content://mms/outbox, "
+                        + "content://mms/temp.");
+            }
+            if (mPurged.add(uri)) {
+                PDU_CACHE_INSTANCE.purge(uri);
+            }
+
+            PendingPdu pending = new PendingPdu();
+            pending.uri = uri;
+            pending.dummyId = mNextDummyId++;
+            pending.preOpenedFiles = preOpenedFiles;
+
+            PduHeaders header = pdu.getPduHeaders();
+            pending.values = getHeaderValues(header);
+            pending.addressMap = getAddressMap(header);
+
+            HashSet<String> recipients =
+                    getThreadRecipients(pdu.getMessageType(), pending.addressMap, groupMmsEnabled);
+            if (recipients != null) {
+                long threadId = 0;
+                if (createThreadId && !recipients.isEmpty()) {
+                    Long cachedThreadId = mThreadIds.get(recipients);
+                    if (cachedThreadId == null) {
+                        cachedThreadId = Threads.getOrCreateThreadId(mContext, recipients);
+                        mThreadIds.put(recipients, cachedThreadId);
+                    }
+                    threadId = cachedThreadId;
+                }
+                pending.values.put(Mms.THREAD_ID, threadId);
+            }
+
+            PduBody body = null;
+            if (pdu instanceof MultimediaMessagePdu) {
+                body = ((MultimediaMessagePdu) pdu).getBody();
+                if (body != null) {
+                    int partsNum = body.getPartsNum();
+                    for (int i = 0; i < partsNum; i++) {
+                        PduPart part = body.getPart(i);
+                        ContentValues values = getPartValues(part);
+                        String contentType = values.getAsString(Part.CONTENT_TYPE);
+                        if (ContentType.TEXT_PLAIN.equals(contentType)
+                                || ContentType.APP_SMIL.equals(contentType)
+                                || ContentType.TEXT_HTML.equals(contentType)) {
+                            byte[] data = part.getData();
+                            values.put(Part.TEXT, (data != null)
+                                    ? new EncodedStringValue(data).getString() : "");
+                        }
+                        pending.parts.add(part);
+                        pending.partValues.add(values);
+                    }
+                }
+            }
+            putBodyValues(pending.values, body);
+
+            mPending.add(pending);
+            if (mPending.size() >= PERSIST_BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Store the PDUs not stored yet.
+         *
+         * @return The Uris of all PDUs of the batch, in the order they were
+         *         added, like persist() returns them.
+         * @throws MmsException storing failed. Calling commit() again
+         *         returns the Uris of the PDUs stored nonetheless.
+         */
+        public List<Uri> commit() throws MmsException {
+            flush();
+            return new ArrayList<Uri>(mPersisted);
+        }
+
+        private void flush() throws MmsException {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            try {
+                flushPending();
+            } finally {
+                // Never stored again, even if storing failed: some of the
+                // rows may exist already.
+                mPending.clear();
+            }
+        }
+
+        private void flushPending() throws MmsException {
+            // Save parts first to avoid inconsistent message is loaded
+            // while saving the parts.
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>();
+            for (PendingPdu pending : mPending) {
+                Uri partsUri = Uri.parse("content://mms/" + pending.dummyId + "/part");
+                pending.firstPartIndex = operations.size();
+                for (ContentValues values : pending.partValues) {
+                    operations.add(ContentProviderOperation.newInsert(partsUri)
+                            .withValues(values).build());
+                }
+            }
+            if (!operations.isEmpty()) {
+                ContentProviderResult[] results = applyBatch(operations);
+                for (PendingPdu pending : mPending) {
+                    int partsNum = pending.parts.size();
+                    for (int i = 0; i < partsNum; i++) {
+                        PduPart part = pending.parts.get(i);
+                        ContentValues values = pending.partValues.get(i);
+                        Uri res = results[pending.firstPartIndex + i].uri;
+                        if (res == null) {
+                            throw new MmsException("Failed to persist part, return null.");
+                        }
+                        if (!values.containsKey(Part.TEXT)) {
+                            persistData(part, res, values.getAsString(Part.CONTENT_TYPE),
+                                    pending.preOpenedFiles);
+                        }
+                        // After successfully store the data, we should update
+                        // the dataUri of the part.
+                        part.setDataSource(new UriPartDataSource(mContentResolver, res));
+                    }
+                }
+            }
+
+            operations.clear();
+            for (PendingPdu pending : mPending) {
+                pending.pduIndex = operations.size();
+                operations.add(ContentProviderOperation.newInsert(pending.uri)
+                        .withValues(pending.values).build());
+
+                if (!pending.partValues.isEmpty()) {
+                    // Update the parts saved with the dummy ID to the real ID.
+                    Uri partsUri = Uri.parse("content://mms/" + pending.dummyId + "/part");
+                    operations.add(ContentProviderOperation.newUpdate(partsUri)
+                            .withValueBackReference(Part.MSG_ID, pending.pduIndex).build());
+                }
+            }
+            ContentProviderResult[] results = applyBatch(operations);
+
+            // Record the stored PDUs before anything else can fail, so that
+            // commit() still reports them.
+            for (PendingPdu pending : mPending) {
+                Uri res = results[pending.pduIndex].uri;
+                if (res != null) {
+                    pending.msgId = ContentUris.parseId(res);
+                    mPersisted.add(Uri.parse(pending.uri + "/" + pending.msgId));
+                }
+            }
+
+            operations.clear();
+            for (PendingPdu pending : mPending) {
+                if (results[pending.pduIndex].uri == null) {
+                    throw new MmsException("persist() failed: return null.");
+                }
+
+                // Save address information.
+                Uri addrUri = Uri.parse("content://mms/" + pending.msgId + "/addr");
+                for (int addrType : ADDRESS_FIELDS) {
+                    EncodedStringValue[] array = pending.addressMap.get(addrType);
+                    if (array != null) {
+                        for (EncodedStringValue addr : array) {
+                            operations.add(ContentProviderOperation.newInsert(addrUri)
+                                    .withValues(getAddressValues(addrType, addr)).build());
+                        }
+                    }
+                }
+            }
+            if (!operations.isEmpty()) {
+                applyBatch(operations);
+            }
+        }
+
+        private ContentProviderResult[] applyBatch(
+                ArrayList<ContentProviderOperation> operations) throws MmsException {
+            try {
+                return mContentResolver.applyBatch(Mms.CONTENT_URI.getAuthority(), operations);
+            } catch (RemoteException e) {
+                throw new MmsException(e);
+            } catch (OperationApplicationException e) {
+                throw new MmsException(e);
+            }
+        }
+    }
+
+    /**
+     * A PDU added to a PersistBatch, with its rows.
+     */
+    private static class PendingPdu {
+        Uri uri;
+        long dummyId;
+        long msgId;
+        HashMap<Uri, InputStream> preOpenedFiles;
+        ContentValues values;
+        HashMap<Integer, EncodedStringValue[]> addressMap;
+        final ArrayList<PduPart> parts = new ArrayList<PduPart>();
+        final ArrayList<ContentValues> partValues = new ArrayList<ContentValues>();
+        int firstPartIndex;
+        int pduIndex;
+    }
+
     /**
      * For a given address type, extract the recipients from the headers.
      *
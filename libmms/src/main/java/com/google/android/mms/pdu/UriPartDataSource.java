@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.pdu;
+
+import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Part data stored in a content provider, such as the parts of messages
+ * in the MMS provider.
+ *
+ * It also stands in for the Uri methods PduPart had before it moved to
+ * libmms-core: see {@link #setDataUri} and {@link #getDataUri}.
+ */
+public class UriPartDataSource implements PartDataSource {
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+
+    /**
+     * Constructor.
+     *
+     * @param resolver the content resolver to open the data with
+     * @param uri the uri of the data
+     */
+    public UriPartDataSource(ContentResolver resolver, Uri uri) {
+        if ((resolver == null) || (uri == null)) {
+            throw new NullPointerException();
+        }
+        mResolver = resolver;
+        mUri = uri;
+    }
+
+    /**
+     * Constructor for {@link #setDataUri}, without a content resolver. The
+     * data can't be read through this source; PduPersister reads it with
+     * its own resolver, and {@link AndroidPduComposer} gives it the one of
+     * its context.
+     *
+     * @param uri the uri of the data
+     */
+    UriPartDataSource(Uri uri) {
+        if (uri == null) {
+            throw new NullPointerException();
+        }
+        mResolver = null;
+        mUri = uri;
+    }
+
+    /**
+     * @return the uri of the data
+     */
+    public Uri getUri() {
+        return mUri;
+    }
+
+    /**
+     * Set the data of a part to the data at a uri, as PduPart.setDataUri
+     * did. The source has no content resolver to read the data with;
+     * PduPersister reads it with its own, and {@link AndroidPduComposer}
+     * gives it the one of its context.
+     *
+     * @param part the part
+     * @param uri the uri of the data, null to clear the data source
+     */
+    public static void setDataUri(PduPart part, Uri uri) {
+        part.setDataSource((uri != null) ? new UriPartDataSource(uri) : null);
+    }
+
+    /**
+     * Get the uri of the data of a part, as PduPart.getDataUri did.
+     *
+     * @param part the part
+     * @return the uri of the part data, null if the data is not stored
+     *         in a content provider
+     */
+    public static Uri getDataUri(PduPart part) {
+        PartDataSource source = part.getDataSource();
+        if (source instanceof UriPartDataSource) {
+            return ((UriPartDataSource) source).mUri;
+        }
+        return null;
+    }
+
+    /**
+     * Give a content resolver to the sources of the parts of a pdu which
+     * have none, replacing them in their parts.
+     *
+     * @param resolver the content resolver to open the data with
+     * @param pdu the pdu, left as is if it has no body
+     */
+    static void setResolver(ContentResolver resolver, GenericPdu pdu) {
+        if (!(pdu instanceof MultimediaMessagePdu)) {
+            return;
+        }
+        PduBody body = ((MultimediaMessagePdu) pdu).getBody();
+        if (body == null) {
+            return;
+        }
+        int partsNum = body.getPartsNum();
+        for (int i = 0; i < partsNum; i++) {
+            PduPart part = body.getPart(i);
+            PartDataSource source = part.getDataSource();
+            if ((source instanceof UriPartDataSource)
+                    && (((UriPartDataSource) source).mResolver == null)) {
+                part.setDataSource(new UriPartDataSource(resolver,
+                        ((UriPartDataSource) source).mUri));
+            }
+        }
+    }
+
+    public long getLength() {
+        if (mResolver == null) {
+            return -1;
+        }
+        AssetFileDescriptor fd = null;
+        try {
+            fd = mResolver.openAssetFileDescriptor(mUri, "r");
+            if (fd == null) {
+                return -1;
+            }
+            long length = fd.getLength();
+            return (length < 0) ? -1 : length;
+        } catch (FileNotFoundException e) {
+            return -1;
+        } catch (RuntimeException e) {
+            return -1;
+        } finally {
+            if (fd != null) {
+                try {
+                    fd.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    public InputStream openStream() throws IOException {
+        checkResolver();
+        InputStream in = mResolver.openInputStream(mUri);
+        if (in == null) {
+            throw new FileNotFoundException(mUri.toString());
+        }
+        return in;
+    }
+
+    public void transferTo(WritableByteChannel out, long length) throws IOException {
+        checkResolver();
+        AssetFileDescriptor fd = mResolver.openAssetFileDescriptor(mUri, "r");
+        if (fd == null) {
+            throw new FileNotFoundException(mUri.toString());
+        }
+        try {
+            FilePartDataSource.transferTo(
+                    new FileInputStream(fd.getFileDescriptor()).getChannel(),
+                    fd.getStartOffset(), length, out);
+        } finally {
+            fd.close();
+        }
+    }
+
+    private void checkResolver() throws IOException {
+        if (mResolver == null) {
+            throw new FileNotFoundException("No content resolver to read " + mUri);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mUri.toString();
+    }
+}
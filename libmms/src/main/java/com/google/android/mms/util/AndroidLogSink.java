@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.mms.util;
+
+import android.util.Log;
+
+/**
+ * Sends the messages of {@link MmsLog} to android.util.Log. MmsLog finds
+ * this class by name, so it must be kept when the library is shrunk.
+ */
+public class AndroidLogSink implements MmsLog.Sink {
+    public void log(int priority, String tag, String msg, Throwable tr) {
+        if (tr != null) {
+            msg = msg + '\n' + Log.getStackTraceString(tr);
+        }
+        Log.println(priority, tag, msg);
+    }
+}
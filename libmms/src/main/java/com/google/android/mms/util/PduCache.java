@@ -17,6 +17,8 @@
 
 package com.google.android.mms.util;
 
+import com.google.android.mms.pdu.GenericPdu;
+
 import android.content.ContentUris;
 import android.content.UriMatcher;
 import android.net.Uri;
@@ -25,12 +27,40 @@ import android.util.Log;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
+/**
+ * Cache of loaded pdus, indexed by message box and thread.
+ *
+ * The cache is safe for concurrent use. Its lock is held only while the
+ * entries and indexes are read or changed, never while a pdu is loaded or
+ * stored. Callers loading or storing a pdu mark its Uri as updating with
+ * {@link #beginUpdate}, and only they end the update; other callers wait
+ * for that Uri only, with {@link #awaitUpdate}.
+ *
+ * The cache is bounded by the estimated size of the pdus in bytes, see
+ * {@link GenericPdu#estimateSize}, so that a few messages with large parts
+ * evict as many small ones as their size requires. Pdus above
+ * {@link #setSoftReferenceThreshold} are held by soft references and let
+ * the garbage collector reclaim them under memory pressure.
+ */
 public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
     private static final String TAG = "PduCache";
     private static final boolean DEBUG = false;
     private static final boolean LOCAL_LOGV = false;
 
+    /**
+     * The byte budget of the cache.
+     */
+    private static final long MAX_CACHED_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * What an entry holding its pdu softly is charged, as the pdu itself
+     * may be reclaimed.
+     */
+    private static final long SOFT_ENTRY_SIZE = 512;
+
     private static final int MMS_ALL             = 0;
     private static final int MMS_ALL_ID          = 1;
     private static final int MMS_INBOX           = 2;
@@ -71,14 +101,35 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
         MATCH_TO_MSGBOX_ID_MAP.put(MMS_OUTBOX, Mms.MESSAGE_BOX_OUTBOX);
     }
 
+    /**
+     * Guards the entries and the message box and thread indexes.
+     */
+    private final Object mLock = new Object();
+
     private final HashMap<Integer, HashSet<Uri>> mMessageBoxes;
     private final HashMap<Long, HashSet<Uri>> mThreads;
-    private final HashSet<Uri> mUpdating;
+
+    /**
+     * The Uris being updated. Their latch is owned by the caller updating
+     * them, who removes and releases it when the update is done.
+     */
+    private final ConcurrentHashMap<Uri, CountDownLatch> mUpdating;
+
+    /**
+     * Pdus larger than this, in bytes, are held by soft references.
+     */
+    private volatile long mSoftReferenceThreshold = Long.MAX_VALUE;
+
+    /**
+     * The number of soft entries found reclaimed by the garbage collector.
+     */
+    private long mReclaimedCount;
 
     private PduCache() {
+        super(new LruPolicy<Uri>(), MAX_CACHED_BYTES);
         mMessageBoxes = new HashMap<Integer, HashSet<Uri>>();
         mThreads = new HashMap<Long, HashSet<Uri>>();
-        mUpdating = new HashSet<Uri>();
+        mUpdating = new ConcurrentHashMap<Uri, CountDownLatch>();
     }
 
     synchronized public static final PduCache getInstance() {
@@ -92,76 +143,208 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
     }
 
     @Override
-    synchronized public boolean put(Uri uri, PduCacheEntry entry) {
-        int msgBoxId = entry.getMessageBox();
-        HashSet<Uri> msgBox = mMessageBoxes.get(msgBoxId);
-        if (msgBox == null) {
-            msgBox = new HashSet<Uri>();
-            mMessageBoxes.put(msgBoxId, msgBox);
+    public boolean put(Uri uri, PduCacheEntry entry) {
+        boolean result;
+        synchronized (mLock) {
+            int msgBoxId = entry.getMessageBox();
+            HashSet<Uri> msgBox = mMessageBoxes.get(msgBoxId);
+            if (msgBox == null) {
+                msgBox = new HashSet<Uri>();
+                mMessageBoxes.put(msgBoxId, msgBox);
+            }
+
+            long threadId = entry.getThreadId();
+            HashSet<Uri> thread = mThreads.get(threadId);
+            if (thread == null) {
+                thread = new HashSet<Uri>();
+                mThreads.put(threadId, thread);
+            }
+
+            if (!entry.isSoft() && (entry.getSize() > mSoftReferenceThreshold)) {
+                entry = entry.toSoft();
+            }
+
+            Uri finalKey = normalizeKey(uri);
+            result = super.put(finalKey, entry);
+            if (result) {
+                msgBox.add(finalKey);
+                thread.add(finalKey);
+            }
         }
+        return result;
+    }
 
-        long threadId = entry.getThreadId();
-        HashSet<Uri> thread = mThreads.get(threadId);
-        if (thread == null) {
-            thread = new HashSet<Uri>();
-            mThreads.put(threadId, thread);
+    /**
+     * {@inheritDoc} The returned entry holds its pdu strongly, even if the
+     * cache holds it softly. An entry whose pdu has been reclaimed is
+     * removed and null is returned.
+     */
+    @Override
+    public PduCacheEntry get(Uri uri) {
+        synchronized (mLock) {
+            PduCacheEntry entry = super.get(uri);
+            if ((entry == null) || !entry.isSoft()) {
+                return entry;
+            }
+
+            PduCacheEntry strongEntry = entry.toStrong();
+            if (strongEntry == null) {
+                if (LOCAL_LOGV) {
+                    Log.v(TAG, uri + " was reclaimed.");
+                }
+                mReclaimedCount++;
+                super.purge(uri);
+                removeFromThreads(uri, entry);
+                removeFromMessageBoxes(uri, entry);
+            }
+            return strongEntry;
         }
+    }
 
-        Uri finalKey = normalizeKey(uri);
-        boolean result = super.put(finalKey, entry);
-        if (result) {
-            msgBox.add(finalKey);
-            thread.add(finalKey);
+    @Override
+    public int size() {
+        synchronized (mLock) {
+            return super.size();
+        }
+    }
+
+    @Override
+    protected long sizeOf(Uri uri, PduCacheEntry entry) {
+        return entry.isSoft() ? SOFT_ENTRY_SIZE : entry.getSize();
+    }
+
+    /**
+     * Hold the pdus put from now on by soft references if their estimated
+     * size is above the threshold. They are then charged a fixed size
+     * instead, and may be reclaimed by the garbage collector.
+     *
+     * @param threshold the size in bytes, Long.MAX_VALUE to hold all pdus
+     *        strongly
+     */
+    public void setSoftReferenceThreshold(long threshold) {
+        mSoftReferenceThreshold = threshold;
+    }
+
+    /**
+     * @return the estimated bytes held by the cache, a fixed size for each
+     *         pdu held softly
+     */
+    @Override
+    public long getTotalSize() {
+        synchronized (mLock) {
+            return super.getTotalSize();
         }
-        setUpdating(uri, false);
-        return result;
     }
 
-    synchronized public void setUpdating(Uri uri, boolean updating) {
-        if (updating) {
-            mUpdating.add(uri);
-        } else {
-            mUpdating.remove(uri);
+    @Override
+    public long getHitCount() {
+        synchronized (mLock) {
+            return super.getHitCount();
         }
     }
 
-    synchronized public boolean isUpdating(Uri uri) {
-        return mUpdating.contains(uri);
+    @Override
+    public long getMissCount() {
+        synchronized (mLock) {
+            return super.getMissCount();
+        }
     }
 
     @Override
-    synchronized public PduCacheEntry purge(Uri uri) {
+    public long getEvictionCount() {
+        synchronized (mLock) {
+            return super.getEvictionCount();
+        }
+    }
+
+    /**
+     * @return the number of pdus held softly that were found reclaimed by
+     *         the garbage collector
+     */
+    public long getReclaimedCount() {
+        synchronized (mLock) {
+            return mReclaimedCount;
+        }
+    }
+
+    @Override
+    protected void onEvicted(Uri key, PduCacheEntry entry) {
+        removeFromThreads(key, entry);
+        removeFromMessageBoxes(key, entry);
+    }
+
+    public boolean isUpdating(Uri uri) {
+        return mUpdating.containsKey(uri);
+    }
+
+    /**
+     * Mark the Uri as updating, unless it is being updated already.
+     *
+     * @return the latch of the update if the caller is now updating the
+     *         Uri, to be given to {@link #endUpdate} when done; null if
+     *         someone else is
+     */
+    public CountDownLatch beginUpdate(Uri uri) {
+        CountDownLatch latch = new CountDownLatch(1);
+        return (mUpdating.putIfAbsent(uri, latch) == null) ? latch : null;
+    }
+
+    /**
+     * End an update begun with {@link #beginUpdate}, and let the callers
+     * waiting for it go ahead.
+     *
+     * @param latch the latch returned by beginUpdate
+     */
+    public void endUpdate(Uri uri, CountDownLatch latch) {
+        mUpdating.remove(uri, latch);
+        latch.countDown();
+    }
+
+    /**
+     * Wait until the Uri is not being updated. Returns right away if it is
+     * not being updated now.
+     */
+    public void awaitUpdate(Uri uri) throws InterruptedException {
+        CountDownLatch latch = mUpdating.get(uri);
+        if (latch != null) {
+            latch.await();
+        }
+    }
+
+    @Override
+    public PduCacheEntry purge(Uri uri) {
         int match = URI_MATCHER.match(uri);
-        switch (match) {
-            case MMS_ALL_ID:
-                return purgeSingleEntry(uri);
-            case MMS_INBOX_ID:
-            case MMS_SENT_ID:
-            case MMS_DRAFTS_ID:
-            case MMS_OUTBOX_ID:
-                String msgId = uri.getLastPathSegment();
-                return purgeSingleEntry(Uri.withAppendedPath(Mms.CONTENT_URI, msgId));
-            // Implicit batch of purge, return null.
-            case MMS_ALL:
-            case MMS_CONVERSATION:
-                purgeAll();
-                return null;
-            case MMS_INBOX:
-            case MMS_SENT:
-            case MMS_DRAFTS:
-            case MMS_OUTBOX:
-                purgeByMessageBox(MATCH_TO_MSGBOX_ID_MAP.get(match));
-                return null;
-            case MMS_CONVERSATION_ID:
-                purgeByThreadId(ContentUris.parseId(uri));
-                return null;
-            default:
-                return null;
+        synchronized (mLock) {
+            switch (match) {
+                case MMS_ALL_ID:
+                    return purgeSingleEntry(uri);
+                case MMS_INBOX_ID:
+                case MMS_SENT_ID:
+                case MMS_DRAFTS_ID:
+                case MMS_OUTBOX_ID:
+                    String msgId = uri.getLastPathSegment();
+                    return purgeSingleEntry(Uri.withAppendedPath(Mms.CONTENT_URI, msgId));
+                // Implicit batch of purge, return null.
+                case MMS_ALL:
+                case MMS_CONVERSATION:
+                    purgeAll();
+                    return null;
+                case MMS_INBOX:
+                case MMS_SENT:
+                case MMS_DRAFTS:
+                case MMS_OUTBOX:
+                    purgeByMessageBox(MATCH_TO_MSGBOX_ID_MAP.get(match));
+                    return null;
+                case MMS_CONVERSATION_ID:
+                    purgeByThreadId(ContentUris.parseId(uri));
+                    return null;
+                default:
+                    return null;
+            }
         }
     }
 
     private PduCacheEntry purgeSingleEntry(Uri key) {
-        mUpdating.remove(key);
         PduCacheEntry entry = super.purge(key);
         if (entry != null) {
             removeFromThreads(key, entry);
@@ -172,12 +355,13 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
     }
 
     @Override
-    synchronized public void purgeAll() {
-        super.purgeAll();
+    public void purgeAll() {
+        synchronized (mLock) {
+            super.purgeAll();
 
-        mMessageBoxes.clear();
-        mThreads.clear();
-        mUpdating.clear();
+            mMessageBoxes.clear();
+            mThreads.clear();
+        }
     }
 
     /**
@@ -218,7 +402,6 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
             HashSet<Uri> msgBox = mMessageBoxes.remove(msgBoxId);
             if (msgBox != null) {
                 for (Uri key : msgBox) {
-                    mUpdating.remove(key);
                     PduCacheEntry entry = super.purge(key);
                     if (entry != null) {
                         removeFromThreads(key, entry);
@@ -243,7 +426,6 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
         HashSet<Uri> thread = mThreads.remove(threadId);
         if (thread != null) {
             for (Uri key : thread) {
-                mUpdating.remove(key);
                 PduCacheEntry entry = super.purge(key);
                 if (entry != null) {
                     removeFromMessageBoxes(key, entry);
@@ -253,7 +435,7 @@ public final class PduCache extends AbstractCache<Uri, PduCacheEntry> {
     }
 
     private void removeFromMessageBoxes(Uri key, PduCacheEntry entry) {
-        HashSet<Uri> msgBox = mThreads.get(Long.valueOf(entry.getMessageBox()));
+        HashSet<Uri> msgBox = mMessageBoxes.get(entry.getMessageBox());
         if (msgBox != null) {
             msgBox.remove(key);
         }
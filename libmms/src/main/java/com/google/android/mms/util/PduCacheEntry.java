@@ -19,19 +19,40 @@ package com.google.android.mms.util;
 
 import com.google.android.mms.pdu.GenericPdu;
 
+import java.lang.ref.SoftReference;
+
 public final class PduCacheEntry {
+    /**
+     * The pdu, null if it is held by mSoftPdu instead.
+     */
     private final GenericPdu mPdu;
+    private final SoftReference<GenericPdu> mSoftPdu;
     private final int mMessageBox;
     private final long mThreadId;
 
+    /**
+     * The estimated size of the pdu in bytes.
+     */
+    private final long mSize;
+
     public PduCacheEntry(GenericPdu pdu, int msgBox, long threadId) {
+        this(pdu, null, msgBox, threadId, (pdu != null) ? pdu.estimateSize() : 0);
+    }
+
+    private PduCacheEntry(GenericPdu pdu, SoftReference<GenericPdu> softPdu,
+            int msgBox, long threadId, long size) {
         mPdu = pdu;
+        mSoftPdu = softPdu;
         mMessageBox = msgBox;
         mThreadId = threadId;
+        mSize = size;
     }
 
+    /**
+     * @return the pdu, null if it was held softly and has been reclaimed
+     */
     public GenericPdu getPdu() {
-        return mPdu;
+        return (mSoftPdu != null) ? mSoftPdu.get() : mPdu;
     }
 
     public int getMessageBox() {
@@ -41,4 +62,37 @@ public final class PduCacheEntry {
     public long getThreadId() {
         return mThreadId;
     }
+
+    /**
+     * @return the estimated size of the pdu in bytes, see
+     *         {@link GenericPdu#estimateSize}
+     */
+    public long getSize() {
+        return mSize;
+    }
+
+    /**
+     * @return true if the pdu is held by a soft reference
+     */
+    public boolean isSoft() {
+        return mSoftPdu != null;
+    }
+
+    /**
+     * @return an entry holding the pdu of this one by a soft reference
+     */
+    PduCacheEntry toSoft() {
+        return new PduCacheEntry(null, new SoftReference<GenericPdu>(getPdu()),
+                mMessageBox, mThreadId, mSize);
+    }
+
+    /**
+     * @return an entry holding the pdu of this one strongly, null if it
+     *         has been reclaimed
+     */
+    PduCacheEntry toStrong() {
+        GenericPdu pdu = getPdu();
+        return (pdu != null)
+                ? new PduCacheEntry(pdu, null, mMessageBox, mThreadId, mSize) : null;
+    }
 }